@@ -10,6 +10,9 @@ import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.IntObjectMap;
+import com.acertainbookstore.utils.SaleMissIndex;
 
 /**
  * {@link CertainBookStore} implements the {@link BookStore} and
@@ -23,7 +26,16 @@ public class CertainBookStore implements BookStore, StockManager {
     /**
      * The mapping of books from ISBN to {@link BookStoreBook}.
      */
-    private Map<Integer, BookStoreBook> bookMap = null;
+    private IntObjectMap<BookStoreBook> bookMap = null;
+
+    /** The editor picks, for drawing random picks without scanning the books. */
+    private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+    /** The rated books by average rating, read without holding the store monitor. */
+    private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+    /** The snapshots of the books in demand, read without holding the store monitor. */
+    private final SaleMissIndex<StockBook> saleMissIndex = new SaleMissIndex<>();
 
     /**
      * Instantiates a new {@link CertainBookStore}.
@@ -31,7 +43,7 @@ public class CertainBookStore implements BookStore, StockManager {
     public CertainBookStore() {
 
         // Constructors are not synchronized
-        bookMap = new HashMap<>();
+        bookMap = new IntObjectMap<>();
     }
 
     private synchronized void validate(StockBook book) throws BookStoreException {
@@ -101,6 +113,21 @@ public class CertainBookStore implements BookStore, StockManager {
         }
     }
 
+    /**
+     * Puts the current state of the book in the sale miss index, or takes it
+     * out if it has no sale misses. Called every time a book changes.
+     *
+     * @param book
+     *            the book
+     */
+    private synchronized void updateSaleMissIndex(BookStoreBook book) {
+        if (book.hadSaleMiss()) {
+            saleMissIndex.add(book.getISBN(), book.immutableStockBook());
+        } else {
+            saleMissIndex.remove(book.getISBN());
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -119,7 +146,11 @@ public class CertainBookStore implements BookStore, StockManager {
         // Then add these books to the store.
         for (StockBook book : bookSet) {
             int isbn = book.getISBN();
-            bookMap.put(isbn, new BookStoreBook(book));
+            BookStoreBook bookStoreBook = new BookStoreBook(book);
+            bookMap.put(isbn, bookStoreBook);
+            editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+            topRatedIndex.update(bookStoreBook);
+            updateSaleMissIndex(bookStoreBook);
         }
 
     }
@@ -150,6 +181,7 @@ public class CertainBookStore implements BookStore, StockManager {
             numCopies = bookCopy.getNumCopies();
             book = bookMap.get(isbn);
             book.addCopies(numCopies);
+            updateSaleMissIndex(book);
         }
 
     }
@@ -185,7 +217,10 @@ public class CertainBookStore implements BookStore, StockManager {
 
         // Then set the editor pick.
         for (BookEditorPick editorPickArg : editorPicks) {
-            bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+            BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+            book.setEditorPick(editorPickArg.isEditorPick());
+            editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+            updateSaleMissIndex(book);
         }
     }
 
@@ -225,6 +260,7 @@ public class CertainBookStore implements BookStore, StockManager {
             for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
                 book = bookMap.get(saleMissEntry.getKey());
                 book.addSaleMiss(saleMissEntry.getValue());
+                updateSaleMissIndex(book);
             }
             throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
         }
@@ -233,6 +269,7 @@ public class CertainBookStore implements BookStore, StockManager {
         for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
             book = bookMap.get(bookCopyToBuy.getISBN());
             book.buyCopies(bookCopyToBuy.getNumCopies());
+            updateSaleMissIndex(book);
         }
     }
 
@@ -284,33 +321,9 @@ public class CertainBookStore implements BookStore, StockManager {
         }
 
         // Get all books that are editor picks.
-        List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream().map(pair -> pair.getValue())
-                .filter(book -> book.isEditorPick()).collect(Collectors.toList());
-
-        // Find numBooks random indices of books that will be picked.
-        Random rand = new Random();
-        Set<Integer> tobePicked = new HashSet<>();
-        int rangePicks = listAllEditorPicks.size();
-
-        if (rangePicks <= numBooks) {
-
-            // We need to add all books.
-            for (int i = 0; i < listAllEditorPicks.size(); i++) {
-                tobePicked.add(i);
-            }
-        } else {
-
-            // We need to pick randomly the books that need to be returned.
-            int randNum;
-
-            while (tobePicked.size() < numBooks) {
-                randNum = rand.nextInt(rangePicks);
-                tobePicked.add(randNum);
-            }
-        }
-
-        // Return all the books by the randomly chosen indices.
-        return tobePicked.stream().map(index -> listAllEditorPicks.get(index).immutableBook())
+        // Draw the picks from the editor pick index instead of scanning the books.
+        return editorPickIndex.sample(numBooks).stream()
+                .map(book -> book.immutableBook())
                 .collect(Collectors.toList());
     }
 
@@ -326,36 +339,9 @@ public class CertainBookStore implements BookStore, StockManager {
             throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
         }
 
-        // Get All books have rates
-        List<BookStoreBook> listAllRatedBooks = bookMap.entrySet().stream().map(pair -> pair.getValue())
-                .filter(book -> (book.getAverageRating() != -1.0f)).collect(Collectors.toList());
-
-        Collections.sort(listAllRatedBooks, new Comparator<BookStoreBook>() {
-            @Override
-            public int compare(BookStoreBook b1, BookStoreBook b2) {
-                // The return value is an int type value, greater than 0 shows greater sort, vice versa
-                return (int)(b2.getAverageRating()-b1.getAverageRating());
-            }
-        });
-        // Find the minmium number between listSize and numBooks required to return
-        Set<Integer> tobePicked = new HashSet<>();
-        int listSize = listAllRatedBooks.size();
-
-        if (listSize <= numBooks) {
-
-            // We need to add all books.
-            for (int i = 0; i < listAllRatedBooks.size(); i++) {
-                tobePicked.add(i);
-            }
-        } else {
-            for (int i=0; i<numBooks; i++ ){
-                tobePicked.add(i);
-            }
-
-        }
-
-        return tobePicked.stream().map(index -> listAllRatedBooks.get(index).immutableBook())
-                .collect(Collectors.toList());
+        // The index is kept ordered by rateBooks, so only the first books are
+        // read. The monitor keeps a rating from moving a book while they are.
+        return topRatedIndex.top(numBooks);
     }
 
     /*
@@ -364,11 +350,10 @@ public class CertainBookStore implements BookStore, StockManager {
      * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
      */
     @Override
-    public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-        Collection<BookStoreBook> bookMapValues = bookMap.values();
-
-        return bookMapValues.stream().filter(book -> book.hadSaleMiss())
-                .map(book -> book.immutableStockBook()).collect(Collectors.toList());
+    public List<StockBook> getBooksInDemand() throws BookStoreException {
+        // The index only holds the books with sale misses, so the catalog is
+        // not scanned, and the store monitor is not taken.
+        return saleMissIndex.books();
     }
 
     /*
@@ -391,6 +376,8 @@ public class CertainBookStore implements BookStore, StockManager {
         for (BookRating bookToRate : bookRating) {
             book = bookMap.get(bookToRate.getISBN());
             book.addRating(bookToRate.getRating());
+            topRatedIndex.update(book);
+            updateSaleMissIndex(book);
         }
 
     }
@@ -402,6 +389,9 @@ public class CertainBookStore implements BookStore, StockManager {
      */
     public synchronized void removeAllBooks() throws BookStoreException {
         bookMap.clear();
+        editorPickIndex.clear();
+        topRatedIndex.clear();
+        saleMissIndex.clear();
     }
 
     /*
@@ -426,6 +416,9 @@ public class CertainBookStore implements BookStore, StockManager {
 
         for (int isbn : isbnSet) {
             bookMap.remove(isbn);
+            editorPickIndex.remove(isbn);
+            topRatedIndex.remove(isbn);
+            saleMissIndex.remove(isbn);
         }
     }
 }
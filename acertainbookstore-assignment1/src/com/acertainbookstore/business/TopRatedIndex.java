@@ -0,0 +1,123 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.acertainbookstore.utils.IntObjectMap;
+
+/**
+ * {@link TopRatedIndex} keeps the rated books ordered by average rating, best
+ * first, with ties broken by ISBN. It is updated every time a book is rated,
+ * so the top <code>k</code> books are read in O(k log N) without sorting the
+ * catalog.
+ *
+ * The index is not thread-safe, the callers serialize the changes and the
+ * reads, so that a read never sees a book moving between two places.
+ */
+final class TopRatedIndex {
+
+	/** The order of the index, best average rating first. */
+	private static final Comparator<Entry> ORDER = Comparator
+			.comparingDouble((Entry entry) -> entry.averageRating).reversed()
+			.thenComparingInt(entry -> entry.isbn);
+
+	/** The rated books, in order. */
+	private final TreeSet<Entry> entries = new TreeSet<>(ORDER);
+
+	/** The current entry of every rated book. */
+	private final IntObjectMap<Entry> entryMap = new IntObjectMap<>();
+
+	/**
+	 * {@link Entry} is the position of a book in the index.
+	 */
+	private static final class Entry {
+
+		/** The average rating. */
+		private final float averageRating;
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The book handed out to the clients. */
+		private final ImmutableBook book;
+
+		private Entry(float averageRating, ImmutableBook book) {
+			this.averageRating = averageRating;
+			this.isbn = book.getISBN();
+			this.book = book;
+		}
+	}
+
+	/**
+	 * Puts the book at the place of its current average rating. Books never
+	 * rated are left out.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void update(BookStoreBook book) {
+		if (book.getNumTimesRated() == 0) {
+			remove(book.getISBN());
+			return;
+		}
+
+		Entry entry = new Entry(book.getAverageRating(), book.immutableBook());
+		Entry previous = entryMap.get(entry.isbn);
+
+		if (previous != null && ORDER.compare(previous, entry) == 0) {
+			// The average did not change, the book keeps its place.
+			return;
+		}
+
+		if (previous != null) {
+			entries.remove(previous);
+		}
+
+		entries.add(entry);
+		entryMap.put(entry.isbn, entry);
+	}
+
+	/**
+	 * Takes the book out of the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		Entry previous = entryMap.remove(isbn);
+
+		if (previous != null) {
+			entries.remove(previous);
+		}
+	}
+
+	/**
+	 * Takes all the books out of the index.
+	 */
+	void clear() {
+		entries.clear();
+		entryMap.clear();
+	}
+
+	/**
+	 * Gets the best rated books.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return at most <code>numBooks</code> books, best average rating first
+	 */
+	List<Book> top(int numBooks) {
+		List<Book> result = new ArrayList<>(Math.min(numBooks, entries.size()));
+
+		for (Entry entry : entries) {
+			if (result.size() >= numBooks) {
+				break;
+			}
+
+			result.add(entry.book);
+		}
+		return result;
+	}
+}
@@ -162,6 +162,50 @@ public class BookStoreTest {
 		}
 
 	}
+
+	/**
+	 * Tests that getTopRatedBooks orders the books by their exact average
+	 * rating and follows later ratings.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetTopRatedBooksOrder() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+
+		// Averages 3.5, 3.0 and 4.0: a truncating order would tie the first two.
+		Set<BookRating> booksToRate = new HashSet<>();
+		booksToRate.add(new BookRating(TEST_ISBN, 3));
+		booksToRate.add(new BookRating(TEST_ISBN + 1, 3));
+		booksToRate.add(new BookRating(TEST_ISBN + 2, 4));
+		client.rateBooks(booksToRate);
+
+		booksToRate.clear();
+		booksToRate.add(new BookRating(TEST_ISBN, 4));
+		client.rateBooks(booksToRate);
+
+		List<Book> topRatedBooks = client.getTopRatedBooks(2);
+		assertEquals(2, topRatedBooks.size());
+		assertEquals(TEST_ISBN + 2, topRatedBooks.get(0).getISBN());
+		assertEquals(TEST_ISBN, topRatedBooks.get(1).getISBN());
+
+		// Dropping to an average of 1.0 moves the book to the end.
+		booksToRate.clear();
+		booksToRate.add(new BookRating(TEST_ISBN + 2, 0));
+
+		for (int i = 0; i < 3; i++) {
+			client.rateBooks(booksToRate);
+		}
+
+		topRatedBooks = client.getTopRatedBooks(5);
+		assertEquals(3, topRatedBooks.size());
+		assertEquals(TEST_ISBN, topRatedBooks.get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, topRatedBooks.get(1).getISBN());
+		assertEquals(TEST_ISBN + 2, topRatedBooks.get(2).getISBN());
+	}
+
 	/**
 	 * Tests basic rateBooks() functionality.
 	 *
@@ -393,7 +393,7 @@ public class StockManagerTest {
 	@Test
 	public void testGetBooksInDemandNone() throws BookStoreException{
 		List<StockBook> demandBookList= storeManager.getBooksInDemand();
-		assertTrue(demandBookList==null);
+		assertTrue(demandBookList.isEmpty());
 	}
 	/**
 	 * Checks cases when books in demand is not 0.
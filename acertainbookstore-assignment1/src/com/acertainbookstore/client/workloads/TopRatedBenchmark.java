@@ -0,0 +1,123 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * TopRatedBenchmark measures getTopRatedBooks on a catalog of 1M rated books
+ * while writer threads rate random books as fast as they can: the reads and
+ * the ratings per millisecond, and the mean latency of a read.
+ *
+ * Run it with a large heap, e.g. -Xmx4g.
+ */
+public class TopRatedBenchmark {
+
+    private static final int NUM_BOOKS = 1_000_000;
+    private static final int TOP_BOOKS = 10;
+    private static final int BOOKS_PER_RATING = 5;
+    private static final int NUM_READERS = 4;
+    private static final int NUM_WRITERS = 4;
+    private static final long WARMUP_MILLIS = 2_000;
+    private static final long RUN_MILLIS = 5_000;
+
+    /**
+     * Populates the store, then runs the readers and the writers together and
+     * prints the results.
+     */
+    public static void main(String[] args) throws Exception {
+        CertainBookStore store = new CertainBookStore();
+        populate(store);
+
+        // Let the JIT settle before measuring.
+        measure(store, WARMUP_MILLIS);
+        long[] totals = measure(store, RUN_MILLIS);
+
+        System.out.printf("%d books, %d readers, %d writers%n", NUM_BOOKS, NUM_READERS, NUM_WRITERS);
+        System.out.printf("reads   %12.0f /ms %10.1f us/read%n", (double) totals[0] / RUN_MILLIS,
+                (double) totals[2] / totals[0] / 1_000);
+        System.out.printf("ratings %12.0f /ms%n", (double) totals[1] / RUN_MILLIS);
+    }
+
+    private static void populate(CertainBookStore store) throws Exception {
+        Set<StockBook> books = new HashSet<>();
+        Set<BookRating> ratings = new HashSet<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+            books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10.0f, 10, 0, 0, 0, false));
+            ratings.add(new BookRating(isbn, random.nextInt(6)));
+        }
+
+        store.addBooks(books);
+        store.rateBooks(ratings);
+    }
+
+    /**
+     * Runs the readers and the writers for the given time and returns the
+     * number of reads, the number of ratings and the nanoseconds spent reading.
+     */
+    private static long[] measure(CertainBookStore store, long millis) throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_READERS + NUM_WRITERS);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long deadline = System.nanoTime() + millis * 1_000_000;
+
+        for (int t = 0; t < NUM_READERS; t++) {
+            futures.add(exec.submit(() -> {
+                long reads = 0;
+                long readNanos = 0;
+
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    store.getTopRatedBooks(TOP_BOOKS);
+                    readNanos += System.nanoTime() - start;
+                    reads++;
+                }
+                return new long[] { reads, 0, readNanos };
+            }));
+        }
+
+        for (int t = 0; t < NUM_WRITERS; t++) {
+            futures.add(exec.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Set<BookRating> ratings = new HashSet<>();
+                long rated = 0;
+
+                while (System.nanoTime() < deadline) {
+                    ratings.clear();
+
+                    for (int i = 0; i < BOOKS_PER_RATING; i++) {
+                        ratings.add(new BookRating(random.nextInt(NUM_BOOKS) + 1, random.nextInt(6)));
+                    }
+
+                    store.rateBooks(ratings);
+                    rated += ratings.size();
+                }
+                return new long[] { 0, rated, 0 };
+            }));
+        }
+
+        long[] totals = new long[3];
+
+        for (Future<long[]> future : futures) {
+            long[] result = future.get();
+
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += result[i];
+            }
+        }
+
+        exec.shutdownNow();
+        return totals;
+    }
+}
@@ -254,7 +254,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
         BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
         try {
-            myBookStore.getBooksInDemand();
+            bookStoreResponse.setList(myBookStore.getBooksInDemand());
         } catch (BookStoreException ex) {
             bookStoreResponse.setException(ex);
         }
@@ -0,0 +1,161 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link EditorPickIndex} keeps the editor picked books in a dense array, with
+ * a map from ISBN to position, so that a book is added or removed in constant
+ * time and <code>k</code> random picks are drawn in O(k) with Floyd's
+ * algorithm, whatever the size of the catalog.
+ *
+ * A removed book is replaced by the last book of the array. The index is
+ * thread-safe.
+ *
+ * @param <T>
+ *            the type of the indexed books
+ */
+public final class EditorPickIndex<T> {
+
+	/** The default capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The ISBNs of the books, in the order of {@link #books}. */
+	private int[] isbns = new int[DEFAULT_CAPACITY];
+
+	/** The books. */
+	private Object[] books = new Object[DEFAULT_CAPACITY];
+
+	/** The number of books. */
+	private int size = 0;
+
+	/** The mapping of books from ISBN to position. */
+	private final IntIntMap positions = new IntIntMap();
+
+	/**
+	 * Gets the number of editor picks.
+	 *
+	 * @return the number of editor picks
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Marks or unmarks the book as editor pick.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book
+	 * @param editorPick
+	 *            true, if the book is editor picked
+	 */
+	public void update(int isbn, T book, boolean editorPick) {
+		if (editorPick) {
+			add(isbn, book);
+		} else {
+			remove(isbn);
+		}
+	}
+
+	/**
+	 * Adds the book, or replaces the indexed one with the same ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book
+	 */
+	public synchronized void add(int isbn, T book) {
+		int position = positions.get(isbn);
+
+		if (position != IntIntMap.NO_VALUE) {
+			books[position] = book;
+			return;
+		}
+
+		if (size == books.length) {
+			isbns = Arrays.copyOf(isbns, size * 2);
+			books = Arrays.copyOf(books, size * 2);
+		}
+
+		isbns[size] = isbn;
+		books[size] = book;
+		positions.put(isbn, size++);
+	}
+
+	/**
+	 * Removes the book, if it is indexed.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public synchronized void remove(int isbn) {
+		int position = positions.remove(isbn);
+
+		if (position == IntIntMap.NO_VALUE) {
+			return;
+		}
+
+		// Move the last book into the hole.
+		size--;
+
+		if (position != size) {
+			isbns[position] = isbns[size];
+			books[position] = books[size];
+			positions.put(isbns[position], position);
+		}
+		books[size] = null;
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	public synchronized void clear() {
+		isbns = new int[DEFAULT_CAPACITY];
+		books = new Object[DEFAULT_CAPACITY];
+		positions.clear();
+		size = 0;
+	}
+
+	/**
+	 * Draws <code>numBooks</code> distinct books uniformly at random, or all the
+	 * books if there are not as many.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<T> sample(int numBooks) {
+		List<T> picks = new ArrayList<>(Math.min(numBooks, size));
+
+		if (numBooks >= size) {
+			for (int i = 0; i < size; i++) {
+				picks.add((T) books[i]);
+			}
+			return picks;
+		}
+
+		// Floyd's algorithm: every j adds either a fresh random position below
+		// it or, if that one is taken, j itself.
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Set<Integer> picked = new HashSet<>(numBooks * 2);
+
+		for (int j = size - numBooks; j < size; j++) {
+			int position = random.nextInt(j + 1);
+
+			if (!picked.add(position)) {
+				picked.add(j);
+				position = j;
+			}
+			picks.add((T) books[position]);
+		}
+		return picks;
+	}
+}
@@ -0,0 +1,211 @@
+package com.acertainbookstore.utils;
+
+import java.util.Arrays;
+
+/**
+ * {@link IntIntMap} is the {@link IntObjectMap} counterpart mapping primitive
+ * int keys to non-negative primitive int values, such as the position of a
+ * book in a dense array.
+ *
+ * A slot is empty when its value is {@link #NO_VALUE}, so negative values are
+ * not allowed. Removal shifts the following entries of the probe sequence back
+ * instead of leaving tombstones. The map is not thread-safe.
+ */
+public final class IntIntMap {
+
+	/** The value returned for an absent key. */
+	public static final int NO_VALUE = -1;
+
+	/** The default capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The keys. */
+	private int[] keys;
+
+	/** The values, {@link #NO_VALUE} for an empty slot. */
+	private int[] values;
+
+	/** The number of entries. */
+	private int size = 0;
+
+	/** The mask selecting a slot from a hash. */
+	private int mask;
+
+	/**
+	 * Instantiates a new {@link IntIntMap}.
+	 */
+	public IntIntMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link IntIntMap} holding <code>expectedSize</code>
+	 * entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public IntIntMap(int expectedSize) {
+		allocate(IntObjectMap.capacityFor(expectedSize));
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Gets the slot holding the key, or -1 if the key is absent.
+	 */
+	private int find(int key) {
+		int slot = IntObjectMap.slotOf(key, mask);
+
+		while (values[slot] != NO_VALUE) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if the map has no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if the map has an entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is present
+	 */
+	public boolean containsKey(int key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or {@link #NO_VALUE} if the key is absent
+	 */
+	public int get(int key) {
+		int slot = find(key);
+		return (slot < 0) ? NO_VALUE : values[slot];
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not negative
+	 * @return the previous value, or {@link #NO_VALUE} if the key was absent
+	 */
+	public int put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value = " + value + ", but it must not be negative");
+		}
+
+		int slot = IntObjectMap.slotOf(key, mask);
+
+		while (values[slot] != NO_VALUE) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (++size * 2 > values.length) {
+			resize(values.length << 1);
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Removes the entry of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or {@link #NO_VALUE} if the key was absent
+	 */
+	public int remove(int key) {
+		int slot = find(key);
+
+		if (slot < 0) {
+			return NO_VALUE;
+		}
+
+		int previous = values[slot];
+		size--;
+
+		// Shift back the entries after the hole that could not be stored at
+		// their home slot, so that no probe sequence is broken.
+		int hole = slot;
+		slot = (slot + 1) & mask;
+
+		while (values[slot] != NO_VALUE) {
+			int home = IntObjectMap.slotOf(keys[slot], mask);
+
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = keys[slot];
+				values[hole] = values[slot];
+				hole = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		values[hole] = NO_VALUE;
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public void clear() {
+		allocate(DEFAULT_CAPACITY);
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != NO_VALUE) {
+				int slot = IntObjectMap.slotOf(oldKeys[i], mask);
+
+				while (values[slot] != NO_VALUE) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
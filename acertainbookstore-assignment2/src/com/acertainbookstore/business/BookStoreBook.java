@@ -1,5 +1,8 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -7,26 +10,81 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
  * 
+ * The counters are volatile and updated with compare-and-set, so a single book
+ * can be bought, restocked and rated without holding a lock.
+ * 
+ * The immutable copies handed out to the clients are cached. The
+ * {@link ImmutableBook} never changes. The {@link StockBook} is cached with the
+ * version of the book it was copied at, which every change of the counters
+ * increments once it is done, so that it is copied again only after a change.
+ * 
  * @see Book
  * @see StockBook
  * @see ImmutableBook
  */
 public class BookStoreBook extends ImmutableBook {
 
+	/** The updater for the number of copies. */
+	private static final AtomicIntegerFieldUpdater<BookStoreBook> NUM_COPIES = AtomicIntegerFieldUpdater
+			.newUpdater(BookStoreBook.class, "numCopies");
+
+	/** The updater for the total rating. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> TOTAL_RATING = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "totalRating");
+
+	/** The updater for the number of times rated. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> NUM_TIMES_RATED = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "numTimesRated");
+
+	/** The updater for the number of sale misses. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> NUM_SALE_MISSES = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "numSaleMisses");
+
 	/** The number of copies. */
-	private int numCopies;
+	private volatile int numCopies;
 
 	/** The total rating. */
-	private long totalRating;
+	private volatile long totalRating;
 
 	/** The number of times rated. */
-	private long numTimesRated;
+	private volatile long numTimesRated;
 
 	/** The number of sale misses. */
-	private long numSaleMisses;
+	private volatile long numSaleMisses;
 
 	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	private volatile boolean editorPick;
+
+	/** The updater for the version. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> VERSION = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "version");
+
+	/** The version, incremented after every change of the counters. */
+	private volatile long version;
+
+	/** The cached immutable copy of the book, or null until it is made. */
+	private volatile ImmutableBook immutableBook;
+
+	/** The cached immutable copy of the stock, or null until it is made. */
+	private volatile VersionedStockBook stockBook;
+
+	/**
+	 * {@link VersionedStockBook} is an immutable copy of the stock of the
+	 * book, with the version it was copied at.
+	 */
+	private static final class VersionedStockBook {
+
+		/** The version the book was copied at. */
+		private final long version;
+
+		/** The copy. */
+		private final StockBook book;
+
+		private VersionedStockBook(long version, StockBook book) {
+			this.version = version;
+			this.book = book;
+		}
+	}
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -173,6 +231,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void setEditorPick(boolean editorPick) {
 		this.editorPick = editorPick;
+		VERSION.incrementAndGet(this);
 	}
 
 	/**
@@ -194,12 +253,43 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean buyCopies(int numCopies) {
-		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
-			return true;
-		}
+		return !BookStoreUtility.isInvalidNoCopies(numCopies) && tryBuyCopies(numCopies) == 0;
+	}
 
-		return false;
+	/**
+	 * Atomically reduces the number of copies of the book if at least
+	 * <code>numCopies</code> copies are available.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return zero if the copies were bought, otherwise the number of copies
+	 *         that were missing
+	 */
+	public int tryBuyCopies(int numCopies) {
+		int current;
+
+		do {
+			current = this.numCopies;
+
+			if (current < numCopies) {
+				return numCopies - current;
+			}
+		} while (!NUM_COPIES.compareAndSet(this, current, current - numCopies));
+
+		VERSION.incrementAndGet(this);
+		return 0;
+	}
+
+	/**
+	 * Gives back <code>numCopies</code> copies taken by
+	 * {@link #tryBuyCopies(int)} without touching the sale misses.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void returnCopies(int numCopies) {
+		NUM_COPIES.addAndGet(this, numCopies);
+		VERSION.incrementAndGet(this);
 	}
 
 	/**
@@ -210,8 +300,9 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
-			this.numSaleMisses = 0;
+			NUM_COPIES.addAndGet(this, numNewCopies);
+			NUM_SALE_MISSES.set(this, 0);
+			VERSION.incrementAndGet(this);
 		}
 	}
 
@@ -222,7 +313,8 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		NUM_SALE_MISSES.addAndGet(this, numSaleMisses);
+		VERSION.incrementAndGet(this);
 	}
 
 	/**
@@ -233,8 +325,9 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			TOTAL_RATING.addAndGet(this, rating);
+			NUM_TIMES_RATED.incrementAndGet(this);
+			VERSION.incrementAndGet(this);
 		}
 	}
 
@@ -260,24 +353,43 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns a {@link ImmutableBook} copy of the book, the same one every
+	 * time. The title and author are immutable strings, shared with the copy.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		ImmutableBook book = immutableBook;
+
+		// Copying twice in a race gives equal copies.
+		if (book == null) {
+			book = new ImmutableBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice());
+			immutableBook = book;
+		}
+
+		return book;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} copy of the book, the same one until the
+	 * counters change.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+		// The counters are read after the version, so the copy holds at least
+		// the changes up to it, and the changes in progress at most.
+		long currentVersion = version;
+		VersionedStockBook cached = stockBook;
+
+		if (cached != null && cached.version == currentVersion) {
+			return cached.book;
+		}
+
+		StockBook book = new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating, this.editorPick);
+		stockBook = new VersionedStockBook(currentVersion, book);
+		return book;
 	}
 
 	/**
@@ -286,7 +398,6 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(), this.numCopies);
 	}
 }
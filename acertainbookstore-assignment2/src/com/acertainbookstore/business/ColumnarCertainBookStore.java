@@ -0,0 +1,716 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.IntIntMap;
+import com.acertainbookstore.utils.SaleMissIndex;
+
+/**
+ * {@link ColumnarCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities, keeping the stock state of the books
+ * off the heap.
+ *
+ * Every book gets a dense slot. The slots are grouped in segments of
+ * {@link #SEGMENT_SLOTS} slots, and each segment stores the stock counters of
+ * its books column by column in one direct {@link ByteBuffer}: the number of
+ * copies, the sale misses, the total rating, the number of ratings and the
+ * editor pick flag. The immutable title, author and price stay on the heap as
+ * one {@link ImmutableBook} per slot. Slots of removed books are reused.
+ *
+ * In catalog mode, the title, author and price are appended to a
+ * {@link MappedCatalog} instead, and a segment only keeps the ISBN of every
+ * slot and the offset of its record in the catalog, so that the heap holds no
+ * object per book. The books are handed out as {@link MappedBook} views,
+ * decoded when read. The catalog is append-only: the records of removed
+ * books stay in it, even once all the books are removed, and a book added
+ * again is appended again, so the file only grows. The catalog file belongs
+ * to one store until it is closed, and another store cannot open it. Closing
+ * the store closes the catalog, after which no book can be added.
+ *
+ * The store is guarded by a single read-write lock.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class ColumnarCertainBookStore implements BookStore, StockManager, Closeable {
+
+	/** The number of slots of a segment, a power of two. */
+	static final int SEGMENT_SLOTS = 1 << 14;
+
+	private static final int SEGMENT_SHIFT = Integer.numberOfTrailingZeros(SEGMENT_SLOTS);
+	private static final int SEGMENT_MASK = SEGMENT_SLOTS - 1;
+
+	// The columns of a segment, in the order they are laid out.
+	private static final int NUM_COPIES_OFFSET = 0;
+	private static final int NUM_SALE_MISSES_OFFSET = NUM_COPIES_OFFSET + SEGMENT_SLOTS * Integer.BYTES;
+	private static final int TOTAL_RATING_OFFSET = NUM_SALE_MISSES_OFFSET + SEGMENT_SLOTS * Long.BYTES;
+	private static final int NUM_TIMES_RATED_OFFSET = TOTAL_RATING_OFFSET + SEGMENT_SLOTS * Long.BYTES;
+	private static final int CATALOG_OFFSET_OFFSET = NUM_TIMES_RATED_OFFSET + SEGMENT_SLOTS * Long.BYTES;
+	private static final int ISBN_OFFSET = CATALOG_OFFSET_OFFSET + SEGMENT_SLOTS * Long.BYTES;
+	private static final int EDITOR_PICK_OFFSET = ISBN_OFFSET + SEGMENT_SLOTS * Integer.BYTES;
+	private static final int SEGMENT_BYTES = EDITOR_PICK_OFFSET + SEGMENT_SLOTS;
+
+	/** The catalog offset of a free slot in catalog mode. */
+	private static final long NO_RECORD = -1;
+
+	private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+	private final Lock readLock = readWriteLock.readLock();
+	private final Lock writeLock = readWriteLock.writeLock();
+
+	/** The catalog of the immutable part of the books, or null if they are on the heap. */
+	private final MappedCatalog catalog;
+
+	/** The mapping of books from ISBN to slot. */
+	private IntIntMap slotMap;
+
+	/** The segments. */
+	private List<Segment> segments;
+
+	/** The number of slots ever handed out. */
+	private int numSlots;
+
+	/** The slots of removed books, to be reused. */
+	private int[] freeSlots;
+
+	/** The number of free slots. */
+	private int numFreeSlots;
+
+	/** The editor picks, for drawing random picks without scanning the books. */
+	private EditorPickIndex<Book> editorPickIndex;
+
+	/**
+	 * The snapshots of the books with sale misses, refreshed by the writers
+	 * whenever such a book changes, so the books in demand are read without
+	 * the lock.
+	 */
+	private final SaleMissIndex<StockBook> saleMissIndex = new SaleMissIndex<>();
+
+	/**
+	 * {@link Segment} holds the books of {@link #SEGMENT_SLOTS} consecutive
+	 * slots.
+	 */
+	private static final class Segment {
+
+		/** The stock counters, off the heap. */
+		private final ByteBuffer columns = ByteBuffer.allocateDirect(SEGMENT_BYTES).order(ByteOrder.nativeOrder());
+
+		/**
+		 * The immutable part of the books, null for a free slot, or null in
+		 * catalog mode.
+		 */
+		private final ImmutableBook[] books;
+
+		private Segment(boolean withBooks) {
+			books = withBooks ? new ImmutableBook[SEGMENT_SLOTS] : null;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link ColumnarCertainBookStore} keeping the
+	 * immutable part of the books on the heap.
+	 */
+	public ColumnarCertainBookStore() {
+		catalog = null;
+		reset();
+	}
+
+	/**
+	 * Instantiates a new {@link ColumnarCertainBookStore} in catalog mode,
+	 * keeping the immutable part of the books in a memory-mapped file.
+	 *
+	 * @param catalogPath
+	 *            the path of the catalog file, emptied if there is one
+	 * @throws IOException
+	 *             if the catalog file is in use by another store, or an I/O
+	 *             exception has occurred
+	 */
+	public ColumnarCertainBookStore(Path catalogPath) throws IOException {
+		catalog = new MappedCatalog(catalogPath);
+		reset();
+	}
+
+	private void reset() {
+		slotMap = new IntIntMap();
+		segments = new ArrayList<>();
+		numSlots = 0;
+		freeSlots = new int[16];
+		numFreeSlots = 0;
+		editorPickIndex = new EditorPickIndex<>();
+		saleMissIndex.clear();
+	}
+
+	private Segment segmentOf(int slot) {
+		return segments.get(slot >>> SEGMENT_SHIFT);
+	}
+
+	private int allocateSlot() {
+		if (numFreeSlots > 0) {
+			return freeSlots[--numFreeSlots];
+		}
+
+		if ((numSlots & SEGMENT_MASK) == 0) {
+			segments.add(new Segment(catalog == null));
+		}
+		return numSlots++;
+	}
+
+	private void freeSlot(int slot) {
+		if (catalog == null) {
+			segmentOf(slot).books[slot & SEGMENT_MASK] = null;
+		} else {
+			setLong(slot, CATALOG_OFFSET_OFFSET, NO_RECORD);
+		}
+
+		if (numFreeSlots == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, numFreeSlots * 2);
+		}
+		freeSlots[numFreeSlots++] = slot;
+	}
+
+	private boolean isFree(int slot) {
+		return (catalog == null) ? segmentOf(slot).books[slot & SEGMENT_MASK] == null
+				: getLong(slot, CATALOG_OFFSET_OFFSET) == NO_RECORD;
+	}
+
+	private Book getBook(int slot) {
+		if (catalog == null) {
+			return segmentOf(slot).books[slot & SEGMENT_MASK];
+		}
+
+		return new MappedBook(catalog, getLong(slot, CATALOG_OFFSET_OFFSET), getISBN(slot));
+	}
+
+	private int getISBN(int slot) {
+		return segmentOf(slot).columns.getInt(ISBN_OFFSET + (slot & SEGMENT_MASK) * Integer.BYTES);
+	}
+
+	private void setISBN(int slot, int isbn) {
+		segmentOf(slot).columns.putInt(ISBN_OFFSET + (slot & SEGMENT_MASK) * Integer.BYTES, isbn);
+	}
+
+	private int getNumCopies(int slot) {
+		return segmentOf(slot).columns.getInt(NUM_COPIES_OFFSET + (slot & SEGMENT_MASK) * Integer.BYTES);
+	}
+
+	private void setNumCopies(int slot, int numCopies) {
+		segmentOf(slot).columns.putInt(NUM_COPIES_OFFSET + (slot & SEGMENT_MASK) * Integer.BYTES, numCopies);
+	}
+
+	private long getLong(int slot, int columnOffset) {
+		return segmentOf(slot).columns.getLong(columnOffset + (slot & SEGMENT_MASK) * Long.BYTES);
+	}
+
+	private void setLong(int slot, int columnOffset, long value) {
+		segmentOf(slot).columns.putLong(columnOffset + (slot & SEGMENT_MASK) * Long.BYTES, value);
+	}
+
+	private boolean isEditorPick(int slot) {
+		return segmentOf(slot).columns.get(EDITOR_PICK_OFFSET + (slot & SEGMENT_MASK)) != 0;
+	}
+
+	private void setEditorPick(int slot, boolean editorPick) {
+		segmentOf(slot).columns.put(EDITOR_PICK_OFFSET + (slot & SEGMENT_MASK), (byte) (editorPick ? 1 : 0));
+	}
+
+	private StockBook getStockBook(int slot) {
+		Book book = getBook(slot);
+		return new ImmutableStockBook(getISBN(slot), book.getTitle(), book.getAuthor(), book.getPrice(),
+				getNumCopies(slot), getLong(slot, NUM_SALE_MISSES_OFFSET), getLong(slot, NUM_TIMES_RATED_OFFSET),
+				getLong(slot, TOTAL_RATING_OFFSET), isEditorPick(slot));
+	}
+
+	/**
+	 * Puts the current state of the book in the sale miss index, or takes it
+	 * out if it has no sale misses. Must be called with the write lock held
+	 * every time a book changes.
+	 *
+	 * @param slot
+	 *            the slot of the book
+	 */
+	private void updateSaleMissIndex(int slot) {
+		if (getLong(slot, NUM_SALE_MISSES_OFFSET) > 0) {
+			saleMissIndex.add(getISBN(slot), getStockBook(slot));
+		} else {
+			saleMissIndex.remove(getISBN(slot));
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (slotMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private int validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		int slot = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private int validate(BookRating bookRating) throws BookStoreException {
+		int slot = validateISBNInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+		int rating = bookRating.getRating();
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private int validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		int slot = slotMap.get(ISBN);
+
+		if (slot == IntIntMap.NO_VALUE) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return slot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			// The records are appended first, a failure leaves them unused.
+			long[] catalogOffsets = (catalog != null) ? appendToCatalog(bookSet) : null;
+			int i = 0;
+
+			for (StockBook book : bookSet) {
+				int slot = allocateSlot();
+
+				if (catalog == null) {
+					segmentOf(slot).books[slot & SEGMENT_MASK] = new ImmutableBook(book.getISBN(), book.getTitle(),
+							book.getAuthor(), book.getPrice());
+				} else {
+					setLong(slot, CATALOG_OFFSET_OFFSET, catalogOffsets[i++]);
+				}
+
+				setISBN(slot, book.getISBN());
+				setNumCopies(slot, book.getNumCopies());
+				setLong(slot, NUM_SALE_MISSES_OFFSET, book.getNumSaleMisses());
+				setLong(slot, TOTAL_RATING_OFFSET, book.getTotalRating());
+				setLong(slot, NUM_TIMES_RATED_OFFSET, book.getNumTimesRated());
+				setEditorPick(slot, book.isEditorPick());
+				slotMap.put(book.getISBN(), slot);
+				editorPickIndex.update(book.getISBN(), getBook(slot), book.isEditorPick());
+				updateSaleMissIndex(slot);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private long[] appendToCatalog(Set<StockBook> bookSet) throws BookStoreException {
+		long[] catalogOffsets = new long[bookSet.size()];
+		int i = 0;
+
+		try {
+			for (StockBook book : bookSet) {
+				catalogOffsets[i++] = catalog.append(book.getISBN(), book.getTitle(), book.getAuthor(),
+						book.getPrice());
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException("The catalog cannot be written", ex);
+		}
+
+		return catalogOffsets;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies, restocking clears the sale misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = slotMap.get(bookCopy.getISBN());
+				setNumCopies(slot, getNumCopies(slot) + bookCopy.getNumCopies());
+				setLong(slot, NUM_SALE_MISSES_OFFSET, 0);
+				updateSaleMissIndex(slot);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		readLock.lock();
+
+		try {
+			List<StockBook> result = new ArrayList<>(slotMap.size());
+
+			for (int slot = 0; slot < numSlots; slot++) {
+				if (!isFree(slot)) {
+					result.add(getStockBook(slot));
+				}
+			}
+
+			return result;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we add/remove are there first.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int slot = slotMap.get(editorPickArg.getISBN());
+				setEditorPick(slot, editorPickArg.isEditorPick());
+				editorPickIndex.update(editorPickArg.getISBN(), getBook(slot), editorPickArg.isEditorPick());
+				updateSaleMissIndex(slot);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = validate(bookCopyToBuy);
+
+				if (getNumCopies(slot) < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(slot, bookCopyToBuy.getNumCopies() - getNumCopies(slot));
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					int slot = saleMissEntry.getKey();
+					setLong(slot, NUM_SALE_MISSES_OFFSET,
+							getLong(slot, NUM_SALE_MISSES_OFFSET) + saleMissEntry.getValue());
+					updateSaleMissIndex(slot);
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = slotMap.get(bookCopyToBuy.getISBN());
+				setNumCopies(slot, getNumCopies(slot) - bookCopyToBuy.getNumCopies());
+				updateSaleMissIndex(slot);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		readLock.lock();
+
+		try {
+			List<StockBook> result = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				result.add(getStockBook(validateISBNInStock(ISBN)));
+			}
+
+			return result;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		readLock.lock();
+
+		try {
+			List<Book> result = new ArrayList<>(isbnSet.size());
+
+			// The immutable part of the books, or a view of it, can be handed out as it is.
+			for (Integer ISBN : isbnSet) {
+				result.add(getBook(validateISBNInStock(ISBN)));
+			}
+
+			return result;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		readLock.lock();
+
+		try {
+			// The picked books are handed out as they are, they are immutable.
+			return new ArrayList<>(editorPickIndex.sample(numBooks));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// The index only holds the books with sale misses, so the catalog is
+		// not scanned, and the lock is not taken.
+		return saleMissIndex.books();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check whether the books are in stock and the ratings are reasonable.
+			for (BookRating bookToRate : bookRating) {
+				validate(bookToRate);
+			}
+
+			// Now make the rating.
+			for (BookRating bookToRate : bookRating) {
+				int slot = slotMap.get(bookToRate.getISBN());
+				setLong(slot, TOTAL_RATING_OFFSET, getLong(slot, TOTAL_RATING_OFFSET) + bookToRate.getRating());
+				setLong(slot, NUM_TIMES_RATED_OFFSET, getLong(slot, NUM_TIMES_RATED_OFFSET) + 1);
+				updateSaleMissIndex(slot);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			// The direct buffers are released once the segments are collected,
+			// the records of the catalog stay for the views handed out, so the
+			// catalog does not shrink.
+			reset();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				freeSlot(slotMap.remove(isbn));
+				editorPickIndex.remove(isbn);
+				saleMissIndex.remove(isbn);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the catalog in catalog mode, after which no book can be added.
+	 * The books handed out can still be read. Does nothing otherwise.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (catalog == null) {
+			return;
+		}
+
+		writeLock.lock();
+
+		try {
+			catalog.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,687 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreMutation;
+import com.acertainbookstore.utils.StockSnapshot;
+import com.acertainbookstore.utils.WriteAheadLog;
+
+/**
+ * {@link DurableCertainBookStore} makes the stock of an in-memory store
+ * durable with a {@link WriteAheadLog}: the store is rebuilt from the last
+ * checkpoint and the log when it is opened, and every write is in the log
+ * before it returns. The purchases that fail are logged too, for the sale
+ * misses they record.
+ *
+ * The log holds the books as a write left them, rather than the write, so
+ * that replaying a record on books which already have it changes nothing.
+ * The writes are applied and logged in the same order under a write lock,
+ * and the reads take a read lock, so that the store does not give up a lock
+ * under contention. The write lock is released before waiting for the log,
+ * so that the writes waiting for the same flush are applied meanwhile and
+ * share its <code>force()</code>. A read may thus see a write that is not
+ * durable yet. A caller serializing its writes under a lock of its own, as
+ * replication does, applies them with {@link #applyDeferringDurability} and
+ * waits with {@link #awaitDurable} once it released its lock, so that its
+ * writes share the flushes too.
+ *
+ * A checkpoint seals the log, copies the stock without the locks while the
+ * writes go on, and writes the copy as a {@link StockSnapshot}, after which
+ * the sealed log is deleted. The copy may hold some of the writes logged
+ * after the seal, which the log then gives again on opening. Opening loads
+ * the snapshot in parallel and replays only the log after it.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class DurableCertainBookStore implements BookStore, StockManager, Closeable {
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The read lock, taken by the reads. */
+	private final Lock readLock;
+
+	/** The write lock, taken by the writes. */
+	private final Lock writeLock;
+
+	/** The log. */
+	private final WriteAheadLog log;
+
+	/** The path of the snapshot of the last checkpoint. */
+	private final Path snapshotPath;
+
+	/** The lock taken by a checkpoint, one at a time. */
+	private final Lock checkpointLock = new ReentrantLock();
+
+	/** The thread taking the periodic checkpoints, or null if there is none. */
+	private final ScheduledExecutorService checkpointer;
+
+	/** The number of times a checkpoint copies the stock before it gives up. */
+	private static final int MAX_COPY_ATTEMPTS = 100;
+
+	/** Whether the writes of a thread leave waiting for the log to it. */
+	private final ThreadLocal<Boolean> deferringDurability = ThreadLocal.withInitial(() -> false);
+
+	/**
+	 * {@link Write} is a write to the store.
+	 */
+	@FunctionalInterface
+	public interface Write {
+
+		/**
+		 * Writes to the store.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link DurableCertainBookStore} over an empty store,
+	 * taking checkpoints only when asked to, and replays the log into it.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param logPath
+	 *            the path of the log
+	 * @param maxBatchRecords
+	 *            the most writes per flush of the log
+	 * @param flushIntervalMicros
+	 *            the longest a write waits for other writes to flush with
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public DurableCertainBookStore(BookStore bookStore, StockManager stockManager, Path logPath, int maxBatchRecords,
+			long flushIntervalMicros) throws IOException {
+		this(bookStore, stockManager, logPath, maxBatchRecords, flushIntervalMicros, 0);
+	}
+
+	/**
+	 * Instantiates a new {@link DurableCertainBookStore} over an empty store,
+	 * loads the snapshot of the last checkpoint and replays the log after it
+	 * into the store.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param logPath
+	 *            the path of the log, next to which the snapshot is
+	 * @param maxBatchRecords
+	 *            the most writes per flush of the log
+	 * @param flushIntervalMicros
+	 *            the longest a write waits for other writes to flush with
+	 * @param checkpointIntervalSeconds
+	 *            the time between checkpoints, or 0 to take them only when
+	 *            asked to
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public DurableCertainBookStore(BookStore bookStore, StockManager stockManager, Path logPath, int maxBatchRecords,
+			long flushIntervalMicros, long checkpointIntervalSeconds) throws IOException {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+
+		snapshotPath = logPath.resolveSibling(logPath.getFileName() + ".snapshot");
+		long startSequence = StockSnapshot.read(snapshotPath, Runtime.getRuntime().availableProcessors(),
+				this::restore);
+		log = new WriteAheadLog(logPath, startSequence, maxBatchRecords, flushIntervalMicros, this::replay);
+
+		if (checkpointIntervalSeconds > 0) {
+			checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "checkpointer-" + logPath.getFileName());
+				thread.setDaemon(true);
+				return thread;
+			});
+			checkpointer.scheduleWithFixedDelay(() -> {
+				try {
+					checkpoint();
+				} catch (BookStoreException ex) {
+					System.err.println("The checkpoint failed: " + ex);
+				}
+			}, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+		} else {
+			checkpointer = null;
+		}
+	}
+
+	/**
+	 * Applies a record of the log to the store.
+	 *
+	 * @param mutation
+	 *            the record
+	 */
+	@SuppressWarnings("unchecked")
+	private void replay(BookStoreMutation mutation) {
+		try {
+			switch (mutation.getMessageTag()) {
+			case ADDBOOKS:
+				Set<StockBook> books = (Set<StockBook>) mutation.getArgument();
+				Set<Integer> isbnSet = new HashSet<>();
+
+				for (StockBook book : books) {
+					isbnSet.add(book.getISBN());
+				}
+
+				removeInStock(isbnSet);
+				restore(books);
+				break;
+
+			case REMOVEALLBOOKS:
+				stockManager.removeAllBooks();
+				break;
+
+			case REMOVEBOOKS:
+				removeInStock((Set<Integer>) mutation.getArgument());
+				break;
+
+			default:
+				System.err.println("Unsupported message tag in the log: " + mutation.getMessageTag());
+			}
+		} catch (BookStoreException ex) {
+			throw new IllegalStateException("Cannot replay the write " + mutation.getSequenceNumber(), ex);
+		}
+	}
+
+	/**
+	 * Removes the books in stock among the ISBNs.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 */
+	private void removeInStock(Set<Integer> isbnSet) {
+		try {
+			stockManager.removeBooks(isbnSet);
+		} catch (BookStoreException ex) {
+			// Some are not in stock, one at a time then.
+			for (int isbn : isbnSet) {
+				try {
+					stockManager.removeBooks(Collections.singleton(isbn));
+				} catch (BookStoreException notInStock) {
+					;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the books to the store as they are, with their copies, sale misses
+	 * and editor pick. A book sold out is added with a copy that is then
+	 * bought, since a book is added with at least one copy.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private void restore(Set<StockBook> books) {
+		Set<StockBook> booksToAdd = books;
+		Set<BookCopy> copiesToBuy = new HashSet<>();
+
+		for (StockBook book : books) {
+			if (book.getNumCopies() == 0) {
+				copiesToBuy.add(new BookCopy(book.getISBN(), 1));
+			}
+		}
+
+		if (!copiesToBuy.isEmpty()) {
+			booksToAdd = new HashSet<>();
+
+			for (StockBook book : books) {
+				booksToAdd.add((book.getNumCopies() > 0) ? book
+						: new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(), 1,
+								book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+								book.isEditorPick()));
+			}
+		}
+
+		try {
+			stockManager.addBooks(booksToAdd);
+
+			if (!copiesToBuy.isEmpty()) {
+				bookStore.buyBooks(copiesToBuy);
+			}
+		} catch (BookStoreException ex) {
+			throw new IllegalStateException("Cannot restore the books", ex);
+		}
+	}
+
+	/**
+	 * Applies the write, logs the books it left if it succeeded, and waits
+	 * until the log is durable.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the books written
+	 * @param logFailure
+	 *            whether to log the books if the write failed
+	 * @param write
+	 *            the write
+	 * @throws BookStoreException
+	 *             the exception of the write or of the log
+	 */
+	private void write(Set<Integer> isbnSet, boolean logFailure, Write write) throws BookStoreException {
+		BookStoreException failure = null;
+		long sequence;
+
+		writeLock.lock();
+
+		try {
+			try {
+				write.apply();
+			} catch (BookStoreException ex) {
+				if (!logFailure) {
+					throw ex;
+				}
+
+				failure = ex;
+			}
+
+			Set<StockBook> books;
+
+			try {
+				books = new HashSet<>(stockManager.getBooksByISBN(isbnSet));
+			} catch (BookStoreException ex) {
+				// Only a write failed for an ISBN not in stock finds none, and it wrote none.
+				throw (failure != null) ? failure : ex;
+			}
+
+			if (books.isEmpty()) {
+				if (failure != null) {
+					throw failure;
+				}
+
+				return;
+			}
+
+			sequence = log.append(BookStoreMessageTag.ADDBOOKS, books);
+		} finally {
+			writeLock.unlock();
+		}
+
+		if (!deferringDurability.get()) {
+			log.awaitDurable(sequence);
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Applies the removal, logs it, and waits until the log is durable.
+	 *
+	 * @param messageTag
+	 *            the message tag of the removal
+	 * @param isbnSet
+	 *            the ISBNs removed, or null if all are
+	 * @param write
+	 *            the removal
+	 * @throws BookStoreException
+	 *             the exception of the removal or of the log
+	 */
+	private void remove(BookStoreMessageTag messageTag, Set<Integer> isbnSet, Write write)
+			throws BookStoreException {
+		long sequence;
+
+		writeLock.lock();
+
+		try {
+			write.apply();
+			sequence = log.append(messageTag, isbnSet);
+		} finally {
+			writeLock.unlock();
+		}
+
+		if (!deferringDurability.get()) {
+			log.awaitDurable(sequence);
+		}
+	}
+
+	/**
+	 * Applies writes to this store without waiting until the log is durable.
+	 * The caller reads {@link #getAppendedSequence()} while its writes are
+	 * still serialized, and passes it to {@link #awaitDurable(long)} before
+	 * it acknowledges them, whether they succeeded or not.
+	 *
+	 * @param write
+	 *            the writes
+	 * @throws BookStoreException
+	 *             the exception of the writes or of the log
+	 */
+	public void applyDeferringDurability(Write write) throws BookStoreException {
+		deferringDurability.set(true);
+
+		try {
+			write.apply();
+		} finally {
+			deferringDurability.set(false);
+		}
+	}
+
+	/**
+	 * Gets the sequence number of the last write logged.
+	 *
+	 * @return the sequence number
+	 */
+	public long getAppendedSequence() {
+		return log.getAppendedSequence();
+	}
+
+	/**
+	 * Waits until the log is durable up to a write.
+	 *
+	 * @param sequence
+	 *            the sequence number of the write
+	 * @throws BookStoreException
+	 *             if the log failed before the write was durable
+	 */
+	public void awaitDurable(long sequence) throws BookStoreException {
+		log.awaitDurable(sequence);
+	}
+
+	/**
+	 * Gets the ISBNs of the books or copies.
+	 *
+	 * @param items
+	 *            the books or copies, or null
+	 * @param isbn
+	 *            gets the ISBN of an item
+	 * @return the ISBNs
+	 */
+	private static <T> Set<Integer> isbnsOf(Set<T> items, ToIntFunction<T> isbn) {
+		Set<Integer> isbnSet = new HashSet<>();
+
+		if (items == null) {
+			return isbnSet;
+		}
+
+		for (T item : items) {
+			isbnSet.add(isbn.applyAsInt(item));
+		}
+
+		return isbnSet;
+	}
+
+	/**
+	 * Takes a checkpoint: seals the log, copies the stock while the writes go
+	 * on, writes the copy as the snapshot once the writes it holds are
+	 * durable, and deletes the sealed log.
+	 *
+	 * @return the sequence number of the last write of the sealed log
+	 * @throws BookStoreException
+	 *             if the log failed or the snapshot could not be written
+	 */
+	public long checkpoint() throws BookStoreException {
+		checkpointLock.lock();
+
+		try {
+			long sequence = log.roll();
+			List<StockBook> books = copyStock();
+
+			// The copy may hold writes being logged, which must be durable first.
+			long copiedSequence;
+			writeLock.lock();
+
+			try {
+				copiedSequence = log.getAppendedSequence();
+			} finally {
+				writeLock.unlock();
+			}
+
+			log.awaitDurable(copiedSequence);
+			StockSnapshot.write(snapshotPath, sequence, books);
+			log.discardThrough(sequence);
+			return sequence;
+		} catch (IOException ex) {
+			throw new BookStoreException("The checkpoint failed", ex);
+		} finally {
+			checkpointLock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the stock without the locks, trying again if the store fails the
+	 * read under contention.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             if the store failed every attempt
+	 */
+	private List<StockBook> copyStock() throws BookStoreException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				return stockManager.getBooks();
+			} catch (BookStoreException ex) {
+				if (attempt == MAX_COPY_ATTEMPTS) {
+					throw ex;
+				}
+
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of flushes of the log, each forcing a batch of writes
+	 * to disk.
+	 *
+	 * @return the number of flushes
+	 */
+	public long getLogFlushes() {
+		return log.getFlushes();
+	}
+
+	/**
+	 * Stops the checkpoints, flushes the log and closes it.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (checkpointer != null) {
+			checkpointer.shutdown();
+
+			try {
+				checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		log.close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		write(isbnsOf(bookSet, StockBook::getISBN), false, () -> stockManager.addBooks(bookSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		write(isbnsOf(bookCopiesSet, BookCopy::getISBN), false, () -> stockManager.addCopies(bookCopiesSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		write(isbnsOf(editorPicks, BookEditorPick::getISBN), false, () -> stockManager.updateEditorPicks(editorPicks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		remove(BookStoreMessageTag.REMOVEALLBOOKS, null, stockManager::removeAllBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		remove(BookStoreMessageTag.REMOVEBOOKS, isbnSet, () -> stockManager.removeBooks(isbnSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		write(isbnsOf(bookCopiesToBuy, BookCopy::getISBN), true, () -> bookStore.buyBooks(bookCopiesToBuy));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return stockManager.getBooks();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return stockManager.getBooksByISBN(isbnSet);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return stockManager.getBooksInDemand();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return bookStore.getBooks(isbnSet);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return bookStore.getEditorPicks(numBooks);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		bookStore.rateBooks(bookRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+}
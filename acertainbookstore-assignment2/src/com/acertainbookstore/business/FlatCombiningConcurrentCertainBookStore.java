@@ -0,0 +1,756 @@
+package com.acertainbookstore.business;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitBookStore;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.IntObjectMap;
+import com.acertainbookstore.utils.SaleMissIndex;
+
+/**
+ * {@link FlatCombiningConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities with a single
+ * read-write lock, and flat-combines <code>buyBooks</code> and
+ * <code>addCopies</code>.
+ *
+ * A thread buying or adding copies publishes its request in its own
+ * {@link Slot} and waits on that slot instead of queueing on the lock. The
+ * thread that gets the write lock becomes the combiner: it applies every
+ * pending request in one pass, in turn and each one atomically, and hands
+ * every thread its own result, sale misses included. Hot books are then
+ * updated by one thread with warm caches, and the lock changes hands once per
+ * batch instead of once per request.
+ *
+ * The other operations take the lock as usual, blocking until it is free,
+ * including the purchases prepared through {@link TwoPhaseCommitBookStore}.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class FlatCombiningConcurrentCertainBookStore implements TwoPhaseCommitBookStore, StockManager {
+
+	/**
+	 * The number of times a waiting thread checks its slot before yielding,
+	 * none on a single CPU, where the combiner cannot run meanwhile.
+	 */
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+	/** The number of times a waiting thread yields before blocking on the lock. */
+	private static final int YIELDS = 16;
+
+	/** The number of combining passes between two clean ups of the slots. */
+	private static final int CLEANUP_EVERY = 64;
+
+	/** The number of combining passes after which an idle slot is unlinked. */
+	private static final int MAX_IDLE_PASSES = 1024;
+
+	/** The lock. */
+	private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+	/** The read lock. */
+	private final Lock readLock = readWriteLock.readLock();
+
+	/** The write lock, held by the combiner. */
+	private final Lock writeLock = readWriteLock.writeLock();
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final IntObjectMap<BookStoreBook> bookMap;
+
+	/** The editor picks, for drawing random picks without scanning the books. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/** The books with sale misses, for listing the books in demand without scanning the books. */
+	private final SaleMissIndex<BookStoreBook> saleMissIndex = new SaleMissIndex<>();
+
+	/** The copies bought by the prepared purchases, by transaction. */
+	private final Map<Long, Set<BookCopy>> preparedPurchases = new HashMap<>();
+
+	/** The first of the linked slots, in a list the combiner walks. */
+	private final AtomicReference<Slot> slots = new AtomicReference<>();
+
+	/** The slot of each thread. */
+	private final ThreadLocal<Slot> slot = ThreadLocal.withInitial(Slot::new);
+
+	/** The number of combining passes so far, guarded by the write lock. */
+	private long combiningPasses = 0;
+
+	/**
+	 * {@link Slot} is where a thread publishes its request to the combiner and
+	 * gets the result back. The request is written before
+	 * <code>pending</code> is set, and the result before it is cleared, so the
+	 * volatile flag carries both across threads.
+	 *
+	 * The combiner unlinks the slots that stayed idle for a while, so the
+	 * slots of the threads that stopped writing, or ended, are not walked
+	 * forever. A thread finding its slot unlinked links it again.
+	 */
+	private static final class Slot {
+
+		/** The next slot, changed by the combiner or, when unlinked, by the owner. */
+		private Slot next;
+
+		/** True, while the slot is in the list, or about to be. */
+		private volatile boolean linked;
+
+		/** The combining pass that last applied a request of the slot. */
+		private long lastPass;
+
+		/** True, if the request buys the copies, false if it adds them. */
+		private boolean buy;
+
+		/** The copies to buy or add. */
+		private Set<BookCopy> bookCopies;
+
+		/** The exception the request failed with, if any. */
+		private BookStoreException exception;
+
+		/** The unexpected exception the request failed with, if any. */
+		private RuntimeException failure;
+
+		/** True, while the request waits for the combiner. */
+		private volatile boolean pending;
+	}
+
+	/**
+	 * Instantiates a new {@link FlatCombiningConcurrentCertainBookStore}.
+	 */
+	public FlatCombiningConcurrentCertainBookStore() {
+		bookMap = new IntObjectMap<>();
+	}
+
+	/**
+	 * Links the slot in front of the others. Only the owner of the slot links
+	 * it, and only while it is unlinked.
+	 *
+	 * @param s
+	 *            the slot
+	 */
+	private void link(Slot s) {
+		Slot head;
+
+		// Mark it linked first, so that a combiner unlinking it right away
+		// leaves it marked unlinked.
+		s.linked = true;
+
+		do {
+			head = slots.get();
+			s.next = head;
+		} while (!slots.compareAndSet(head, s));
+	}
+
+	/**
+	 * Publishes the request in the slot of the thread and waits until a
+	 * combiner, maybe this thread, applied it.
+	 *
+	 * @param buy
+	 *            true, to buy the copies, false to add them
+	 * @param bookCopies
+	 *            the copies
+	 * @throws BookStoreException
+	 *             if the request failed
+	 */
+	private void combine(boolean buy, Set<BookCopy> bookCopies) throws BookStoreException {
+		Slot mySlot = slot.get();
+		mySlot.buy = buy;
+		mySlot.bookCopies = bookCopies;
+		mySlot.pending = true;
+
+		int waits = 0;
+
+		while (mySlot.pending) {
+			// A pending slot is never unlinked, but it may have been just
+			// before the request was published.
+			if (!mySlot.linked) {
+				link(mySlot);
+			}
+
+			if (writeLock.tryLock()) {
+				combineAll(mySlot);
+			} else if (waits < SPINS) {
+				Thread.onSpinWait();
+			} else if (waits < SPINS + YIELDS) {
+				Thread.yield();
+			} else {
+				// The lock stays busy, probably with readers; wait for it
+				// rather than burning the CPU.
+				writeLock.lock();
+				combineAll(mySlot);
+			}
+
+			waits++;
+		}
+
+		BookStoreException exception = mySlot.exception;
+		RuntimeException failure = mySlot.failure;
+		mySlot.bookCopies = null;
+		mySlot.exception = null;
+		mySlot.failure = null;
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Applies the request of the combiner and all the pending ones in one
+	 * pass, unlinking the idle slots now and then, and releases the write
+	 * lock, which the caller must hold.
+	 *
+	 * @param mySlot
+	 *            the slot of the combiner
+	 */
+	private void combineAll(Slot mySlot) {
+		try {
+			long pass = ++combiningPasses;
+			boolean cleanup = pass % CLEANUP_EVERY == 0;
+
+			if (mySlot.pending) {
+				apply(mySlot, pass);
+			}
+
+			// The first slot is never unlinked, threads may be linking theirs
+			// in front of it.
+			Slot prev = null;
+			Slot next;
+
+			for (Slot s = slots.get(); s != null; s = next) {
+				next = s.next;
+
+				if (s.pending) {
+					apply(s, pass);
+					prev = s;
+				} else if (cleanup && prev != null && pass - s.lastPass > MAX_IDLE_PASSES) {
+					prev.next = next;
+					s.linked = false;
+				} else {
+					prev = s;
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Applies the pending request of the slot and hands the result back,
+	 * under the write lock.
+	 *
+	 * @param s
+	 *            the slot
+	 * @param pass
+	 *            the combining pass
+	 */
+	private void apply(Slot s, long pass) {
+		try {
+			if (s.buy) {
+				applyBuyBooks(s.bookCopies);
+			} else {
+				applyAddCopies(s.bookCopies);
+			}
+		} catch (BookStoreException ex) {
+			s.exception = ex;
+		} catch (RuntimeException ex) {
+			s.failure = ex;
+		}
+
+		s.lastPass = pass;
+		s.pending = false;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Adds the copies, under the write lock.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @throws BookStoreException
+	 *             if a copy is invalid, nothing is added then
+	 */
+	private void applyAddCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+		}
+
+		// Update the number of copies, restocking clears the sale misses.
+		for (BookCopy bookCopy : bookCopiesSet) {
+			bookMap.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+			saleMissIndex.remove(bookCopy.getISBN());
+		}
+	}
+
+	/**
+	 * Buys the copies, under the write lock.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies
+	 * @throws BookStoreException
+	 *             if a copy is invalid or not in stock, nothing is bought then
+	 */
+	private void applyBuyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		// Check that all ISBNs that we buy are there first.
+		int isbn;
+		BookStoreBook book;
+		Boolean saleMiss = false;
+
+		Map<Integer, Integer> salesMisses = new HashMap<>();
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			isbn = bookCopyToBuy.getISBN();
+
+			validate(bookCopyToBuy);
+
+			book = bookMap.get(isbn);
+
+			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+				// If we cannot sell the copies of the book, it is a miss.
+				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				saleMiss = true;
+			}
+		}
+
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (saleMiss) {
+			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+				book = bookMap.get(saleMissEntry.getKey());
+				book.addSaleMiss(saleMissEntry.getValue());
+				saleMissIndex.add(saleMissEntry.getKey(), book);
+			}
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// Then make the purchase.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			book = bookMap.get(bookCopyToBuy.getISBN());
+			book.buyCopies(bookCopyToBuy.getNumCopies());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(isbn, bookStoreBook);
+				editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+				saleMissIndex.update(isbn, bookStoreBook, bookStoreBook.hadSaleMiss());
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		combine(false, bookCopiesSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we add/remove are there first.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		combine(true, bookCopiesToBuy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#prepareBuyBooks(
+	 * long, java.util.Set)
+	 */
+	@Override
+	public void prepareBuyBooks(long transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			if (preparedPurchases.containsKey(transactionId)) {
+				throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
+			}
+
+			applyBuyBooks(bookCopiesToBuy);
+			preparedPurchases.put(transactionId, bookCopiesToBuy);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#commitBuyBooks(
+	 * long)
+	 */
+	@Override
+	public void commitBuyBooks(long transactionId) throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			if (preparedPurchases.remove(transactionId) == null) {
+				throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_AVAILABLE);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#abortBuyBooks(
+	 * long)
+	 */
+	@Override
+	public void abortBuyBooks(long transactionId) throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			Set<BookCopy> bookCopies = preparedPurchases.remove(transactionId);
+
+			if (bookCopies != null) {
+				// Give the copies back, unless the book was removed meanwhile.
+				for (BookCopy bookCopy : bookCopies) {
+					BookStoreBook book = bookMap.get(bookCopy.getISBN());
+
+					if (book != null) {
+						book.returnCopies(bookCopy.getNumCopies());
+					}
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		// The index counts its picks under its own monitor.
+		return editorPickIndex.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		readLock.lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		readLock.lock();
+
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		readLock.lock();
+
+		try {
+			// Draw the picks from the editor pick index instead of scanning the books.
+			return editorPickIndex.sample(numBooks).stream()
+					.map(book -> book.immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// The index only holds the books with sale misses, so the catalog is
+		// not scanned, and no lock is taken. A book restocked in the meantime
+		// may still be indexed, it is left out.
+		return saleMissIndex.books().stream()
+				.filter(book -> book.hadSaleMiss())
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			bookMap.clear();
+			editorPickIndex.clear();
+			saleMissIndex.clear();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				editorPickIndex.remove(isbn);
+				saleMissIndex.remove(isbn);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,570 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.SaleMissIndex;
+
+/**
+ * {@link LockFreeCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities without locking the books. The stock
+ * counters of every {@link BookStoreBook} are updated with compare-and-set, so
+ * purchases, restocks and ratings never block each other; only the catalog
+ * changes (adding and removing books, and changing the editor picks) are
+ * serialized among themselves.
+ *
+ * A purchase of one book takes its copies with a single compare-and-set. A
+ * purchase of several books first checks that every book has the copies, then
+ * takes them one book at a time, and gives them back if another buyer took
+ * some in between. A purchase that finds a book short is retried under the
+ * purchase lock, once the orders holding copies without the lock are done,
+ * so that a sale miss is only recorded for copies that are really missing,
+ * never for copies held by an order about to give them back, and
+ * <code>buyBooks</code> stays all-or-nothing.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class LockFreeCertainBookStore implements BookStore, StockManager {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private final ConcurrentMap<Integer, BookStoreBook> bookMap;
+
+	/** The lock serializing the changes to the set of books and to the editor picks. */
+	private final Object catalogLock = new Object();
+
+	/**
+	 * The editor picks, for drawing random picks without scanning the books.
+	 * It is changed under the catalog lock together with the books, and read
+	 * without a lock.
+	 */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/**
+	 * The lock serializing the purchases that found a book short, taken
+	 * before the catalog lock.
+	 */
+	private final Object purchaseLock = new Object();
+
+	/**
+	 * Whether a purchase holding the purchase lock is checking for sale
+	 * misses, during which the purchases of several books take the lock too.
+	 */
+	private volatile boolean lockedPurchase = false;
+
+	/**
+	 * The number of purchases of several books holding copies without the
+	 * purchase lock, which they may still give back.
+	 */
+	private final AtomicInteger unlockedPurchases = new AtomicInteger();
+
+	/**
+	 * The books with sale misses, changed under the catalog lock so that a
+	 * removed book is never indexed. Restocks and sale misses race with each
+	 * other, so the index may hold books without sale misses, which the
+	 * readers leave out; but a book with sale misses is always indexed.
+	 */
+	private final SaleMissIndex<BookStoreBook> saleMissIndex = new SaleMissIndex<>();
+
+	/**
+	 * Instantiates a new {@link LockFreeCertainBookStore}.
+	 */
+	public LockFreeCertainBookStore() {
+		bookMap = new ConcurrentHashMap<>();
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		BookStoreBook book = validateISBNInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+		int rating = bookRating.getRating();
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private BookStoreBook validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		synchronized (catalogLock) {
+			// Check that all books are there first.
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			// Then add these books to the store.
+			for (StockBook book : bookSet) {
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(book.getISBN(), bookStoreBook);
+				editorPickIndex.update(book.getISBN(), bookStoreBook, bookStoreBook.isEditorPick());
+				saleMissIndex.update(book.getISBN(), bookStoreBook, bookStoreBook.hadSaleMiss());
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<BookStoreBook> books = new ArrayList<>(bookCopiesSet.size());
+
+		// Check that all books are there first.
+		for (BookCopy bookCopy : bookCopiesSet) {
+			books.add(validate(bookCopy));
+		}
+
+		// Then update the number of copies.
+		int i = 0;
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			BookStoreBook book = books.get(i++);
+			book.addCopies(bookCopy.getNumCopies());
+
+			synchronized (catalogLock) {
+				if (bookMap.get(book.getISBN()) == book) {
+					saleMissIndex.remove(book.getISBN());
+
+					// A sale miss recorded after the restock may have been
+					// indexed before the removal above, so index the book again.
+					if (book.hadSaleMiss()) {
+						saleMissIndex.add(book.getISBN(), book);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		return bookMap.values().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The picks are changed under the catalog lock, so that a removed book
+		// is never indexed.
+		synchronized (catalogLock) {
+			List<BookStoreBook> books = new ArrayList<>(editorPicks.size());
+
+			// Check that all books are there first.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books.add(validateISBNInStock(editorPickArg.getISBN()));
+			}
+
+			// Then set the editor pick.
+			int i = 0;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = books.get(i++);
+				book.setEditorPick(editorPickArg.isEditorPick());
+				editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		int numBooks = bookCopiesToBuy.size();
+		BookStoreBook[] books = new BookStoreBook[numBooks];
+		int[] numCopies = new int[numBooks];
+		int i = 0;
+
+		// Check that all ISBNs that we buy are there first.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			books[i] = validate(bookCopyToBuy);
+			numCopies[i++] = bookCopyToBuy.getNumCopies();
+		}
+
+		if (!buyWithoutLock(books, numCopies)) {
+			buyWithLock(books, numCopies);
+		}
+	}
+
+	/**
+	 * Takes the copies without the purchase lock.
+	 *
+	 * @param books
+	 *            the books
+	 * @param numCopies
+	 *            the number of copies of every book
+	 * @return true, if the copies were bought; false, if a book looked short or
+	 *         the copies must be taken under the lock
+	 */
+	private boolean buyWithoutLock(BookStoreBook[] books, int[] numCopies) {
+		if (books.length == 1) {
+			// A single compare-and-set never holds copies it gives back.
+			return books[0].tryBuyCopies(numCopies[0]) == 0;
+		}
+
+		// Registers before checking the lock, so that a purchase taking the
+		// lock either waits for this one or is seen by it.
+		unlockedPurchases.incrementAndGet();
+
+		try {
+			if (lockedPurchase) {
+				return false;
+			}
+
+			for (int i = 0; i < books.length; i++) {
+				if (books[i].getNumCopies() < numCopies[i]) {
+					return false;
+				}
+			}
+
+			return takeCopies(books, numCopies);
+		} finally {
+			unlockedPurchases.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Takes the copies under the purchase lock, once the purchases holding
+	 * copies without it are done, so that a book found short is really short,
+	 * and records the sale misses if one is.
+	 *
+	 * @param books
+	 *            the books
+	 * @param numCopies
+	 *            the number of copies of every book
+	 * @throws BookStoreException
+	 *             if a book is short
+	 */
+	private void buyWithLock(BookStoreBook[] books, int[] numCopies) throws BookStoreException {
+		synchronized (purchaseLock) {
+			lockedPurchase = true;
+
+			try {
+				while (unlockedPurchases.get() > 0) {
+					Thread.onSpinWait();
+				}
+
+				// Only the purchases of one book still run without the lock,
+				// each with one compare-and-set, so the copies are retaken
+				// until none of them comes in between.
+				while (true) {
+					int[] missingCopies = new int[books.length];
+					boolean saleMiss = false;
+
+					for (int i = 0; i < books.length; i++) {
+						missingCopies[i] = Math.max(numCopies[i] - books[i].getNumCopies(), 0);
+						saleMiss |= missingCopies[i] > 0;
+					}
+
+					if (saleMiss) {
+						// We throw exception now since we want to see how many
+						// books in the order incurred misses which is used by
+						// books in demand.
+						recordSaleMisses(books, missingCopies);
+						throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+					}
+
+					if (takeCopies(books, numCopies)) {
+						return;
+					}
+				}
+			} finally {
+				lockedPurchase = false;
+			}
+		}
+	}
+
+	/**
+	 * Takes the copies of every book, or none of them if a book is short.
+	 *
+	 * @param books
+	 *            the books
+	 * @param numCopies
+	 *            the number of copies of every book
+	 * @return true, if the copies were taken
+	 */
+	private static boolean takeCopies(BookStoreBook[] books, int[] numCopies) {
+		for (int i = 0; i < books.length; i++) {
+			if (books[i].tryBuyCopies(numCopies[i]) > 0) {
+				for (int j = 0; j < i; j++) {
+					books[j].returnCopies(numCopies[j]);
+				}
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Records the sale misses and indexes the books, unless they were removed.
+	 *
+	 * @param books
+	 *            the books
+	 * @param missingCopies
+	 *            the number of missing copies of every book
+	 */
+	private void recordSaleMisses(BookStoreBook[] books, int[] missingCopies) {
+		synchronized (catalogLock) {
+			for (int i = 0; i < books.length; i++) {
+				if (missingCopies[i] > 0) {
+					books[i].addSaleMiss(missingCopies[i]);
+
+					if (bookMap.get(books[i].getISBN()) == books[i]) {
+						saleMissIndex.add(books[i].getISBN(), books[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<StockBook> result = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			result.add(validateISBNInStock(ISBN).immutableStockBook());
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Book> result = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			result.add(validateISBNInStock(ISBN).immutableBook());
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The index only holds the editor picks, and only the immutable part
+		// of the picked books is read, so the catalog is not scanned.
+		return editorPickIndex.sample(numBooks).stream()
+				.map(book -> book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// The index only holds the books with sale misses, so the catalog is
+		// not scanned.
+		return saleMissIndex.books().stream()
+				.filter(book -> book.hadSaleMiss() && bookMap.get(book.getISBN()) == book)
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<BookStoreBook> books = new ArrayList<>(bookRating.size());
+
+		// Check whether the books are in stock and the ratings are reasonable.
+		for (BookRating bookToRate : bookRating) {
+			books.add(validate(bookToRate));
+		}
+
+		// Now make the rating.
+		int i = 0;
+
+		for (BookRating bookToRate : bookRating) {
+			books.get(i++).addRating(bookToRate.getRating());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		synchronized (catalogLock) {
+			bookMap.clear();
+			editorPickIndex.clear();
+			saleMissIndex.clear();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		synchronized (catalogLock) {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				editorPickIndex.remove(isbn);
+				saleMissIndex.remove(isbn);
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link MappedBook} is a view of a book in a {@link MappedCatalog}, handed
+ * out by a {@link ColumnarCertainBookStore} in catalog mode. The title and
+ * author are decoded from the catalog the first time they are read, so that
+ * a view costs a few bytes of heap until then.
+ *
+ * A view is only valid in the process of its store. It is serialized as the
+ * {@link ImmutableBook} it stands for.
+ */
+public final class MappedBook implements Book {
+
+	/** The catalog. */
+	private final transient MappedCatalog catalog;
+
+	/** The offset of the record of the book in the catalog. */
+	private final transient long offset;
+
+	/** The ISBN. */
+	private final int isbn;
+
+	/** The title, once decoded. */
+	private String title;
+
+	/** The author, once decoded. */
+	private String author;
+
+	/**
+	 * Instantiates a new {@link MappedBook}.
+	 *
+	 * @param catalog
+	 *            the catalog
+	 * @param offset
+	 *            the offset of the record of the book in the catalog
+	 * @param isbn
+	 *            the ISBN
+	 */
+	MappedBook(MappedCatalog catalog, long offset, int isbn) {
+		this.catalog = catalog;
+		this.offset = offset;
+		this.isbn = isbn;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.Book#getISBN()
+	 */
+	@Override
+	public int getISBN() {
+		return isbn;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.Book#getTitle()
+	 */
+	@Override
+	public String getTitle() {
+		// Decoding twice in a race gives equal strings.
+		if (title == null) {
+			title = catalog.getTitle(offset);
+		}
+
+		return title;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.Book#getAuthor()
+	 */
+	@Override
+	public String getAuthor() {
+		if (author == null) {
+			author = catalog.getAuthor(offset);
+		}
+
+		return author;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.Book#getPrice()
+	 */
+	@Override
+	public float getPrice() {
+		return catalog.getPrice(offset);
+	}
+
+	/**
+	 * Returns the {@link ImmutableBook} the view stands for, which is
+	 * serialized instead of the view.
+	 *
+	 * @return the immutable book
+	 */
+	public ImmutableBook immutableBook() {
+		return new ImmutableBook(isbn, getTitle(), getAuthor(), getPrice());
+	}
+
+	/**
+	 * Replaces the view by the book it stands for when it is serialized.
+	 *
+	 * @return the immutable book
+	 */
+	private Object writeReplace() {
+		return immutableBook();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ISBN = " + isbn + ", Title = " + getTitle() + ", Author = " + getAuthor() + ", Price = "
+				+ getPrice();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Book)) {
+			return false;
+		}
+
+		Book book = (Book) obj;
+		return isbn == book.getISBN() && getTitle().equals(book.getTitle()) && getAuthor().equals(book.getAuthor())
+				&& Math.abs(getPrice() - book.getPrice()) < BookStoreConstants.EPSILON;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return isbn;
+	}
+}
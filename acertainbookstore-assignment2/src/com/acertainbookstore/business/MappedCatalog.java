@@ -0,0 +1,246 @@
+package com.acertainbookstore.business;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * {@link MappedCatalog} is an append-only file of the immutable part of the
+ * books, their ISBN, price, title and author, memory-mapped so that it is
+ * read from the page cache rather than the heap.
+ *
+ * A record is the ISBN, the price, the lengths of the title and author, then
+ * the UTF-8 title and author, and is found by its offset in the file. The file
+ * is mapped in regions of {@link #REGION_BYTES} bytes, and a record does not
+ * span two regions. Records are never overwritten nor the file shrunk, so
+ * that an offset handed out stays valid, and a record is read without a lock
+ * once its offset is published. The file thus grows with every book added,
+ * the records of the removed books included, until the catalog is closed and
+ * a new one is created over it.
+ *
+ * The appends must be serialized by the caller. Closing the catalog closes
+ * the file, after which no record can be appended; the regions stay mapped
+ * until they are collected, so the records appended can still be read.
+ *
+ * A catalog is owned by one store: it holds an exclusive lock on the file
+ * until it is closed, and a catalog opened over a locked file, by this process
+ * or another, is refused rather than emptying the file under its owner. The
+ * records are thus not shared between server processes, each of which needs
+ * a file of its own.
+ */
+final class MappedCatalog implements Closeable {
+
+	/** The size of a mapped region, a power of two. */
+	static final int REGION_BYTES = 1 << 26;
+
+	private static final int REGION_SHIFT = Integer.numberOfTrailingZeros(REGION_BYTES);
+	private static final int REGION_MASK = REGION_BYTES - 1;
+
+	// The fields of a record, in the order they are laid out.
+	private static final int ISBN_OFFSET = 0;
+	private static final int PRICE_OFFSET = ISBN_OFFSET + Integer.BYTES;
+	private static final int TITLE_LENGTH_OFFSET = PRICE_OFFSET + Float.BYTES;
+	private static final int AUTHOR_LENGTH_OFFSET = TITLE_LENGTH_OFFSET + Integer.BYTES;
+	private static final int TITLE_OFFSET = AUTHOR_LENGTH_OFFSET + Integer.BYTES;
+
+	/** The channel, used to map new regions and holding the lock of the file. */
+	private final FileChannel channel;
+
+	/** The mapped regions, replaced by a longer array when one is mapped. */
+	private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+	/** The end of the last record, written by the appends only. */
+	private long end = 0;
+
+	/**
+	 * Creates the catalog, locking the file and emptying it if there is one.
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @throws IOException
+	 *             if the file is locked by another catalog, or an I/O
+	 *             exception has occurred
+	 */
+	MappedCatalog(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			FileLock lock;
+
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException ex) {
+				// Locked by another catalog of this process.
+				lock = null;
+			}
+
+			if (lock == null) {
+				throw new IOException("The catalog " + path + " is in use by another store");
+			}
+
+			// Emptied only once locked, so that the records of an owner are kept.
+			channel.truncate(0);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Appends the record of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @param price
+	 *            the price
+	 * @return the offset of the record
+	 * @throws IOException
+	 *             if the file cannot be mapped, or the record is longer than
+	 *             a region
+	 */
+	long append(int isbn, String title, String author, float price) throws IOException {
+		byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+		byte[] authorBytes = author.getBytes(StandardCharsets.UTF_8);
+		int length = TITLE_OFFSET + titleBytes.length + authorBytes.length;
+
+		if (length > REGION_BYTES) {
+			throw new IOException("The book " + isbn + " is too long for the catalog");
+		}
+
+		if (!channel.isOpen()) {
+			throw new ClosedChannelException();
+		}
+
+		long offset = end;
+
+		if ((offset & REGION_MASK) + length > REGION_BYTES) {
+			// Starts the next region.
+			offset = ((offset >>> REGION_SHIFT) + 1) << REGION_SHIFT;
+		}
+
+		int position = (int) (offset & REGION_MASK);
+		MappedByteBuffer region = mapRegion((int) (offset >>> REGION_SHIFT));
+		region.putInt(position + ISBN_OFFSET, isbn);
+		region.putFloat(position + PRICE_OFFSET, price);
+		region.putInt(position + TITLE_LENGTH_OFFSET, titleBytes.length);
+		region.putInt(position + AUTHOR_LENGTH_OFFSET, authorBytes.length);
+		region.put(position + TITLE_OFFSET, titleBytes);
+		region.put(position + TITLE_OFFSET + titleBytes.length, authorBytes);
+
+		end = offset + length;
+		return offset;
+	}
+
+	/**
+	 * Gets a region, mapping it if it is new.
+	 *
+	 * @param index
+	 *            the index of the region
+	 * @return the region
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private MappedByteBuffer mapRegion(int index) throws IOException {
+		MappedByteBuffer[] mapped = regions;
+
+		if (index < mapped.length) {
+			return mapped[index];
+		}
+
+		// Mapping past the end grows the file.
+		MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, (long) index << REGION_SHIFT,
+				REGION_BYTES);
+		mapped = Arrays.copyOf(mapped, index + 1);
+		mapped[index] = region;
+		regions = mapped;
+		return region;
+	}
+
+	/**
+	 * Gets the region of a record.
+	 *
+	 * @param offset
+	 *            the offset of the record
+	 * @return the region
+	 */
+	private MappedByteBuffer regionOf(long offset) {
+		return regions[(int) (offset >>> REGION_SHIFT)];
+	}
+
+	/**
+	 * Gets the price of a book.
+	 *
+	 * @param offset
+	 *            the offset of the record of the book
+	 * @return the price
+	 */
+	float getPrice(long offset) {
+		return regionOf(offset).getFloat((int) (offset & REGION_MASK) + PRICE_OFFSET);
+	}
+
+	/**
+	 * Decodes the title of a book.
+	 *
+	 * @param offset
+	 *            the offset of the record of the book
+	 * @return the title
+	 */
+	String getTitle(long offset) {
+		MappedByteBuffer region = regionOf(offset);
+		int position = (int) (offset & REGION_MASK);
+		return decode(region, position + TITLE_OFFSET, region.getInt(position + TITLE_LENGTH_OFFSET));
+	}
+
+	/**
+	 * Decodes the author of a book.
+	 *
+	 * @param offset
+	 *            the offset of the record of the book
+	 * @return the author
+	 */
+	String getAuthor(long offset) {
+		MappedByteBuffer region = regionOf(offset);
+		int position = (int) (offset & REGION_MASK);
+		return decode(region, position + TITLE_OFFSET + region.getInt(position + TITLE_LENGTH_OFFSET),
+				region.getInt(position + AUTHOR_LENGTH_OFFSET));
+	}
+
+	private static String decode(MappedByteBuffer region, int position, int length) {
+		byte[] bytes = new byte[length];
+		region.get(position, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the size of the records appended, in bytes, counting the ends of
+	 * the regions left unused.
+	 *
+	 * @return the size
+	 */
+	long size() {
+		return end;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,716 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.SaleMissIndex;
+
+/**
+ * {@link MultiVersionConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities with multi-version
+ * concurrency control.
+ *
+ * Every book is a chain of immutable versions, newest first, each stamped with
+ * the commit at which it was installed. Writers are serialized by a single
+ * lock, install their versions with the next commit number and only then
+ * publish that number. Readers take the last published commit as their
+ * snapshot and read, without any lock, the newest version of every book that
+ * is not newer than the snapshot; a removed book is a version without a book.
+ *
+ * A version is reclaimed by the writers once no registered reader snapshot can
+ * still see it. A book with older versions is queued once, with the commit
+ * from which they can be cut off, and a writer only visits the queued books
+ * whose commit no snapshot precedes, so a long reader holds back the
+ * reclamation without slowing down the writers.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The mapping of books from ISBN to their newest {@link Version}. */
+	private final ConcurrentMap<Integer, Version> bookMap;
+
+	/** The lock serializing the writers. */
+	private final Lock writeLock = new ReentrantLock();
+
+	/** The last published commit. */
+	private volatile long lastCommit = 0;
+
+	/** The snapshots of the readers in progress. */
+	private final Set<Snapshot> activeSnapshots = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The ISBNs whose version chains may hold versions to reclaim, each with
+	 * the commit from which its older versions are no longer needed, in the
+	 * order of these commits. Guarded by the write lock.
+	 */
+	private final LinkedHashMap<Integer, Long> pendingReclaims = new LinkedHashMap<>();
+
+	/**
+	 * The newest committed version of the books with sale misses, changed by
+	 * the writers as they commit.
+	 */
+	private final SaleMissIndex<StockBook> saleMissIndex = new SaleMissIndex<>();
+
+	/**
+	 * The immutable part of the newest committed version of the editor
+	 * picks, changed by the writers as they commit a change of the pick.
+	 */
+	private final EditorPickIndex<Book> editorPickIndex = new EditorPickIndex<>();
+
+	/**
+	 * {@link Version} is one immutable version of a book.
+	 */
+	private static final class Version {
+
+		/** The book, or null if the book was removed at this commit. */
+		private final StockBook book;
+
+		/** The commit at which the version was installed. */
+		private final long commit;
+
+		/** The previous version, cut off once it is reclaimed. */
+		private volatile Version previous;
+
+		private Version(StockBook book, long commit, Version previous) {
+			this.book = book;
+			this.commit = commit;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * {@link Snapshot} registers the commit a reader reads at. Every read has
+	 * its own instance, so readers at the same commit do not collide.
+	 */
+	private static final class Snapshot {
+
+		/** The commit. */
+		private final long commit;
+
+		private Snapshot(long commit) {
+			this.commit = commit;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link MultiVersionConcurrentCertainBookStore}.
+	 */
+	public MultiVersionConcurrentCertainBookStore() {
+		bookMap = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Takes and registers a snapshot. The commit is read again after the
+	 * registration: if it did not move, every writer that publishes a later
+	 * commit sees the registration before it reclaims anything.
+	 *
+	 * @return the snapshot, to be passed to {@link #releaseSnapshot(Snapshot)}
+	 */
+	private Snapshot takeSnapshot() {
+		while (true) {
+			Snapshot snapshot = new Snapshot(lastCommit);
+			activeSnapshots.add(snapshot);
+
+			if (snapshot.commit == lastCommit) {
+				return snapshot;
+			}
+
+			activeSnapshots.remove(snapshot);
+		}
+	}
+
+	private void releaseSnapshot(Snapshot snapshot) {
+		activeSnapshots.remove(snapshot);
+	}
+
+	/**
+	 * Gets the book as seen at the commit.
+	 *
+	 * @param version
+	 *            the newest version of the book, may be null
+	 * @param commit
+	 *            the commit
+	 * @return the book, or null if it did not exist at the commit
+	 */
+	private static StockBook bookAt(Version version, long commit) {
+		while (version != null && version.commit > commit) {
+			version = version.previous;
+		}
+
+		return (version == null) ? null : version.book;
+	}
+
+	/**
+	 * Gets the book as seen by the writer holding the write lock.
+	 */
+	private StockBook latestBook(int isbn) {
+		Version version = bookMap.get(isbn);
+		return (version == null) ? null : version.book;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (latestBook(isbn) != null) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private StockBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		StockBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private StockBook validate(BookRating bookRating) throws BookStoreException {
+		StockBook book = validateISBNInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+		int rating = bookRating.getRating();
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is valid
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private StockBook validateISBNInStock(Integer ISBN) throws BookStoreException {
+		return validateISBNInStock(ISBN, latestBook(ISBN));
+	}
+
+	private StockBook validateISBNInStock(Integer ISBN, StockBook book) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	private static StockBook withStock(StockBook book, int numCopies, long numSaleMisses) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(), numCopies,
+				numSaleMisses, book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick());
+	}
+
+	private static StockBook withEditorPick(StockBook book, boolean editorPick) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+				editorPick);
+	}
+
+	private static StockBook withRating(StockBook book, int rating) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated() + 1,
+				book.getTotalRating() + rating, book.isEditorPick());
+	}
+
+	/**
+	 * Installs the new versions of the books, all stamped with the next commit,
+	 * publishes that commit and reclaims the versions no reader can see any
+	 * more. Must be called with the write lock held.
+	 *
+	 * @param newVersions
+	 *            the new books by ISBN, a null book removes the ISBN
+	 */
+	private void commit(Map<Integer, StockBook> newVersions) {
+		if (newVersions.isEmpty()) {
+			return;
+		}
+
+		long commit = lastCommit + 1;
+
+		for (Map.Entry<Integer, StockBook> entry : newVersions.entrySet()) {
+			Integer isbn = entry.getKey();
+			Version head = bookMap.get(isbn);
+
+			if (head == null && entry.getValue() == null) {
+				continue;
+			}
+
+			bookMap.put(isbn, new Version(entry.getValue(), commit, head));
+
+			if (head != null) {
+				// A book already queued keeps its place, the commit it was
+				// queued with comes first.
+				pendingReclaims.putIfAbsent(isbn, commit);
+			}
+
+			// Purchases change the versions of the picks far more often than
+			// the picks change, so the index is only touched when a pick does.
+			StockBook book = entry.getValue();
+			boolean editorPick = book != null && book.isEditorPick();
+			boolean wasEditorPick = head != null && head.book != null && head.book.isEditorPick();
+
+			if (editorPick && !wasEditorPick) {
+				editorPickIndex.add(isbn,
+						new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()));
+			} else if (!editorPick && wasEditorPick) {
+				editorPickIndex.remove(isbn);
+			}
+		}
+
+		lastCommit = commit;
+
+		for (Map.Entry<Integer, StockBook> entry : newVersions.entrySet()) {
+			StockBook book = entry.getValue();
+			saleMissIndex.update(entry.getKey(), book, book != null && book.getNumSaleMisses() > 0);
+		}
+
+		reclaim();
+	}
+
+	/**
+	 * Cuts off the versions older than the oldest one still visible to a
+	 * snapshot, and drops the removed books no snapshot can see any more. Only
+	 * the books queued at a commit that every snapshot sees are visited, the
+	 * others are left for a later writer. Must be called with the write lock
+	 * held.
+	 */
+	private void reclaim() {
+		// A snapshot taken from now on reads at lastCommit or later.
+		long oldestVisible = lastCommit;
+
+		for (Snapshot snapshot : activeSnapshots) {
+			oldestVisible = Math.min(oldestVisible, snapshot.commit);
+		}
+
+		List<Integer> requeued = new ArrayList<>();
+
+		for (Iterator<Map.Entry<Integer, Long>> iterator = pendingReclaims.entrySet().iterator(); iterator
+				.hasNext();) {
+			Map.Entry<Integer, Long> entry = iterator.next();
+
+			if (entry.getValue() > oldestVisible) {
+				// The commits are in order, no later book can be reclaimed.
+				break;
+			}
+
+			Integer isbn = entry.getKey();
+			iterator.remove();
+			Version head = bookMap.get(isbn);
+
+			if (head == null) {
+				continue;
+			}
+
+			// Find the newest version that the oldest snapshot sees, there is
+			// one since the book was queued with a commit it sees.
+			Version visible = head;
+
+			while (visible.commit > oldestVisible) {
+				visible = visible.previous;
+			}
+
+			visible.previous = null;
+
+			if (visible != head) {
+				// The versions newer than the visible one are cut off later.
+				requeued.add(isbn);
+			} else if (head.book == null) {
+				bookMap.remove(isbn, head);
+			}
+		}
+
+		// Queued behind the others, with a commit no older than theirs.
+		for (Integer isbn : requeued) {
+			pendingReclaims.put(isbn, lastCommit);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all books are there first.
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			// Then add these books to the store.
+			Map<Integer, StockBook> newVersions = new LinkedHashMap<>();
+
+			for (StockBook book : bookSet) {
+				newVersions.put(book.getISBN(), new BookStoreBook(book).immutableStockBook());
+			}
+
+			commit(newVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies, restocking clears the sale misses.
+			Map<Integer, StockBook> newVersions = new LinkedHashMap<>();
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				StockBook book = newVersions.getOrDefault(bookCopy.getISBN(), latestBook(bookCopy.getISBN()));
+				newVersions.put(book.getISBN(), withStock(book, book.getNumCopies() + bookCopy.getNumCopies(), 0));
+			}
+
+			commit(newVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		Snapshot snapshot = takeSnapshot();
+
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			for (Version version : bookMap.values()) {
+				StockBook book = bookAt(version, snapshot.commit);
+
+				if (book != null) {
+					books.add(book);
+				}
+			}
+
+			return books;
+		} finally {
+			releaseSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we add/remove are there first.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			Map<Integer, StockBook> newVersions = new LinkedHashMap<>();
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				StockBook book = newVersions.getOrDefault(editorPickArg.getISBN(),
+						latestBook(editorPickArg.getISBN()));
+				newVersions.put(book.getISBN(), withEditorPick(book, editorPickArg.isEditorPick()));
+			}
+
+			commit(newVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, StockBook> salesMisses = new LinkedHashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				StockBook book = validate(bookCopyToBuy);
+
+				if (book.getNumCopies() < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					int missingCopies = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+					salesMisses.put(book.getISBN(),
+							withStock(book, book.getNumCopies(), book.getNumSaleMisses() + missingCopies));
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				commit(salesMisses);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			Map<Integer, StockBook> newVersions = new LinkedHashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				StockBook book = latestBook(bookCopyToBuy.getISBN());
+				newVersions.put(book.getISBN(), withStock(book, book.getNumCopies() - bookCopyToBuy.getNumCopies(),
+						book.getNumSaleMisses()));
+			}
+
+			commit(newVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Snapshot snapshot = takeSnapshot();
+
+		try {
+			List<StockBook> result = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				result.add(validateISBNInStock(ISBN, bookAt(bookMap.get(ISBN), snapshot.commit)));
+			}
+
+			return result;
+		} finally {
+			releaseSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Snapshot snapshot = takeSnapshot();
+
+		try {
+			List<Book> result = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				StockBook book = validateISBNInStock(ISBN, bookAt(bookMap.get(ISBN), snapshot.commit));
+				result.add(new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()));
+			}
+
+			return result;
+		} finally {
+			releaseSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The index holds immutable books, so it is read without a snapshot;
+		// it only holds the editor picks, so the catalog is not scanned.
+		return editorPickIndex.sample(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// The index holds immutable versions, so it is read without a
+		// snapshot; it only holds the books with sale misses, so the catalog
+		// is not scanned.
+		return saleMissIndex.books();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			// Check whether the books are in stock and the ratings are reasonable.
+			for (BookRating bookToRate : bookRating) {
+				validate(bookToRate);
+			}
+
+			// Now make the rating.
+			Map<Integer, StockBook> newVersions = new LinkedHashMap<>();
+
+			for (BookRating bookToRate : bookRating) {
+				StockBook book = newVersions.getOrDefault(bookToRate.getISBN(), latestBook(bookToRate.getISBN()));
+				newVersions.put(book.getISBN(), withRating(book, bookToRate.getRating()));
+			}
+
+			commit(newVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			Map<Integer, StockBook> newVersions = new LinkedHashMap<>();
+			for (Map.Entry<Integer, Version> entry : bookMap.entrySet()) {
+				if (entry.getValue().book != null) {
+					newVersions.put(entry.getKey(), null);
+				}
+			}
+
+			commit(newVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		writeLock.lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			Map<Integer, StockBook> newVersions = new LinkedHashMap<>();
+
+			for (Integer ISBN : isbnSet) {
+				newVersions.put(ISBN, null);
+			}
+
+			commit(newVersions);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
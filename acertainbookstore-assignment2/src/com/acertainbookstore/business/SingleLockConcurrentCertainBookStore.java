@@ -3,37 +3,49 @@ package com.acertainbookstore.business;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.SaleMissIndex;
+import com.acertainbookstore.utils.IntObjectMap;
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
- * {@link StockManager} functionalities.
+ * {@link StockManager} functionalities. It can take part in purchases spanning
+ * several partitions through {@link TwoPhaseCommitBookStore}.
  * 
  * @see BookStore
  * @see StockManager
  */
-public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
+public class SingleLockConcurrentCertainBookStore implements TwoPhaseCommitBookStore, StockManager {
 	ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 	private final Lock readLock = readWriteLock.readLock();
 	private final Lock writeLock = readWriteLock.writeLock();
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntObjectMap<BookStoreBook> bookMap = null;
+
+	/** The editor picks, for drawing random picks without scanning the books. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/** The books with sale misses, for listing the books in demand without scanning the books. */
+	private final SaleMissIndex<BookStoreBook> saleMissIndex = new SaleMissIndex<>();
+
+	/** The copies bought by the prepared purchases, by transaction. */
+	private final Map<Long, Set<BookCopy>> preparedPurchases = new HashMap<>();
 	private boolean addWriteLock() throws BookStoreException{
 		boolean success=writeLock.tryLock();
 		if(!success){
@@ -53,7 +65,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	public SingleLockConcurrentCertainBookStore() {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntObjectMap<>();
 	}
 
 	private void validate(StockBook book) throws BookStoreException {
@@ -135,7 +147,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 			for (StockBook book : bookSet) {
 				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(isbn, bookStoreBook);
+				editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+				saleMissIndex.update(isbn, bookStoreBook, bookStoreBook.hadSaleMiss());
 			}
 			writeLock.unlock();
 		} catch (BookStoreException e){
@@ -175,6 +190,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 				numCopies = bookCopy.getNumCopies();
 				book = bookMap.get(isbn);
 				book.addCopies(numCopies);
+				saleMissIndex.remove(isbn);
 			}
 			writeLock.unlock();
 		} catch (BookStoreException e){
@@ -232,7 +248,9 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			}
 
 			for (BookEditorPick editorPickArg : editorPicks) {
-				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
 			}
 			writeLock.unlock();
 		} catch (BookStoreException e){
@@ -252,55 +270,155 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		boolean success= false;
 		try {
 			success=addWriteLock();
-			if (bookCopiesToBuy == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			buy(bookCopiesToBuy);
+			writeLock.unlock();
+		} catch (BookStoreException e){
+			if(success){
+				writeLock.unlock();
 			}
+			throw e;
+		}
+	}
 
-			// Check that all ISBNs that we buy are there first.
-			int isbn;
-			BookStoreBook book;
-			Boolean saleMiss = false;
+	/**
+	 * Buys the copies, under the write lock.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @throws BookStoreException
+	 *             if a copy is invalid or not in stock, nothing is bought then
+	 */
+	private void buy(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-			Map<Integer, Integer> salesMisses = new HashMap<>();
+		// Check that all ISBNs that we buy are there first.
+		int isbn;
+		BookStoreBook book;
+		Boolean saleMiss = false;
 
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
+		Map<Integer, Integer> salesMisses = new HashMap<>();
 
-				validate(bookCopyToBuy);
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			isbn = bookCopyToBuy.getISBN();
 
-				book = bookMap.get(isbn);
+			validate(bookCopyToBuy);
 
-				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-					// If we cannot sell the copies of the book, it is a miss.
-					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-					saleMiss = true;
-				}
+			book = bookMap.get(isbn);
+
+			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+				// If we cannot sell the copies of the book, it is a miss.
+				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				saleMiss = true;
 			}
+		}
 
-			// We throw exception now since we want to see how many books in the
-			// order incurred misses which is used by books in demand
-			if (saleMiss) {
-				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-					book = bookMap.get(saleMissEntry.getKey());
-					book.addSaleMiss(saleMissEntry.getValue());
-				}
-				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (saleMiss) {
+			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+				book = bookMap.get(saleMissEntry.getKey());
+				book.addSaleMiss(saleMissEntry.getValue());
+				saleMissIndex.add(saleMissEntry.getKey(), book);
 			}
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// Then make the purchase.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			book = bookMap.get(bookCopyToBuy.getISBN());
+			book.buyCopies(bookCopyToBuy.getNumCopies());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#prepareBuyBooks(
+	 * long, java.util.Set)
+	 */
+	@Override
+	public void prepareBuyBooks(long transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		// The phases of a purchase wait for the lock rather than fail under
+		// contention: a refused commit or abort would leave the purchase
+		// half done.
+		writeLock.lock();
 
-			// Then make the purchase.
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				book = bookMap.get(bookCopyToBuy.getISBN());
-				book.buyCopies(bookCopyToBuy.getNumCopies());
+		try {
+			if (preparedPurchases.containsKey(transactionId)) {
+				throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
 			}
+
+			buy(bookCopiesToBuy);
+			preparedPurchases.put(transactionId, bookCopiesToBuy);
+		} finally {
 			writeLock.unlock();
-		} catch (BookStoreException e){
-			if(success){
-				writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#commitBuyBooks(
+	 * long)
+	 */
+	@Override
+	public void commitBuyBooks(long transactionId) throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			if (preparedPurchases.remove(transactionId) == null) {
+				throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_AVAILABLE);
 			}
-			throw e;
+		} finally {
+			writeLock.unlock();
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#abortBuyBooks(
+	 * long)
+	 */
+	@Override
+	public void abortBuyBooks(long transactionId) throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			Set<BookCopy> bookCopies = preparedPurchases.remove(transactionId);
+
+			if (bookCopies != null) {
+				// Give the copies back, unless the book was removed meanwhile.
+				for (BookCopy bookCopy : bookCopies) {
+					BookStoreBook book = bookMap.get(bookCopy.getISBN());
+
+					if (book != null) {
+						book.returnCopies(bookCopy.getNumCopies());
+					}
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#getNumEditorPicks()
+	 */
+	@Override
+	public int getNumEditorPicks() throws BookStoreException {
+		// The index counts its picks under its own monitor.
+		return editorPickIndex.size();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -377,36 +495,9 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 			}
 
-			List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-					.map(pair -> pair.getValue())
-					.filter(book -> book.isEditorPick())
-					.collect(Collectors.toList());
-
-			// Find numBooks random indices of books that will be picked.
-			Random rand = new Random();
-			Set<Integer> tobePicked = new HashSet<>();
-			int rangePicks = listAllEditorPicks.size();
-
-			if (rangePicks <= numBooks) {
-
-				// We need to add all books.
-				for (int i = 0; i < listAllEditorPicks.size(); i++) {
-					tobePicked.add(i);
-				}
-			} else {
-
-				// We need to pick randomly the books that need to be returned.
-				int randNum;
-
-				while (tobePicked.size() < numBooks) {
-					randNum = rand.nextInt(rangePicks);
-					tobePicked.add(randNum);
-				}
-			}
-
-			// Return all the books by the randomly chosen indices.
-			List<Book> result= tobePicked.stream()
-					.map(index -> listAllEditorPicks.get(index).immutableBook())
+			// Draw the picks from the editor pick index instead of scanning the books.
+			List<Book> result= editorPickIndex.sample(numBooks).stream()
+					.map(book -> book.immutableBook())
 					.collect(Collectors.toList());
 			readLock.unlock();
 			return result;
@@ -435,7 +526,13 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		// The index only holds the books with sale misses, so the catalog is
+		// not scanned, and no lock is taken. A book restocked in the meantime
+		// may still be indexed, it is left out.
+		return saleMissIndex.books().stream()
+				.filter(book -> book.hadSaleMiss())
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
 	}
 
 	/*
@@ -458,6 +555,9 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		try {
 			success=addWriteLock();
 			bookMap.clear();
+			editorPickIndex.clear();
+			saleMissIndex.clear();
+			preparedPurchases.clear();
 			writeLock.unlock();
 		}catch (BookStoreException e){
 			if(success){
@@ -493,6 +593,8 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 			for (int isbn : isbnSet) {
 				bookMap.remove(isbn);
+				editorPickIndex.remove(isbn);
+				saleMissIndex.remove(isbn);
 			}
 			writeLock.unlock();
 		}catch (BookStoreException e){
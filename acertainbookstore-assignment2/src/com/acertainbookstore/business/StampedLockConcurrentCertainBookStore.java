@@ -0,0 +1,488 @@
+package com.acertainbookstore.business;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.SaleMissIndex;
+import com.acertainbookstore.utils.ConcurrentIntObjectMap;
+
+/**
+ * {@link StampedLockConcurrentCertainBookStore} implements the
+ * {@link BookStore} and {@link StockManager} functionalities with a single
+ * {@link StampedLock}.
+ *
+ * Writers take the write lock. The read-mostly operations
+ * (<code>getBooks(Set)</code> and <code>getBooksByISBN</code>) first run as
+ * an optimistic read, which writes nothing to shared memory, and keep the
+ * result if no writer got the lock in the meantime; otherwise they run again
+ * under the read lock. <code>getEditorPicks</code> takes no lock at all: it
+ * draws from the published snapshot of the {@link EditorPickIndex}, which
+ * writes nothing shared either between two changes of the picks.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class StampedLockConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The lock. */
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * The mapping of books from ISBN to {@link BookStoreBook}. Optimistic
+	 * readers may look it up while a writer changes it, so it must stay
+	 * readable under concurrent changes.
+	 */
+	private final ConcurrentIntObjectMap<BookStoreBook> bookMap;
+
+	/** The editor picks, for drawing random picks without scanning the books. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/** The books with sale misses, for listing the books in demand without scanning the books. */
+	private final SaleMissIndex<BookStoreBook> saleMissIndex = new SaleMissIndex<>();
+
+	/**
+	 * {@link Read} is a read operation that can be run optimistically.
+	 *
+	 * @param <T>
+	 *            the result type
+	 */
+	@FunctionalInterface
+	private interface Read<T> {
+
+		/**
+		 * Runs the read.
+		 *
+		 * @return the result
+		 * @throws BookStoreException
+		 *             if the input is invalid
+		 */
+		T run() throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link StampedLockConcurrentCertainBookStore}.
+	 */
+	public StampedLockConcurrentCertainBookStore() {
+		bookMap = new ConcurrentIntObjectMap<>();
+	}
+
+	/**
+	 * Runs the read as an optimistic read, and again under the read lock if a
+	 * writer interfered. A writer may have left the books half updated while
+	 * the optimistic read ran, so neither its result nor its exception is
+	 * trusted unless the stamp is still valid.
+	 *
+	 * @param read
+	 *            the read
+	 * @return the result of the read
+	 * @throws BookStoreException
+	 *             if the read fails on a consistent state
+	 */
+	private <T> T optimisticRead(Read<T> read) throws BookStoreException {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				T result = read.run();
+
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (BookStoreException ex) {
+				if (lock.validate(stamp)) {
+					throw ex;
+				}
+			} catch (RuntimeException ex) {
+				// Inconsistent state seen during a write, retry under the lock.
+			}
+		}
+
+		stamp = lock.readLock();
+
+		try {
+			return read.run();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(isbn, bookStoreBook);
+				editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+				saleMissIndex.update(isbn, bookStoreBook, bookStoreBook.hadSaleMiss());
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies, restocking clears the sale misses.
+			for (BookCopy bookCopy : bookCopiesSet) {
+				bookMap.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+				saleMissIndex.remove(bookCopy.getISBN());
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		long stamp = lock.readLock();
+
+		try {
+			return bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			// Check that all ISBNs that we add/remove are there first.
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			// Check that all ISBNs that we buy are there first.
+			int isbn;
+			BookStoreBook book;
+			Boolean saleMiss = false;
+
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
+
+				validate(bookCopyToBuy);
+
+				book = bookMap.get(isbn);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					book = bookMap.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+					saleMissIndex.add(saleMissEntry.getKey(), book);
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = bookMap.get(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return optimisticRead(() -> {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return optimisticRead(() -> {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The editor pick index is changed under the write lock together with
+		// the books, and draws its picks from an immutable snapshot without
+		// its monitor. Only the immutable part of the picked books is read, so
+		// no lock is needed.
+		return editorPickIndex.sample(numBooks).stream()
+				.map(book -> book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// The index only holds the books with sale misses, so the catalog is
+		// not scanned, and no lock is taken. A book restocked in the meantime
+		// may still be indexed, it is left out.
+		return saleMissIndex.books().stream()
+				.filter(book -> book.hadSaleMiss())
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		long stamp = lock.writeLock();
+
+		try {
+			bookMap.clear();
+			editorPickIndex.clear();
+			saleMissIndex.clear();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				editorPickIndex.remove(isbn);
+				saleMissIndex.remove(isbn);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+}
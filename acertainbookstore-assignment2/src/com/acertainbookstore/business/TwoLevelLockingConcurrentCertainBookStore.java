@@ -1,17 +1,12 @@
 package com.acertainbookstore.business;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 
 import com.acertainbookstore.interfaces.BookStore;
@@ -19,16 +14,25 @@ import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.SaleMissIndex;
+import com.acertainbookstore.utils.IntObjectMap;
+import com.acertainbookstore.utils.StripedReadWriteLock;
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 /**
  * {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
  *
+ * Every operation takes the global lock first and then the local locks of the
+ * ISBNs it touches, sorted by stripe. By default a lock that cannot be taken
+ * within {@link BookStoreConstants#LOCK_TIMEOUT_SECONDS} aborts the request; in
+ * ordered locking mode the locks are waited for instead, which cannot deadlock
+ * since all requests take them in the same order.
+ *
  * @see BookStore
  * @see StockManager
  */
@@ -37,107 +41,136 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
     /**
      * The mapping of books from ISBN to {@link BookStoreBook}.
      */
-    private Map<Integer, BookStoreBook> bookMap = null;
+    private IntObjectMap<BookStoreBook> bookMap = null;
+
+    /** The editor picks, for drawing random picks without scanning the books. */
+    private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+    /** The books with sale misses, for listing the books in demand without scanning the books. */
+    private final SaleMissIndex<BookStoreBook> saleMissIndex = new SaleMissIndex<>();
+
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final Lock globalShareLock = readWriteLock.readLock();
     private final Lock globalExclusiveLock = readWriteLock.writeLock();
 
     /**
-     * Use ConcurrentMap instead of Map due to the Concurrency control
+     * The local locks, one stripe guarding all the ISBNs hashing to it.
+     */
+    private final StripedReadWriteLock lockTable;
+
+    /**
+     * Whether the locks are waited for in canonical order instead of being
+     * given up after a timeout.
      */
-    private ConcurrentMap<Integer, ReadWriteLock> lockMap = null;
-
-	private boolean addGlobalExclusiveLock() throws BookStoreException {
-		boolean success =false;
-		try {
-			success=globalExclusiveLock.tryLock(1, TimeUnit.SECONDS);
-		}catch (InterruptedException e){
-
-		}
-		if(!success){
-			throw new BookStoreException("Add Global Exclusive Lock Fail!");
-		}
-		return success;
-	}
-    private boolean putLocalLock(int ISBN) throws BookStoreException {
-        if(!validateISBNNotInLockMap(ISBN)){
-			return false;
-		}
-        lockMap.put(ISBN, new ReentrantReadWriteLock());
-		return true;
+    private final boolean orderedLocking;
+
+    private boolean tryLock(Lock lock) {
+        try {
+            return lock.tryLock(BookStoreConstants.LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
-    private boolean addLocalShareLock(int ISBN) throws BookStoreException {
-        boolean globalLock=false, localLock=false, success;
-        if(!validateISBNInLockMap(ISBN)){
-			return false;
-		}
-        ReadWriteLock readWriteLock = lockMap.get(ISBN);
-		try {
-			globalLock = globalShareLock.tryLock(1, TimeUnit.SECONDS);
-			localLock = readWriteLock.readLock().tryLock(1, TimeUnit.SECONDS);
-		}catch (InterruptedException e){
-
-		}
-        success = globalLock && localLock;
-        if (success) {
-            return success;
-        } else if (globalLock) {
-            globalShareLock.unlock();
-            return success;
-        } else if (localLock) {
-            readWriteLock.readLock().unlock();
-            return success;
-        } else {
-            return success;
+    private void addGlobalExclusiveLock() throws BookStoreException {
+        if (orderedLocking) {
+            globalExclusiveLock.lock();
+        } else if (!tryLock(globalExclusiveLock)) {
+            throw new BookStoreException("Add Global Exclusive Lock Fail!");
         }
     }
 
-    private boolean addLocalExclusiveLock(int ISBN) throws BookStoreException {
-        boolean globalLock=false, localLock=false, success;
-		if(!validateISBNInLockMap(ISBN)){
-			return false;
-		}
-        ReadWriteLock readWriteLock = lockMap.get(ISBN);
-		try {
-			globalLock = globalShareLock.tryLock(1, TimeUnit.SECONDS);
-			localLock = readWriteLock.writeLock().tryLock(1, TimeUnit.SECONDS);
-		}catch (InterruptedException e){
-
-		}
-        success = globalLock && localLock;
-        if (success) {
-            return success;
-        } else if (globalLock) {
-            globalShareLock.unlock();
-            return success;
-        } else if (localLock) {
-            readWriteLock.writeLock().unlock();
-            return success;
-        } else {
-            return success;
+    private void addGlobalShareLock() throws BookStoreException {
+        if (orderedLocking) {
+            globalShareLock.lock();
+        } else if (!tryLock(globalShareLock)) {
+            throw new BookStoreException("Add Global Share Lock Fail!");
         }
     }
 
-    private void releaseLocalShareLock(int ISBN) {
-        ReadWriteLock readWriteLock = lockMap.get(ISBN);
-        globalShareLock.unlock();
-        readWriteLock.readLock().unlock();
+    private Lock getStripeLock(int stripe, boolean exclusive) {
+        ReadWriteLock readWriteLock = lockTable.getStripe(stripe);
+        return exclusive ? readWriteLock.writeLock() : readWriteLock.readLock();
     }
 
-    private void releaseLocalExclusiveLock(int ISBN) {
-        ReadWriteLock readWriteLock = lockMap.get(ISBN);
+    /**
+     * Takes the global share lock and the local locks guarding the ISBNs. Each
+     * stripe is taken once, in ascending stripe order.
+     *
+     * @param isbns
+     *            the ISBNs
+     * @param exclusive
+     *            whether the local locks are taken exclusively
+     * @return the locked stripes, to be passed to
+     *         {@link #releaseLocalLocks(int[], boolean)}
+     * @throws BookStoreException
+     *             if a lock could not be taken in time
+     */
+    private int[] addLocalLocks(IntStream isbns, boolean exclusive) throws BookStoreException {
+        return addStripeLocks(isbns.map(lockTable::stripeOf).sorted().distinct().toArray(), exclusive);
+    }
+
+    private int[] addStripeLocks(int[] stripes, boolean exclusive) throws BookStoreException {
+        addGlobalShareLock();
+
+        for (int i = 0; i < stripes.length; i++) {
+            Lock stripeLock = getStripeLock(stripes[i], exclusive);
+
+            if (orderedLocking) {
+                stripeLock.lock();
+            } else if (!tryLock(stripeLock)) {
+                releaseStripeLocks(stripes, i, exclusive);
+                throw new BookStoreException("Add Local " + (exclusive ? "Exclusive" : "Share") + " Lock Fail!");
+            }
+        }
+        return stripes;
+    }
+
+    private void releaseLocalLocks(int[] stripes, boolean exclusive) {
+        releaseStripeLocks(stripes, stripes.length, exclusive);
+    }
+
+    private void releaseStripeLocks(int[] stripes, int numLocked, boolean exclusive) {
+        for (int i = numLocked - 1; i >= 0; i--) {
+            getStripeLock(stripes[i], exclusive).unlock();
+        }
         globalShareLock.unlock();
-        readWriteLock.writeLock().unlock();
     }
 
     /**
      * Instantiates a new {@link CertainBookStore}.
      */
     public TwoLevelLockingConcurrentCertainBookStore() {
+        this(BookStoreConstants.DEFAULT_NUM_LOCK_STRIPES);
+    }
+
+    /**
+     * Instantiates a new {@link CertainBookStore} whose local locks are
+     * spread over <code>numLockStripes</code> stripes.
+     *
+     * @param numLockStripes
+     *            the number of lock stripes, rounded up to a power of two
+     */
+    public TwoLevelLockingConcurrentCertainBookStore(int numLockStripes) {
+        this(numLockStripes, false);
+    }
+
+    /**
+     * Instantiates a new {@link CertainBookStore} whose local locks are
+     * spread over <code>numLockStripes</code> stripes.
+     *
+     * @param numLockStripes
+     *            the number of lock stripes, rounded up to a power of two
+     * @param orderedLocking
+     *            true to wait for the locks in canonical order, false to
+     *            abort a request whose locks cannot be taken in time
+     */
+    public TwoLevelLockingConcurrentCertainBookStore(int numLockStripes, boolean orderedLocking) {
         // Constructors are not synchronized
-        bookMap = new HashMap<>();
-        lockMap = new ConcurrentHashMap<>();
+        bookMap = new IntObjectMap<>();
+        lockTable = new StripedReadWriteLock(numLockStripes);
+        this.orderedLocking = orderedLocking;
     }
 
     private void validate(StockBook book) throws BookStoreException {
@@ -188,6 +221,15 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
         validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
     }
 
+    private static void validateISBNs(Set<Integer> isbnSet) throws BookStoreException {
+        // Before the ISBNs are mapped to their stripes, which cannot map a null.
+        for (Integer ISBN : isbnSet) {
+            if (ISBN == null || BookStoreUtility.isInvalidISBN(ISBN)) {
+                throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+            }
+        }
+    }
+
     private void validateISBNInStock(Integer ISBN) throws BookStoreException {
         if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
             throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
@@ -197,20 +239,6 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
         }
     }
 
-    private boolean validateISBNInLockMap(Integer ISBN)  {
-        if (!lockMap.containsKey(ISBN)) {
-           return false;
-        }
-		return true;
-    }
-
-    private boolean validateISBNNotInLockMap(Integer ISBN) {
-        if (lockMap.containsKey(ISBN)) {
-           return false;
-        }
-		return true;
-    }
-
     /*
      * (non-Javadoc)
      *
@@ -221,39 +249,22 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
         if (bookSet == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
-		boolean success=false;
+        addGlobalExclusiveLock();
         try {
-
-			success=addGlobalExclusiveLock();
             // Check if all are there
             for (StockBook book : bookSet) {
                 validate(book);
             }
-			List<Integer> isbnList= new ArrayList<>();
             for (StockBook book : bookSet) {
                 int isbn = book.getISBN();
-
-                boolean successAdd=putLocalLock(isbn);
-				if(successAdd){
-					isbnList.add(isbn);
-				}else{
-					for (Integer Isbn: isbnList){
-						lockMap.remove(Isbn);
-					}
-					throw new BookStoreException("Error");
-				}
+                BookStoreBook bookStoreBook = new BookStoreBook(book);
+                bookMap.put(isbn, bookStoreBook);
+                editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+                saleMissIndex.update(isbn, bookStoreBook, bookStoreBook.hadSaleMiss());
             }
-			for(StockBook book:bookSet){
-				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
-			}
-			globalExclusiveLock.unlock();
-        } catch (BookStoreException e){
-			if(success){
-				globalExclusiveLock.unlock();
-			}
-			throw e;
-		}
+        } finally {
+            globalExclusiveLock.unlock();
+        }
     }
 
     /*
@@ -263,44 +274,21 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
      */
     public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-        int isbn;
-        int numCopies;
-
         if (bookCopiesSet == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
+        int[] stripes = addLocalLocks(bookCopiesSet.stream().mapToInt(BookCopy::getISBN), true);
         try {
-			List<Integer> isbnLockList= new ArrayList<>();
             for (BookCopy bookCopy : bookCopiesSet) {
-				boolean success = addLocalExclusiveLock(bookCopy.getISBN());
-				try {
-					validate(bookCopy);
-				} catch (BookStoreException e){
-					if(success) {
-						releaseLocalExclusiveLock(bookCopy.getISBN());
-					}
-					success = false;
-				}
-				if(success){
-					isbnLockList.add(bookCopy.getISBN());
-				}else{
-					for(Integer ISBN: isbnLockList){
-						releaseLocalExclusiveLock(ISBN);
-					}
-					throw new BookStoreException("Add Local Exclusive Lock failed "+ bookCopy.getISBN());
-				}
+                validate(bookCopy);
             }
-            BookStoreBook book;
-            // Update the number of copies
+            // Update the number of copies, restocking clears the sale misses.
             for (BookCopy bookCopy : bookCopiesSet) {
-                isbn = bookCopy.getISBN();
-                numCopies = bookCopy.getNumCopies();
-                book = bookMap.get(isbn);
-                book.addCopies(numCopies);
-				releaseLocalExclusiveLock(isbn);
+                bookMap.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+                saleMissIndex.remove(bookCopy.getISBN());
             }
-        } catch (BookStoreException e) {
-            throw e;
+        } finally {
+            releaseLocalLocks(stripes, true);
         }
     }
 
@@ -309,33 +297,19 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      *
      * @see com.acertainbookstore.interfaces.StockManager#getBooks()
      */
-    public List<StockBook> getBooks() throws BookStoreException{
-		try {
-			Collection<BookStoreBook> bookMapValues = bookMap.values();
-			List<Integer> isbnLockList= new ArrayList<>();
-			for (BookStoreBook book : bookMapValues) {
-				boolean success = addLocalShareLock(book.getISBN());
-				if(success){
-					isbnLockList.add(book.getISBN());
-				}else{
-					for(Integer ISBN: isbnLockList){
-						releaseLocalShareLock(ISBN);
-					}
-					throw new BookStoreException("Add Local Share Lock failed "+ book.getISBN());
-				}
-			}
-
-			List<StockBook> result= bookMapValues.stream()
-					.map(book -> book.immutableStockBook())
-					.collect(Collectors.toList());
-			for (BookStoreBook book : bookMapValues) {
-				releaseLocalShareLock(book.getISBN());
-			}
-			return result;
-		}catch (BookStoreException e){
-			throw e;
-		}
-	}
+    public List<StockBook> getBooks() throws BookStoreException {
+        // The whole catalog is read, so take every stripe once instead of one
+        // lock per book.
+        int[] stripes = addStripeLocks(IntStream.range(0, lockTable.size()).toArray(), false);
+        try {
+            Collection<BookStoreBook> bookMapValues = bookMap.values();
+            return bookMapValues.stream()
+                    .map(book -> book.immutableStockBook())
+                    .collect(Collectors.toList());
+        } finally {
+            releaseLocalLocks(stripes, false);
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -345,41 +319,24 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * .Set)
      */
     public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
-		// Check that all ISBNs that we add/remove are there first.
-		if (editorPicks == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
-		try {
-			List<Integer> isbnLockList= new ArrayList<>();
-			for (BookEditorPick editorPickArg : editorPicks) {
-				boolean success = addLocalShareLock(editorPickArg.getISBN());
-				try {
-					validate(editorPickArg);
-				} catch (BookStoreException e){
-					if(success){
-						releaseLocalShareLock(editorPickArg.getISBN());
-					}
-					success = false;
-				}
-				if(success){
-					isbnLockList.add(editorPickArg.getISBN());
-				}else{
-					for(Integer ISBN: isbnLockList){
-						releaseLocalShareLock(ISBN);
-					}
-					throw new BookStoreException("Add Local Share Lock failed "+ editorPickArg.getISBN());
-				}
-
-			}
-
-			for (BookEditorPick editorPickArg : editorPicks) {
-				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
-				releaseLocalShareLock(editorPickArg.getISBN());
-			}
-		}catch (BookStoreException e){
-			throw e;
-		}
-	}
+        // Check that all ISBNs that we add/remove are there first.
+        if (editorPicks == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+        int[] stripes = addLocalLocks(editorPicks.stream().mapToInt(BookEditorPick::getISBN), true);
+        try {
+            for (BookEditorPick editorPickArg : editorPicks) {
+                validate(editorPickArg);
+            }
+            for (BookEditorPick editorPickArg : editorPicks) {
+                BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+                book.setEditorPick(editorPickArg.isEditorPick());
+                editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+            }
+        } finally {
+            releaseLocalLocks(stripes, true);
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -387,69 +344,50 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
      */
     public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
-		if (bookCopiesToBuy == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
-		try {
-			// Check that all ISBNs that we buy are there first.
-			int isbn;
-			BookStoreBook book;
-			Boolean saleMiss = false;
-
-			Map<Integer, Integer> salesMisses = new HashMap<>();
-			List<Integer> isbnLockList= new ArrayList<>();
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
-				boolean success = addLocalShareLock(isbn);
-				try {
-					validate(bookCopyToBuy);
-				} catch (BookStoreException e){
-					if(success) {
-						releaseLocalShareLock(isbn);
-					}
-					success = false;
-				}
-				if(success){
-					isbnLockList.add(isbn);
-				}else{
-					for(Integer ISBN: isbnLockList){
-						releaseLocalShareLock(ISBN);
-					}
-					throw new BookStoreException("Add Local Share Lock failed "+ isbn);
-				}
-
-				book = bookMap.get(isbn);
-
-				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-					// If we cannot sell the copies of the book, it is a miss.
-					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-					saleMiss = true;
-				}
-			}
-
-			// We throw exception now since we want to see how many books in the
-			// order incurred misses which is used by books in demand
-			if (saleMiss) {
-				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-					book = bookMap.get(saleMissEntry.getKey());
-					book.addSaleMiss(saleMissEntry.getValue());
-				}
-				for(BookCopy bookCopyToBuy:bookCopiesToBuy){
-					releaseLocalShareLock(bookCopyToBuy.getISBN());
-				}
-				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
-			}
-
-			// Then make the purchase.
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				book = bookMap.get(bookCopyToBuy.getISBN());
-				book.buyCopies(bookCopyToBuy.getNumCopies());
-				releaseLocalShareLock(bookCopyToBuy.getISBN());
-			}
-		} catch (BookStoreException e){
-			throw e;
-		}
-	}
+        if (bookCopiesToBuy == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+        int[] stripes = addLocalLocks(bookCopiesToBuy.stream().mapToInt(BookCopy::getISBN), true);
+        try {
+            // Check that all ISBNs that we buy are there first.
+            int isbn;
+            BookStoreBook book;
+            Boolean saleMiss = false;
+
+            Map<Integer, Integer> salesMisses = new HashMap<>();
+            for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+                isbn = bookCopyToBuy.getISBN();
+                validate(bookCopyToBuy);
+
+                book = bookMap.get(isbn);
+
+                if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+                    // If we cannot sell the copies of the book, it is a miss.
+                    salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+                    saleMiss = true;
+                }
+            }
+
+            // We throw exception now since we want to see how many books in the
+            // order incurred misses which is used by books in demand
+            if (saleMiss) {
+                for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+                    book = bookMap.get(saleMissEntry.getKey());
+                    book.addSaleMiss(saleMissEntry.getValue());
+                    saleMissIndex.add(saleMissEntry.getKey(), book);
+                }
+                throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+            }
+
+            // Then make the purchase.
+            for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+                book = bookMap.get(bookCopyToBuy.getISBN());
+                book.buyCopies(bookCopyToBuy.getNumCopies());
+            }
+        } finally {
+            releaseLocalLocks(stripes, true);
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -459,41 +397,22 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * Set)
      */
     public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
-		try {
-			List<Integer> isbnLockList= new ArrayList<>();
-			for (Integer ISBN : isbnSet) {
-				boolean success = addLocalShareLock(ISBN);
-				try {
-					validateISBNInStock(ISBN);
-				} catch (BookStoreException e){
-					if(success){
-						releaseLocalShareLock(ISBN);
-					}
-					success = false;
-				}
-				if(success){
-					isbnLockList.add(ISBN);
-				}else{
-					for(Integer isbn: isbnLockList){
-						releaseLocalShareLock(isbn);
-					}
-					throw new BookStoreException("Add Local Share Lock failed "+ ISBN);
-				}
-			}
-			List<StockBook> result= isbnSet.stream()
-					.map(isbn -> bookMap.get(isbn).immutableStockBook())
-					.collect(Collectors.toList());
-			for(Integer ISBN :isbnSet){
-				releaseLocalShareLock(ISBN);
-			}
-			return result;
-		} catch (BookStoreException e){
-			throw e;
-		}
-	}
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+        validateISBNs(isbnSet);
+        int[] stripes = addLocalLocks(isbnSet.stream().mapToInt(Integer::intValue), false);
+        try {
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+            return isbnSet.stream()
+                    .map(isbn -> bookMap.get(isbn).immutableStockBook())
+                    .collect(Collectors.toList());
+        } finally {
+            releaseLocalLocks(stripes, false);
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -501,42 +420,23 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
      */
     public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
-		try {
-			List<Integer> isbnLockList = new ArrayList<>();
-			// Check that all ISBNs that we rate are there to start with.
-			for (Integer ISBN : isbnSet) {
-				boolean success = addLocalShareLock(ISBN);
-				try {
-					validateISBNInStock(ISBN);
-				} catch (BookStoreException e){
-					if(success){
-						releaseLocalShareLock(ISBN);
-					}
-					success = false;
-				}
-				if (success) {
-					isbnLockList.add(ISBN);
-				} else {
-					for (Integer isbn : isbnLockList) {
-						releaseLocalShareLock(isbn);
-					}
-					throw new BookStoreException("Add Local Share Lock failed " + ISBN);
-				}
-			}
-			List<Book> result = isbnSet.stream()
-					.map(isbn -> bookMap.get(isbn).immutableBook())
-					.collect(Collectors.toList());
-			for (Integer ISBN : isbnSet) {
-				releaseLocalShareLock(ISBN);
-			}
-			return result;
-		} catch (BookStoreException e) {
-			throw e;
-		}
-	}
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+        validateISBNs(isbnSet);
+        int[] stripes = addLocalLocks(isbnSet.stream().mapToInt(Integer::intValue), false);
+        try {
+            // Check that all ISBNs that we rate are there to start with.
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+            return isbnSet.stream()
+                    .map(isbn -> bookMap.get(isbn).immutableBook())
+                    .collect(Collectors.toList());
+        } finally {
+            releaseLocalLocks(stripes, false);
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -544,60 +444,21 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
      */
     public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		if (numBooks < 0) {
-			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
-		}
-		try {
-			List<Integer> isbnLockList = new ArrayList<>();
-			List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-					.map(pair -> pair.getValue())
-					.filter(book -> book.isEditorPick())
-					.collect(Collectors.toList());
-			for (Book book : listAllEditorPicks) {
-				boolean success = addLocalShareLock(book.getISBN());
-				if (success) {
-					isbnLockList.add(book.getISBN());
-				} else {
-					for (Integer isbn : isbnLockList) {
-						releaseLocalShareLock(isbn);
-					}
-					throw new BookStoreException("Add Local Share Lock failed " + book.getISBN());
-				}
-			}
-			// Find numBooks random indices of books that will be picked.
-			Random rand = new Random();
-			Set<Integer> tobePicked = new HashSet<>();
-			int rangePicks = listAllEditorPicks.size();
-
-			if (rangePicks <= numBooks) {
-
-				// We need to add all books.
-				for (int i = 0; i < listAllEditorPicks.size(); i++) {
-					tobePicked.add(i);
-				}
-			} else {
-
-				// We need to pick randomly the books that need to be returned.
-				int randNum;
-
-				while (tobePicked.size() < numBooks) {
-					randNum = rand.nextInt(rangePicks);
-					tobePicked.add(randNum);
-				}
-			}
-
-			// Return all the books by the randomly chosen indices.
-			List<Book> result= tobePicked.stream()
-					.map(index -> listAllEditorPicks.get(index).immutableBook())
-					.collect(Collectors.toList());
-			for(Book book: listAllEditorPicks){
-				releaseLocalShareLock(book.getISBN());
-			}
-			return result;
-		} catch (BookStoreException e){
-			throw e;
-		}
-	}
+        if (numBooks < 0) {
+            throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+        }
+        // The editor pick index is kept in step with the books under their
+        // exclusive locks, so drawing from it needs no local lock; the global
+        // share lock keeps books from being removed meanwhile.
+        addGlobalShareLock();
+        try {
+            return editorPickIndex.sample(numBooks).stream()
+                    .map(book -> book.immutableBook())
+                    .collect(Collectors.toList());
+        } finally {
+            globalShareLock.unlock();
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -616,7 +477,13 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      */
     @Override
     public List<StockBook> getBooksInDemand() throws BookStoreException {
-        throw new BookStoreException();
+        // The index only holds the books with sale misses, so the catalog is
+        // not scanned, and no lock is taken. A book restocked in the meantime
+        // may still be indexed, it is left out.
+        return saleMissIndex.books().stream()
+                .filter(book -> book.hadSaleMiss())
+                .map(book -> book.immutableStockBook())
+                .collect(Collectors.toList());
     }
 
     /*
@@ -635,19 +502,15 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
      */
     public void removeAllBooks() throws BookStoreException {
-		boolean success=false;
-		try {
-			success=addGlobalExclusiveLock();
-			bookMap.clear();
-			lockMap.clear();
-			globalExclusiveLock.unlock();
-		} catch (BookStoreException e){
-			if(success){
-				globalExclusiveLock.unlock();
-			}
-			throw e;
-		}
-	}
+        addGlobalExclusiveLock();
+        try {
+            bookMap.clear();
+            editorPickIndex.clear();
+            saleMissIndex.clear();
+        } finally {
+            globalExclusiveLock.unlock();
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -656,33 +519,26 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
      * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
      */
     public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
-		boolean success=false;
-		try {
-			success=addGlobalExclusiveLock();
-			for (Integer ISBN : isbnSet) {
-				if (BookStoreUtility.isInvalidISBN(ISBN)) {
-					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-				}
-
-				if (!bookMap.containsKey(ISBN)) {
-					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
-				}
-			}
-
-			for (int isbn : isbnSet) {
-				bookMap.remove(isbn);
-				lockMap.remove(isbn);
-			}
-			globalExclusiveLock.unlock();
-		} catch (BookStoreException e) {
-			if(success){
-				globalExclusiveLock.unlock();
-			}
-			throw e;
-		}
-	}
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+        validateISBNs(isbnSet);
+        addGlobalExclusiveLock();
+        try {
+            for (Integer ISBN : isbnSet) {
+                if (!bookMap.containsKey(ISBN)) {
+                    throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+                }
+            }
+
+            for (int isbn : isbnSet) {
+                bookMap.remove(isbn);
+                editorPickIndex.remove(isbn);
+                saleMissIndex.remove(isbn);
+            }
+        } finally {
+            globalExclusiveLock.unlock();
+        }
+    }
 
 }
@@ -12,6 +12,7 @@ import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.TwoPhaseCommitBookStore;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
@@ -24,12 +25,13 @@ import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreHTTPProxy} implements the client level synchronous
- * {@link CertainBookStore} API declared in the {@link BookStore} class.
+ * {@link CertainBookStore} API declared in the {@link BookStore} class, and
+ * the {@link TwoPhaseCommitBookStore} API of a partition of the bookstore.
  * 
  * @see BookStore
  * @see CertainBookStore
  */
-public class BookStoreHTTPProxy implements BookStore {
+public class BookStoreHTTPProxy implements TwoPhaseCommitBookStore {
 
 	/** The client. */
 	protected HttpClient client;
@@ -136,6 +138,62 @@ public class BookStoreHTTPProxy implements BookStore {
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#prepareBuyBooks(
+	 * long, java.util.Set)
+	 */
+	public void prepareBuyBooks(long transactionId, Set<BookCopy> booksToBuy) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.PREPAREBUYBOOKS + "?"
+				+ BookStoreConstants.TRANSACTION_ID_PARAM + "=" + transactionId;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, booksToBuy);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#commitBuyBooks(
+	 * long)
+	 */
+	public void commitBuyBooks(long transactionId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.COMMITBUYBOOKS + "?"
+				+ BookStoreConstants.TRANSACTION_ID_PARAM + "=" + transactionId;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#abortBuyBooks(
+	 * long)
+	 */
+	public void abortBuyBooks(long transactionId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ABORTBUYBOOKS + "?"
+				+ BookStoreConstants.TRANSACTION_ID_PARAM + "=" + transactionId;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitBookStore#getNumEditorPicks()
+	 */
+	public int getNumEditorPicks() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETNUMEDITORPICKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (Integer) bookStoreResponse.getList().get(0);
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
@@ -0,0 +1,250 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link PartitionRouter} splits the requests of the partitioned proxies by
+ * the hash partition of their ISBNs, and sends the parts to their partitions
+ * in parallel.
+ */
+final class PartitionRouter {
+
+	/** The number of partitions. */
+	private final int numPartitions;
+
+	/** The threads sending the parts of the requests. */
+	private final ExecutorService executor;
+
+	/**
+	 * {@link PartitionCall} is the part of a request sent to one partition.
+	 *
+	 * @param <R>
+	 *            the result type
+	 */
+	@FunctionalInterface
+	interface PartitionCall<R> {
+
+		/**
+		 * Sends the part of the request to the partition.
+		 *
+		 * @param partition
+		 *            the partition
+		 * @return the result
+		 * @throws BookStoreException
+		 *             if the partition failed the request
+		 */
+		R call(int partition) throws BookStoreException;
+	}
+
+	/**
+	 * {@link Outcomes} are the results of the partitions that succeeded and
+	 * the exceptions of those that failed.
+	 *
+	 * @param <R>
+	 *            the result type
+	 */
+	static final class Outcomes<R> {
+
+		/** The results, by partition. */
+		private final SortedMap<Integer, R> results = new TreeMap<>();
+
+		/** The exceptions, by partition. */
+		private final SortedMap<Integer, BookStoreException> failures = new TreeMap<>();
+
+		/**
+		 * Gets the results of the partitions that succeeded.
+		 *
+		 * @return the results, by partition
+		 */
+		SortedMap<Integer, R> getResults() {
+			return results;
+		}
+
+		/**
+		 * Checks if a partition failed.
+		 *
+		 * @return true, if a partition failed
+		 */
+		boolean hasFailures() {
+			return !failures.isEmpty();
+		}
+
+		/**
+		 * Throws the exception of the first partition that failed, if any.
+		 *
+		 * @throws BookStoreException
+		 *             the exception of the first partition that failed
+		 */
+		void throwFirstFailure() throws BookStoreException {
+			if (hasFailures()) {
+				throw failures.get(failures.firstKey());
+			}
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link PartitionRouter}.
+	 *
+	 * @param numPartitions
+	 *            the number of partitions
+	 */
+	PartitionRouter(int numPartitions) {
+		if (numPartitions < 1) {
+			throw new IllegalArgumentException("numPartitions = " + numPartitions + ", but it must be positive");
+		}
+
+		this.numPartitions = numPartitions;
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "partition-router");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Gets all the partitions.
+	 *
+	 * @return the partitions
+	 */
+	List<Integer> allPartitions() {
+		List<Integer> partitions = new ArrayList<>(numPartitions);
+
+		for (int partition = 0; partition < numPartitions; partition++) {
+			partitions.add(partition);
+		}
+
+		return partitions;
+	}
+
+	/**
+	 * Splits the items by partition.
+	 *
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the ISBN of an item
+	 * @return the items of every partition that has some, by partition
+	 */
+	<T> SortedMap<Integer, Set<T>> split(Set<T> items, ToIntFunction<T> isbnOf) {
+		SortedMap<Integer, Set<T>> parts = new TreeMap<>();
+
+		for (T item : items) {
+			int partition = BookStoreUtility.partitionOf(isbnOf.applyAsInt(item), numPartitions);
+			parts.computeIfAbsent(partition, p -> new HashSet<>()).add(item);
+		}
+
+		return parts;
+	}
+
+	/**
+	 * Sends the request to the partitions in parallel and waits for all of
+	 * them.
+	 *
+	 * @param partitions
+	 *            the partitions
+	 * @param call
+	 *            the part of the request sent to each partition
+	 * @return the outcomes
+	 */
+	<R> Outcomes<R> callAll(Collection<Integer> partitions, PartitionCall<R> call) {
+		Outcomes<R> outcomes = new Outcomes<>();
+		Map<Integer, Future<R>> futures = new TreeMap<>();
+		Iterator<Integer> iterator = partitions.iterator();
+
+		if (!iterator.hasNext()) {
+			return outcomes;
+		}
+
+		// The calling thread sends the first part itself.
+		int first = iterator.next();
+
+		while (iterator.hasNext()) {
+			int partition = iterator.next();
+			futures.put(partition, executor.submit(() -> call.call(partition)));
+		}
+
+		try {
+			outcomes.results.put(first, call.call(first));
+		} catch (BookStoreException ex) {
+			outcomes.failures.put(first, ex);
+		} catch (RuntimeException ex) {
+			outcomes.failures.put(first, new BookStoreException(ex));
+		}
+
+		for (Map.Entry<Integer, Future<R>> future : futures.entrySet()) {
+			try {
+				outcomes.results.put(future.getKey(), future.getValue().get());
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				outcomes.failures.put(future.getKey(), (cause instanceof BookStoreException)
+						? (BookStoreException) cause : new BookStoreException(cause));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				outcomes.failures.put(future.getKey(), new BookStoreException(ex));
+			}
+		}
+
+		return outcomes;
+	}
+
+	/**
+	 * Sends the request to the partitions in parallel, waits for all of them
+	 * and fails if one failed.
+	 *
+	 * @param partitions
+	 *            the partitions
+	 * @param call
+	 *            the part of the request sent to each partition
+	 * @return the results, by partition
+	 * @throws BookStoreException
+	 *             the exception of the first partition that failed
+	 */
+	<R> SortedMap<Integer, R> callAllOrThrow(Collection<Integer> partitions, PartitionCall<R> call)
+			throws BookStoreException {
+		Outcomes<R> outcomes = callAll(partitions, call);
+		outcomes.throwFirstFailure();
+		return outcomes.getResults();
+	}
+
+	/**
+	 * Concatenates the lists of the partitions, in partition order.
+	 *
+	 * @param lists
+	 *            the lists, by partition
+	 * @return the list
+	 */
+	static <T> List<T> merge(Map<Integer, List<T>> lists) {
+		List<T> merged = new ArrayList<>();
+
+		for (List<T> list : lists.values()) {
+			if (list != null) {
+				merged.addAll(list);
+			}
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,284 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.TwoPhaseCommitBookStore;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link PartitionedBookStoreProxy} implements the {@link BookStore} API over
+ * a catalog hash partitioned by ISBN across several bookstores, typically one
+ * {@link com.acertainbookstore.server.BookStoreHTTPServer} process per
+ * partition, each started on its own port.
+ *
+ * The requests are split by partition and the parts are sent in parallel.
+ * A purchase within one partition is sent as is. A purchase spanning several
+ * partitions is committed with a two-phase commit, so that either every
+ * partition sells its copies or none does. The sale misses are recorded by
+ * every partition short of copies, as a single bookstore would.
+ *
+ * @see BookStore
+ * @see TwoPhaseCommitBookStore
+ */
+public class PartitionedBookStoreProxy implements BookStore {
+
+	/** The partitions. */
+	private final List<TwoPhaseCommitBookStore> partitions;
+
+	/** The router of the requests. */
+	private final PartitionRouter router;
+
+	/**
+	 * Initializes a new {@link PartitionedBookStoreProxy} over the HTTP
+	 * servers of the partitions.
+	 *
+	 * @param serverAddresses
+	 *            the server addresses, in partition order
+	 * @throws Exception
+	 *             the exception
+	 */
+	public PartitionedBookStoreProxy(String... serverAddresses) throws Exception {
+		this(newHTTPProxies(serverAddresses));
+	}
+
+	/**
+	 * Initializes a new {@link PartitionedBookStoreProxy} over the partitions.
+	 *
+	 * @param partitions
+	 *            the partitions, in partition order
+	 */
+	public PartitionedBookStoreProxy(List<? extends TwoPhaseCommitBookStore> partitions) {
+		this.partitions = new ArrayList<>(partitions);
+		router = new PartitionRouter(partitions.size());
+	}
+
+	private static List<TwoPhaseCommitBookStore> newHTTPProxies(String... serverAddresses) throws Exception {
+		List<TwoPhaseCommitBookStore> proxies = new ArrayList<>();
+
+		for (String serverAddress : serverAddresses) {
+			proxies.add(new BookStoreHTTPProxy(serverAddress));
+		}
+
+		return proxies;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Set<BookCopy>> parts = router.split(bookCopiesToBuy, BookCopy::getISBN);
+
+		if (parts.isEmpty()) {
+			return;
+		}
+
+		if (parts.size() == 1) {
+			partitions.get(parts.firstKey()).buyBooks(bookCopiesToBuy);
+			return;
+		}
+
+		// The id only has to be unique among the purchases in progress.
+		long transactionId = ThreadLocalRandom.current().nextLong();
+
+		// Phase one: every partition buys its copies and keeps them aside, or
+		// votes to abort.
+		PartitionRouter.Outcomes<Void> prepared = router.callAll(parts.keySet(), partition -> {
+			partitions.get(partition).prepareBuyBooks(transactionId, parts.get(partition));
+			return null;
+		});
+
+		// Phase two.
+		if (!prepared.hasFailures()) {
+			router.callAllOrThrow(parts.keySet(), partition -> {
+				partitions.get(partition).commitBuyBooks(transactionId);
+				return null;
+			});
+		} else {
+			// A partition whose prepare failed may still have prepared it, if
+			// only its answer was lost, so every partition is told to abort.
+			abort(transactionId, parts.keySet());
+			prepared.throwFirstFailure();
+		}
+	}
+
+	/**
+	 * Aborts a purchase on the partitions that may have prepared it. A
+	 * partition that keeps the copies of an aborted purchase would never sell
+	 * them, so the abort, which does nothing the second time or for a purchase
+	 * that was not prepared, is sent again to the partitions that failed it.
+	 *
+	 * @param transactionId
+	 *            the id of the purchase
+	 * @param preparedPartitions
+	 *            the partitions that may have prepared the purchase
+	 * @throws BookStoreException
+	 *             if some partitions failed every attempt
+	 */
+	private void abort(long transactionId, Set<Integer> preparedPartitions) throws BookStoreException {
+		SortedSet<Integer> pending = new TreeSet<>(preparedPartitions);
+
+		for (int attempt = 1; !pending.isEmpty(); attempt++) {
+			PartitionRouter.Outcomes<Void> aborted = router.callAll(pending, partition -> {
+				partitions.get(partition).abortBuyBooks(transactionId);
+				return null;
+			});
+			pending.removeAll(aborted.getResults().keySet());
+
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			String failure = "The purchase " + transactionId + " could not be aborted on the partitions " + pending
+					+ ", their copies stay reserved";
+
+			if (attempt == BookStoreConstants.ABORT_ATTEMPTS) {
+				try {
+					aborted.throwFirstFailure();
+				} catch (BookStoreException ex) {
+					throw new BookStoreException(failure, ex);
+				}
+			}
+
+			try {
+				Thread.sleep(BookStoreConstants.ABORT_RETRY_MILLIS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException(failure, ex);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Set<Integer>> parts = router.split(isbnSet, isbn -> isbn);
+		return PartitionRouter.merge(router.callAllOrThrow(parts.keySet(),
+				partition -> partitions.get(partition).getBooks(parts.get(partition))));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Drawing numBooks picks uniformly among those of all the partitions
+		// takes from every partition a share that follows the multivariate
+		// hypergeometric distribution of their counts, and every partition
+		// draws its share uniformly among its own picks.
+		SortedMap<Integer, Integer> counts = router.callAllOrThrow(router.allPartitions(),
+				partition -> partitions.get(partition).getNumEditorPicks());
+		SortedMap<Integer, Integer> shares = drawShares(counts, numBooks, ThreadLocalRandom.current());
+		List<Book> picks = PartitionRouter.merge(router.callAllOrThrow(shares.keySet(),
+				partition -> partitions.get(partition).getEditorPicks(shares.get(partition))));
+
+		// The picks come in partition order.
+		Collections.shuffle(picks, ThreadLocalRandom.current());
+		return picks;
+	}
+
+	/**
+	 * Draws how many picks every partition gives, as if the picks were drawn
+	 * one by one, without replacement, among the picks of all the partitions.
+	 *
+	 * @param counts
+	 *            the number of picks, by partition
+	 * @param numBooks
+	 *            the number of picks drawn
+	 * @param random
+	 *            the source of randomness
+	 * @return the number of picks of every partition that gives some, by
+	 *         partition
+	 */
+	private static SortedMap<Integer, Integer> drawShares(SortedMap<Integer, Integer> counts, int numBooks,
+			Random random) {
+		SortedMap<Integer, Integer> remaining = new TreeMap<>(counts);
+		SortedMap<Integer, Integer> shares = new TreeMap<>();
+		int total = 0;
+
+		for (int count : counts.values()) {
+			total += count;
+		}
+
+		for (int drawn = 0; drawn < numBooks && total > 0; drawn++, total--) {
+			int pick = random.nextInt(total);
+
+			for (Map.Entry<Integer, Integer> partition : remaining.entrySet()) {
+				if (pick < partition.getValue()) {
+					partition.setValue(partition.getValue() - 1);
+					shares.merge(partition.getKey(), 1, Integer::sum);
+					break;
+				}
+
+				pick -= partition.getValue();
+			}
+		}
+
+		return shares;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/**
+	 * Stops the proxy, and the HTTP proxies of the partitions.
+	 */
+	public void stop() {
+		for (TwoPhaseCommitBookStore partition : partitions) {
+			if (partition instanceof BookStoreHTTPProxy) {
+				((BookStoreHTTPProxy) partition).stop();
+			}
+		}
+
+		router.shutdown();
+	}
+}
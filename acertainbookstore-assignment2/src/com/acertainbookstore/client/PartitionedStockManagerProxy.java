@@ -0,0 +1,268 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link PartitionedStockManagerProxy} implements the {@link StockManager}
+ * API over a catalog hash partitioned by ISBN across several bookstores, see
+ * {@link PartitionedBookStoreProxy}.
+ *
+ * The requests are split by partition and the parts are sent in parallel. A
+ * change within one partition is sent as is. Before a change spanning several
+ * partitions, the proxy checks that its books are in stock on every
+ * partition, so that a request with an unknown or invalid book changes
+ * nothing. If a partition refuses its part of addBooks, the books added on
+ * the other partitions are removed again. Unlike purchases, these changes are
+ * not isolated from concurrent changes to the same books.
+ *
+ * @see StockManager
+ */
+public class PartitionedStockManagerProxy implements StockManager {
+
+	/** The partitions. */
+	private final List<StockManager> partitions;
+
+	/** The router of the requests. */
+	private final PartitionRouter router;
+
+	/**
+	 * Initializes a new {@link PartitionedStockManagerProxy} over the HTTP
+	 * servers of the partitions.
+	 *
+	 * @param serverAddresses
+	 *            the stock manager addresses of the servers, in partition
+	 *            order
+	 * @throws Exception
+	 *             the exception
+	 */
+	public PartitionedStockManagerProxy(String... serverAddresses) throws Exception {
+		this(newHTTPProxies(serverAddresses));
+	}
+
+	/**
+	 * Initializes a new {@link PartitionedStockManagerProxy} over the
+	 * partitions.
+	 *
+	 * @param partitions
+	 *            the partitions, in partition order
+	 */
+	public PartitionedStockManagerProxy(List<? extends StockManager> partitions) {
+		this.partitions = new ArrayList<>(partitions);
+		router = new PartitionRouter(partitions.size());
+	}
+
+	private static List<StockManager> newHTTPProxies(String... serverAddresses) throws Exception {
+		List<StockManager> proxies = new ArrayList<>();
+
+		for (String serverAddress : serverAddresses) {
+			proxies.add(new StockManagerHTTPProxy(serverAddress));
+		}
+
+		return proxies;
+	}
+
+	private static <T> Set<Integer> isbnsOf(Set<T> items, ToIntFunction<T> isbnOf) {
+		Set<Integer> isbns = new HashSet<>();
+
+		for (T item : items) {
+			isbns.add(isbnOf.applyAsInt(item));
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Checks that the books are in stock on their partitions, when they span
+	 * several partitions.
+	 *
+	 * @param parts
+	 *            the items naming the books, by partition
+	 * @param isbnOf
+	 *            the ISBN of an item
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock
+	 */
+	private <T> void validateInStock(SortedMap<Integer, Set<T>> parts, ToIntFunction<T> isbnOf)
+			throws BookStoreException {
+		if (parts.size() > 1) {
+			router.callAllOrThrow(parts.keySet(),
+					partition -> partitions.get(partition).getBooksByISBN(isbnsOf(parts.get(partition), isbnOf)));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Set<StockBook>> parts = router.split(bookSet, StockBook::getISBN);
+		PartitionRouter.Outcomes<Void> added = router.callAll(parts.keySet(), partition -> {
+			partitions.get(partition).addBooks(parts.get(partition));
+			return null;
+		});
+
+		if (added.hasFailures()) {
+			// Take the books out again from the partitions that added them.
+			router.callAll(added.getResults().keySet(), partition -> {
+				partitions.get(partition).removeBooks(isbnsOf(parts.get(partition), StockBook::getISBN));
+				return null;
+			});
+			added.throwFirstFailure();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Set<BookCopy>> parts = router.split(bookCopiesSet, BookCopy::getISBN);
+
+		if (parts.size() > 1) {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				if (BookStoreUtility.isInvalidNoCopies(bookCopy.getNumCopies())) {
+					throw new BookStoreException(
+							BookStoreConstants.NUM_COPIES + bookCopy.getNumCopies() + BookStoreConstants.INVALID);
+				}
+			}
+
+			validateInStock(parts, BookCopy::getISBN);
+		}
+
+		router.callAllOrThrow(parts.keySet(), partition -> {
+			partitions.get(partition).addCopies(parts.get(partition));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return PartitionRouter.merge(
+				router.callAllOrThrow(router.allPartitions(), partition -> partitions.get(partition).getBooks()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Set<BookEditorPick>> parts = router.split(editorPicks, BookEditorPick::getISBN);
+		validateInStock(parts, BookEditorPick::getISBN);
+		router.callAllOrThrow(parts.keySet(), partition -> {
+			partitions.get(partition).updateEditorPicks(parts.get(partition));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Set<Integer>> parts = router.split(isbnSet, isbn -> isbn);
+		return PartitionRouter.merge(router.callAllOrThrow(parts.keySet(),
+				partition -> partitions.get(partition).getBooksByISBN(parts.get(partition))));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		List<StockBook> booksInDemand = PartitionRouter.merge(router.callAllOrThrow(router.allPartitions(),
+				partition -> partitions.get(partition).getBooksInDemand()));
+
+		// Every partition lists its books by ISBN, so does a single bookstore.
+		booksInDemand.sort(Comparator.comparingInt(StockBook::getISBN));
+		return booksInDemand;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		router.callAllOrThrow(router.allPartitions(), partition -> {
+			partitions.get(partition).removeAllBooks();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		SortedMap<Integer, Set<Integer>> parts = router.split(isbnSet, isbn -> isbn);
+		validateInStock(parts, isbn -> isbn);
+		router.callAllOrThrow(parts.keySet(), partition -> {
+			partitions.get(partition).removeBooks(parts.get(partition));
+			return null;
+		});
+	}
+
+	/**
+	 * Stops the proxy, and the HTTP proxies of the partitions.
+	 */
+	public void stop() {
+		for (StockManager partition : partitions) {
+			if (partition instanceof StockManagerHTTPProxy) {
+				((StockManagerHTTPProxy) partition).stop();
+			}
+		}
+
+		router.shutdown();
+	}
+}
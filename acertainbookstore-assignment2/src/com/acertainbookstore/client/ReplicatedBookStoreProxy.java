@@ -0,0 +1,157 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicatedBookStoreProxy} implements the {@link BookStore} API over
+ * a primary {@link com.acertainbookstore.server.BookStoreHTTPServer} and its
+ * replicas. The writes go to the primary, and the reads to the replicas in
+ * turn, so that adding replicas scales the reads.
+ *
+ * A replica may be behind the primary. A read the replica fails, because it
+ * is down or does not know a book yet, is sent again to the primary, but a
+ * read it serves may miss the latest writes.
+ *
+ * @see BookStore
+ */
+public class ReplicatedBookStoreProxy implements BookStore {
+
+	/** The primary. */
+	private final BookStoreHTTPProxy primary;
+
+	/** The replicas. */
+	private final List<BookStoreHTTPProxy> replicas = new ArrayList<>();
+
+	/** The count of the reads, to send them to the replicas in turn. */
+	private final AtomicInteger reads = new AtomicInteger();
+
+	/**
+	 * {@link Read} is a read from a bookstore.
+	 *
+	 * @param <R>
+	 *            the result type
+	 */
+	@FunctionalInterface
+	private interface Read<R> {
+
+		/**
+		 * Reads from the bookstore.
+		 *
+		 * @param bookStore
+		 *            the bookstore
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R apply(BookStore bookStore) throws BookStoreException;
+	}
+
+	/**
+	 * Initializes a new {@link ReplicatedBookStoreProxy}.
+	 *
+	 * @param primaryAddress
+	 *            the address of the primary server
+	 * @param replicaAddresses
+	 *            the addresses of the replica servers
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ReplicatedBookStoreProxy(String primaryAddress, String... replicaAddresses) throws Exception {
+		primary = new BookStoreHTTPProxy(primaryAddress);
+
+		for (String replicaAddress : replicaAddresses) {
+			replicas.add(new BookStoreHTTPProxy(replicaAddress));
+		}
+	}
+
+	/**
+	 * Reads from the next replica, or from the primary if the replica fails
+	 * or there is none.
+	 *
+	 * @param read
+	 *            the read
+	 * @return the result
+	 * @throws BookStoreException
+	 *             the exception of the primary
+	 */
+	private <R> R read(Read<R> read) throws BookStoreException {
+		if (!replicas.isEmpty()) {
+			BookStoreHTTPProxy replica = replicas.get(Math.floorMod(reads.getAndIncrement(), replicas.size()));
+
+			try {
+				return read.apply(replica);
+			} catch (BookStoreException ex) {
+				// The replica may be behind, ask the primary.
+			}
+		}
+
+		return read.apply(primary);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		primary.buyBooks(bookCopiesToBuy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return read(bookStore -> bookStore.getBooks(isbnSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return read(bookStore -> bookStore.getEditorPicks(numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		primary.rateBooks(bookRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return read(bookStore -> bookStore.getTopRatedBooks(numBooks));
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		primary.stop();
+
+		for (BookStoreHTTPProxy replica : replicas) {
+			replica.stop();
+		}
+	}
+}
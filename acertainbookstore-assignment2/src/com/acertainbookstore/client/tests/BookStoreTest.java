@@ -4,6 +4,8 @@ import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 
 import com.acertainbookstore.business.*;
@@ -14,9 +16,13 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.PartitionedBookStoreProxy;
+import com.acertainbookstore.client.PartitionedStockManagerProxy;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -39,6 +45,27 @@ public class BookStoreTest {
 	/** Single lock test */
 	private static boolean singleLock = false;
 
+	/** Lock-free test */
+	private static boolean lockFree = false;
+
+	/** Multi-version test */
+	private static boolean multiVersion = false;
+
+	/** Stamped lock test */
+	private static boolean stampedLock = false;
+
+	/** Columnar test */
+	private static boolean columnar = false;
+
+	/** Flat combining test */
+	private static boolean flatCombining = false;
+
+	/** The number of partitions */
+	private static int partitions = 1;
+
+	/** Ordered locking test */
+	private static boolean orderedLocking = false;
+
 	
 	/** The store manager. */
 	private static StockManager storeManager;
@@ -58,19 +85,97 @@ public class BookStoreTest {
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
-			if (localTest) {
-				if (singleLock) {
+			String lockFreeProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_FREE);
+			lockFree = (lockFreeProperty != null) ? Boolean.parseBoolean(lockFreeProperty) : lockFree;
+
+			String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+			multiVersion = (multiVersionProperty != null) ? Boolean.parseBoolean(multiVersionProperty) : multiVersion;
+
+			String stampedLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_STAMPED_LOCK);
+			stampedLock = (stampedLockProperty != null) ? Boolean.parseBoolean(stampedLockProperty) : stampedLock;
+
+			String columnarProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+			columnar = (columnarProperty != null) ? Boolean.parseBoolean(columnarProperty) : columnar;
+
+			String flatCombiningProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_FLAT_COMBINING);
+			flatCombining = (flatCombiningProperty != null) ? Boolean.parseBoolean(flatCombiningProperty)
+					: flatCombining;
+
+			String partitionsProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_PARTITIONS);
+			partitions = (partitionsProperty != null) ? Integer.parseInt(partitionsProperty) : partitions;
+
+			String orderedLockingProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_ORDERED_LOCKING);
+			orderedLocking = (orderedLockingProperty != null) ? Boolean.parseBoolean(orderedLockingProperty)
+					: orderedLocking;
+
+			if (partitions > 1) {
+				List<TwoPhaseCommitBookStore> bookStores = new ArrayList<>();
+				List<StockManager> stockManagers = new ArrayList<>();
+
+				for (int partition = 0; partition < partitions; partition++) {
+					if (localTest) {
+						FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+						bookStores.add(store);
+						stockManagers.add(store);
+					} else {
+						String serverAddress = "http://localhost:" + (8081 + partition);
+						bookStores.add(new BookStoreHTTPProxy(serverAddress));
+						stockManagers.add(new StockManagerHTTPProxy(serverAddress + "/stock"));
+					}
+				}
+
+				storeManager = new PartitionedStockManagerProxy(stockManagers);
+				client = new PartitionedBookStoreProxy(bookStores);
+			} else if (localTest) {
+				if (lockFree) {
+					LockFreeCertainBookStore store = new LockFreeCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (multiVersion) {
+					MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (stampedLock) {
+					StampedLockConcurrentCertainBookStore store = new StampedLockConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (columnar) {
+					String catalogProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_CATALOG);
+					ColumnarCertainBookStore store = (catalogProperty != null)
+							? new ColumnarCertainBookStore(Paths.get(catalogProperty))
+							: new ColumnarCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (flatCombining) {
+					FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
 				} else {
-					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(
+							BookStoreConstants.DEFAULT_NUM_LOCK_STRIPES, orderedLocking);
 					storeManager = store;
 					client = store;
 				}
 			} else {
+				String replicasProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS);
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
-				client = new BookStoreHTTPProxy("http://localhost:8081");
+				client = (replicasProperty != null)
+						? new ReplicatedBookStoreProxy("http://localhost:8081", replicasProperty.split(","))
+						: new BookStoreHTTPProxy("http://localhost:8081");
+			}
+
+			String walProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL);
+
+			if (localTest && partitions == 1 && walProperty != null) {
+				DurableCertainBookStore store = new DurableCertainBookStore(client, storeManager,
+						Paths.get(walProperty), BookStoreConstants.DEFAULT_WAL_BATCH,
+						BookStoreConstants.DEFAULT_WAL_FLUSH_MICROS);
+				storeManager = store;
+				client = store;
 			}
 
 			storeManager.removeAllBooks();
@@ -246,6 +351,41 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that no copies are bought when one of several books is short of
+	 * copies, and that the sale misses of that book are recorded.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBuyTooManyOfOneOfManyBooks() throws BookStoreException {
+		// Enough books to span several partitions, if any.
+		HashSet<BookCopy> booksToBuy = new HashSet<BookCopy>();
+
+		for (int i = 1; i <= 8; i++) {
+			addBooks(TEST_ISBN + i, NUM_COPIES);
+			booksToBuy.add(new BookCopy(TEST_ISBN + i, 1));
+		}
+
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInStorePostTest = storeManager.getBooks();
+		assertTrue(booksInStorePostTest.size() == 9);
+
+		for (StockBook book : booksInStorePostTest) {
+			assertTrue(book.getNumCopies() == NUM_COPIES);
+			assertTrue(book.getNumSaleMisses() == ((book.getISBN() == TEST_ISBN) ? 1 : 0));
+		}
+	}
+
 	/**
 	 * Tests that you can't buy a negative number of books.
 	 *
@@ -628,7 +768,25 @@ public class BookStoreTest {
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
 
-		if (!localTest) {
+		if (partitions > 1) {
+			((PartitionedBookStoreProxy) client).stop();
+			((PartitionedStockManagerProxy) storeManager).stop();
+		} else if (client instanceof ReplicatedBookStoreProxy) {
+			((ReplicatedBookStoreProxy) client).stop();
+			((StockManagerHTTPProxy) storeManager).stop();
+		} else if (storeManager instanceof DurableCertainBookStore) {
+			try {
+				((DurableCertainBookStore) storeManager).close();
+			} catch (IOException ex) {
+				throw new BookStoreException(ex);
+			}
+		} else if (storeManager instanceof ColumnarCertainBookStore) {
+			try {
+				((ColumnarCertainBookStore) storeManager).close();
+			} catch (IOException ex) {
+				throw new BookStoreException(ex);
+			}
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) client).stop();
 			((StockManagerHTTPProxy) storeManager).stop();
 		}
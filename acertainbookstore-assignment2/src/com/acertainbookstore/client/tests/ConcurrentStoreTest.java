@@ -0,0 +1,591 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
+import com.acertainbookstore.business.FlatCombiningConcurrentCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.LockFreeCertainBookStore;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.client.PartitionedBookStoreProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ConcurrentStoreTest} tests the concurrency of the store engines. The
+ * engines are instantiated directly, so the tests run whatever properties
+ * the other tests are run with.
+ */
+public class ConcurrentStoreTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The number of writes committed while a snapshot is held. */
+	private static final int NUM_WRITES = 10000;
+
+	/** The number of operations of the main thread of a contended test. */
+	private static final int NUM_OPERATIONS = 50000;
+
+	/** The number of other threads of a contended test. */
+	private static final int NUM_THREADS = 2;
+
+	/** The number of books of the orders of a contended test. */
+	private static final int NUM_ORDERED_BOOKS = 10;
+
+	/** The threads of a test. */
+	private ExecutorService executor;
+
+	/**
+	 * {@link PausingSet} is a set of ISBNs whose iteration pauses before its
+	 * last ISBN, so that a reader iterating it holds its snapshot until the
+	 * pause is released.
+	 */
+	private static final class PausingSet extends AbstractSet<Integer> {
+
+		/** The ISBNs. */
+		private final List<Integer> isbns;
+
+		/** Counted down when the iteration reaches the pause. */
+		private final CountDownLatch paused = new CountDownLatch(1);
+
+		/** Awaited by the iteration at the pause. */
+		private final CountDownLatch resumed = new CountDownLatch(1);
+
+		private PausingSet(Integer... isbns) {
+			this.isbns = Arrays.asList(isbns);
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			Iterator<Integer> iterator = isbns.iterator();
+
+			return new Iterator<Integer>() {
+				private int position = 0;
+
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Integer next() {
+					if (++position == isbns.size()) {
+						paused.countDown();
+
+						try {
+							resumed.await();
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+					}
+
+					return iterator.next();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return isbns.size();
+		}
+	}
+
+	/**
+	 * Starts the threads before every test case is run.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Stops the threads after every test case is run.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Helper method to get a book with copies.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @param copies
+	 *            the copies
+	 * @return the book
+	 */
+	private static StockBook newBook(int isbn, int copies) {
+		return new ImmutableStockBook(isbn, "Test of Thrones", "George RR Testin'", (float) 10, copies, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Helper method to get an ISBN of a partition.
+	 *
+	 * @param partition
+	 *            the partition
+	 * @param numPartitions
+	 *            the number of partitions
+	 * @return the first ISBN from TEST_ISBN in the partition
+	 */
+	private static int isbnOfPartition(int partition, int numPartitions) {
+		int isbn = TEST_ISBN;
+
+		while (BookStoreUtility.partitionOf(isbn, numPartitions) != partition) {
+			isbn++;
+		}
+
+		return isbn;
+	}
+
+	/**
+	 * Checks that an order that cannot be bought leaves no trace a concurrent
+	 * buyer can see: one thread buys the only copy of a book and restocks it,
+	 * while other threads keep ordering the book together with other books
+	 * and, last, a book sold out. The first thread must never miss the copy.
+	 *
+	 * @param store
+	 *            the store
+	 * @param stockManager
+	 *            the stock manager of the store
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void assertNoSaleMissFromFailedOrders(BookStore store, StockManager stockManager) throws Exception {
+		int soldOutIsbn = TEST_ISBN + NUM_ORDERED_BOOKS - 1;
+		Set<StockBook> booksToAdd = new HashSet<>();
+		Set<BookCopy> failingOrder = new LinkedHashSet<>();
+
+		for (int isbn = TEST_ISBN; isbn <= soldOutIsbn; isbn++) {
+			booksToAdd.add(newBook(isbn, (isbn == TEST_ISBN || isbn == soldOutIsbn) ? 1 : NUM_COPIES));
+			failingOrder.add(new BookCopy(isbn, 1));
+		}
+
+		stockManager.addBooks(booksToAdd);
+		store.buyBooks(Collections.singleton(new BookCopy(soldOutIsbn, 1)));
+
+		CountDownLatch started = new CountDownLatch(NUM_THREADS);
+		AtomicBoolean done = new AtomicBoolean(false);
+		List<Future<Integer>> failingBuyers = new ArrayList<>();
+
+		for (int thread = 0; thread < NUM_THREADS; thread++) {
+			failingBuyers.add(executor.submit(() -> {
+				int bought = 0;
+				started.countDown();
+
+				while (!done.get()) {
+					try {
+						store.buyBooks(failingOrder);
+						bought++;
+					} catch (BookStoreException ex) {
+						;
+					}
+				}
+
+				return bought;
+			}));
+		}
+
+		started.await();
+		Set<BookCopy> oneCopy = Collections.singleton(new BookCopy(TEST_ISBN, 1));
+
+		try {
+			for (int i = 0; i < NUM_OPERATIONS; i++) {
+				store.buyBooks(oneCopy);
+				stockManager.addCopies(oneCopy);
+			}
+		} finally {
+			done.set(true);
+		}
+
+		for (Future<Integer> failingBuyer : failingBuyers) {
+			assertEquals(0, (int) failingBuyer.get());
+		}
+
+		for (StockBook book : stockManager.getBooks()) {
+			assertEquals((book.getISBN() == TEST_ISBN) ? 1 : (book.getISBN() == soldOutIsbn) ? 0 : NUM_COPIES,
+					book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Checks that a reader sees every write whole: a thread keeps buying a
+	 * copy of two books at once and adding it back at once, while the reader
+	 * keeps reading both books, which must always have as many copies.
+	 *
+	 * @param store
+	 *            the store
+	 * @param stockManager
+	 *            the stock manager of the store
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void assertReadsSeeWholeWrites(BookStore store, StockManager stockManager) throws Exception {
+		stockManager.addBooks(
+				new HashSet<>(Arrays.asList(newBook(TEST_ISBN, NUM_COPIES), newBook(TEST_ISBN + 1, NUM_COPIES))));
+
+		Set<BookCopy> copies = new HashSet<>();
+		copies.add(new BookCopy(TEST_ISBN, 1));
+		copies.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		AtomicBoolean done = new AtomicBoolean(false);
+		Future<?> writer = executor.submit(() -> {
+			while (!done.get()) {
+				store.buyBooks(copies);
+				stockManager.addCopies(copies);
+			}
+
+			return null;
+		});
+
+		Set<Integer> isbnSet = new HashSet<>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1));
+
+		try {
+			for (int i = 0; i < NUM_OPERATIONS; i++) {
+				List<StockBook> books = stockManager.getBooksByISBN(isbnSet);
+				assertEquals(2, books.size());
+				assertEquals(books.get(0).getNumCopies(), books.get(1).getNumCopies());
+			}
+		} finally {
+			done.set(true);
+		}
+
+		writer.get();
+	}
+
+	/**
+	 * Checks that a purchase of several books is atomic under contention:
+	 * threads keep buying a copy of every book in one order until it fails,
+	 * so the books are sold out together, and every thread records one sale
+	 * miss per book when it fails.
+	 *
+	 * @param store
+	 *            the store
+	 * @param stockManager
+	 *            the stock manager of the store
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void assertMultiBookBuysAreAtomic(BookStore store, StockManager stockManager) throws Exception {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		Set<BookCopy> order = new HashSet<>();
+
+		for (int isbn = TEST_ISBN; isbn < TEST_ISBN + NUM_ORDERED_BOOKS; isbn++) {
+			booksToAdd.add(newBook(isbn, NUM_WRITES));
+			order.add(new BookCopy(isbn, 1));
+		}
+
+		stockManager.addBooks(booksToAdd);
+
+		CountDownLatch started = new CountDownLatch(NUM_THREADS);
+		List<Future<Integer>> buyers = new ArrayList<>();
+
+		for (int thread = 0; thread < NUM_THREADS; thread++) {
+			buyers.add(executor.submit(() -> {
+				int bought = 0;
+				started.countDown();
+				started.await();
+
+				try {
+					while (true) {
+						store.buyBooks(order);
+						bought++;
+					}
+				} catch (BookStoreException ex) {
+					return bought;
+				}
+			}));
+		}
+
+		int bought = 0;
+
+		for (Future<Integer> buyer : buyers) {
+			bought += buyer.get();
+		}
+
+		assertEquals(NUM_WRITES, bought);
+
+		for (StockBook book : stockManager.getBooks()) {
+			assertEquals(0, book.getNumCopies());
+			assertEquals(NUM_THREADS, book.getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Checks that every buyer gets its own outcome when purchases contend on
+	 * one book: threads together try to buy a copy more times than there are
+	 * copies, so that the last purchases fail. Every copy is bought once, and
+	 * every failed purchase recorded exactly one sale miss.
+	 *
+	 * @param store
+	 *            the store
+	 * @param stockManager
+	 *            the stock manager of the store
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void assertEveryBuyerGetsItsOutcome(BookStore store, StockManager stockManager) throws Exception {
+		stockManager.addBooks(Collections.singleton(newBook(TEST_ISBN, NUM_WRITES)));
+
+		Set<BookCopy> oneCopy = Collections.singleton(new BookCopy(TEST_ISBN, 1));
+		CountDownLatch started = new CountDownLatch(NUM_THREADS);
+		List<Future<Integer>> buyers = new ArrayList<>();
+
+		for (int thread = 0; thread < NUM_THREADS; thread++) {
+			buyers.add(executor.submit(() -> {
+				int failed = 0;
+				started.countDown();
+				started.await();
+
+				for (int i = 0; i < NUM_WRITES; i++) {
+					try {
+						store.buyBooks(oneCopy);
+					} catch (BookStoreException ex) {
+						failed++;
+					}
+				}
+
+				return failed;
+			}));
+		}
+
+		int failed = 0;
+
+		for (Future<Integer> buyer : buyers) {
+			failed += buyer.get();
+		}
+
+		StockBook book = stockManager.getBooksByISBN(Collections.singleton(TEST_ISBN)).get(0);
+		assertEquals((NUM_THREADS - 1) * NUM_WRITES, failed);
+		assertEquals(0, book.getNumCopies());
+		assertEquals(failed, book.getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that the lock-free store never records a sale miss for copies
+	 * held by an order that is given back.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testLockFreeFailedOrdersAreIsolated() throws Exception {
+		LockFreeCertainBookStore store = new LockFreeCertainBookStore();
+		assertNoSaleMissFromFailedOrders(store, store);
+
+		// The failing orders recorded their sale misses.
+		int soldOutIsbn = TEST_ISBN + NUM_ORDERED_BOOKS - 1;
+		assertTrue(store.getBooksInDemand().stream().anyMatch(book -> book.getISBN() == soldOutIsbn));
+	}
+
+	/**
+	 * Tests that a reader of the multi-version store holding its snapshot
+	 * across many writes keeps reading the books as of the snapshot, and
+	 * that the writes do not slow down while it is held.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = 30000)
+	public void testMultiVersionSnapshotHeldAcrossWrites() throws Exception {
+		MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+		store.addBooks(
+				new HashSet<>(Arrays.asList(newBook(TEST_ISBN, NUM_WRITES), newBook(TEST_ISBN + 1, NUM_WRITES))));
+
+		PausingSet isbns = new PausingSet(TEST_ISBN, TEST_ISBN + 1);
+		Future<List<StockBook>> reader = executor.submit(() -> store.getBooksByISBN(isbns));
+		isbns.paused.await();
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		for (int i = 0; i < NUM_WRITES; i++) {
+			store.buyBooks(booksToBuy);
+		}
+
+		isbns.resumed.countDown();
+
+		for (StockBook book : reader.get()) {
+			assertEquals(NUM_WRITES, book.getNumCopies());
+		}
+
+		// The versions held back by the snapshot are reclaimed by the next
+		// writes, which see the books sold out.
+		for (StockBook book : store.getBooksByISBN(new HashSet<>(Arrays.asList(TEST_ISBN, TEST_ISBN + 1)))) {
+			assertEquals(0, book.getNumCopies());
+		}
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(2, store.getBooksInDemand().size());
+	}
+
+	/**
+	 * Tests that a purchase spanning two partitions is aborted on a partition
+	 * that prepared it but whose answer was lost, so that its copies are not
+	 * kept aside for ever.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testPartitionedAbortAfterLostPrepare() throws BookStoreException {
+		FlatCombiningConcurrentCertainBookStore lostAnswer = new FlatCombiningConcurrentCertainBookStore() {
+			@Override
+			public void prepareBuyBooks(long transactionId, Set<BookCopy> booksToBuy) throws BookStoreException {
+				super.prepareBuyBooks(transactionId, booksToBuy);
+				throw new BookStoreException("The answer was lost");
+			}
+		};
+		FlatCombiningConcurrentCertainBookStore other = new FlatCombiningConcurrentCertainBookStore();
+		int lostIsbn = isbnOfPartition(0, 2);
+		int otherIsbn = isbnOfPartition(1, 2);
+		lostAnswer.addBooks(Collections.singleton(newBook(lostIsbn, NUM_COPIES)));
+		other.addBooks(Collections.singleton(newBook(otherIsbn, NUM_COPIES)));
+
+		PartitionedBookStoreProxy proxy = new PartitionedBookStoreProxy(Arrays.asList(lostAnswer, other));
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(lostIsbn, NUM_COPIES));
+		booksToBuy.add(new BookCopy(otherIsbn, NUM_COPIES));
+
+		try {
+			proxy.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		} finally {
+			proxy.stop();
+		}
+
+		assertEquals(NUM_COPIES, lostAnswer.getBooksByISBN(Collections.singleton(lostIsbn)).get(0).getNumCopies());
+		assertEquals(NUM_COPIES, other.getBooksByISBN(Collections.singleton(otherIsbn)).get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that the two-level locking store reports a null ISBN as invalid
+	 * rather than failing to find its stripe, and takes no lock for it.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testTwoLevelLockingNullIsbn() throws BookStoreException {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(
+				BookStoreConstants.DEFAULT_NUM_LOCK_STRIPES, false);
+		store.addBooks(Collections.singleton(newBook(TEST_ISBN, NUM_COPIES)));
+
+		Set<Integer> isbnSet = new HashSet<>(Arrays.asList(TEST_ISBN, null));
+
+		try {
+			store.getBooks(isbnSet);
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.ISBN + null + BookStoreConstants.INVALID, ex.getMessage());
+		}
+
+		try {
+			store.getBooksByISBN(isbnSet);
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.ISBN + null + BookStoreConstants.INVALID, ex.getMessage());
+		}
+
+		try {
+			store.removeBooks(isbnSet);
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.ISBN + null + BookStoreConstants.INVALID, ex.getMessage());
+		}
+
+		// The book is still there, and no lock was left behind.
+		store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, NUM_COPIES)));
+		assertEquals(0, store.getBooksByISBN(Collections.singleton(TEST_ISBN)).get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that the optimistic reads of the stamped lock store never return
+	 * a write half applied.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStampedLockReadsDuringWrites() throws Exception {
+		StampedLockConcurrentCertainBookStore store = new StampedLockConcurrentCertainBookStore();
+		assertReadsSeeWholeWrites(store, store);
+	}
+
+	/**
+	 * Tests that the columnar store buys several books atomically under
+	 * contention, isolates the orders that fail, and is read whole during
+	 * writes.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testColumnarConcurrentBuys() throws Exception {
+		ColumnarCertainBookStore store = new ColumnarCertainBookStore();
+		assertMultiBookBuysAreAtomic(store, store);
+
+		store.removeAllBooks();
+		assertNoSaleMissFromFailedOrders(store, store);
+
+		store.removeAllBooks();
+		assertReadsSeeWholeWrites(store, store);
+	}
+
+	/**
+	 * Tests that the flat-combining store hands every combined purchase its
+	 * own result, its sale misses included, and buys several books
+	 * atomically under contention.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFlatCombiningConcurrentBuys() throws Exception {
+		FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+		assertEveryBuyerGetsItsOutcome(store, store);
+
+		store.removeAllBooks();
+		assertMultiBookBuysAreAtomic(store, store);
+	}
+}
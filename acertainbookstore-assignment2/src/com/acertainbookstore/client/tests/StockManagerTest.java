@@ -2,7 +2,14 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -16,15 +23,26 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.FlatCombiningConcurrentCertainBookStore;
+import com.acertainbookstore.business.LockFreeCertainBookStore;
+import com.acertainbookstore.business.MultiVersionConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.ImmutableBook;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.PartitionedBookStoreProxy;
+import com.acertainbookstore.client.PartitionedStockManagerProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
 
 /**
  * {@StockManagerTest} tests the {@link StockManager} interface.
@@ -42,6 +60,24 @@ public class StockManagerTest {
 	/** The local test. */
 	private static boolean localTest = true;
 
+	/** Lock-free test */
+	private static boolean lockFree = false;
+
+	/** Multi-version test */
+	private static boolean multiVersion = false;
+
+	/** Stamped lock test */
+	private static boolean stampedLock = false;
+
+	/** Columnar test */
+	private static boolean columnar = false;
+
+	/** Flat combining test */
+	private static boolean flatCombining = false;
+
+	/** The number of partitions */
+	private static int partitions = 1;
+
 	/** The store manager. */
 	private static StockManager storeManager;
 
@@ -56,8 +92,68 @@ public class StockManagerTest {
 		try {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
-			
-			if (localTest) {
+
+			String lockFreeProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_FREE);
+			lockFree = (lockFreeProperty != null) ? Boolean.parseBoolean(lockFreeProperty) : lockFree;
+
+			String multiVersionProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MULTI_VERSION);
+			multiVersion = (multiVersionProperty != null) ? Boolean.parseBoolean(multiVersionProperty) : multiVersion;
+
+			String stampedLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_STAMPED_LOCK);
+			stampedLock = (stampedLockProperty != null) ? Boolean.parseBoolean(stampedLockProperty) : stampedLock;
+
+			String columnarProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_COLUMNAR);
+			columnar = (columnarProperty != null) ? Boolean.parseBoolean(columnarProperty) : columnar;
+
+			String flatCombiningProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_FLAT_COMBINING);
+			flatCombining = (flatCombiningProperty != null) ? Boolean.parseBoolean(flatCombiningProperty)
+					: flatCombining;
+
+			String partitionsProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_PARTITIONS);
+			partitions = (partitionsProperty != null) ? Integer.parseInt(partitionsProperty) : partitions;
+
+			if (partitions > 1) {
+				List<TwoPhaseCommitBookStore> bookStores = new ArrayList<>();
+				List<StockManager> stockManagers = new ArrayList<>();
+
+				for (int partition = 0; partition < partitions; partition++) {
+					if (localTest) {
+						FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+						bookStores.add(store);
+						stockManagers.add(store);
+					} else {
+						String serverAddress = "http://localhost:" + (8081 + partition);
+						bookStores.add(new BookStoreHTTPProxy(serverAddress));
+						stockManagers.add(new StockManagerHTTPProxy(serverAddress + "/stock"));
+					}
+				}
+
+				storeManager = new PartitionedStockManagerProxy(stockManagers);
+				client = new PartitionedBookStoreProxy(bookStores);
+			} else if (localTest && lockFree) {
+				LockFreeCertainBookStore store = new LockFreeCertainBookStore();
+				storeManager = store;
+				client = store;
+			} else if (localTest && multiVersion) {
+				MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+				storeManager = store;
+				client = store;
+			} else if (localTest && stampedLock) {
+				StampedLockConcurrentCertainBookStore store = new StampedLockConcurrentCertainBookStore();
+				storeManager = store;
+				client = store;
+			} else if (localTest && columnar) {
+				String catalogProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_CATALOG);
+				ColumnarCertainBookStore store = (catalogProperty != null)
+						? new ColumnarCertainBookStore(Paths.get(catalogProperty))
+						: new ColumnarCertainBookStore();
+				storeManager = store;
+				client = store;
+			} else if (localTest && flatCombining) {
+				FlatCombiningConcurrentCertainBookStore store = new FlatCombiningConcurrentCertainBookStore();
+				storeManager = store;
+				client = store;
+			} else if (localTest) {
 				SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 				storeManager = store;
 				client = store;
@@ -65,6 +161,16 @@ public class StockManagerTest {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
 			}
+
+			String walProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL);
+
+			if (localTest && partitions == 1 && walProperty != null) {
+				DurableCertainBookStore store = new DurableCertainBookStore(client, storeManager,
+						Paths.get(walProperty), BookStoreConstants.DEFAULT_WAL_BATCH,
+						BookStoreConstants.DEFAULT_WAL_FLUSH_MICROS);
+				storeManager = store;
+				client = store;
+			}
 			
 			storeManager.removeAllBooks();
 		} catch (Exception e) {
@@ -475,6 +581,270 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that getBooksInDemand lists the books with sale misses until they
+	 * are restocked.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemand() throws BookStoreException {
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+
+		// Buying two copies more than there are is a miss of two copies.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 2));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertTrue(booksInDemand.get(0).getISBN() == TEST_ISBN);
+		assertEquals(2, booksInDemand.get(0).getNumSaleMisses());
+
+		// Restocking clears the sale misses.
+		Set<BookCopy> booksToAdd = new HashSet<BookCopy>();
+		booksToAdd.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(booksToAdd);
+
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+	}
+
+	/**
+	 * Tests that a columnar store in catalog mode hands out views of its
+	 * memory-mapped catalog, which stay valid once the books are removed and
+	 * the store is closed, and are serialized as immutable books, and that
+	 * the catalog cannot be opened by a second store.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testColumnarStoreCatalog() throws Exception {
+		Path catalogPath = Files.createTempFile("bookstore", ".catalog");
+
+		try {
+			Book book;
+
+			try (ColumnarCertainBookStore store = new ColumnarCertainBookStore(catalogPath)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "L\u2019\u00c9tranger", "Albert Camus", 9.5f,
+						NUM_COPIES, 0, 0, 0, true));
+				booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "\u96ea\u56fd", "\u5ddd\u7aef\u5eb7\u6210", 12,
+						NUM_COPIES, 0, 0, 0, false));
+				store.addBooks(booksToAdd);
+
+				// A second store cannot take over the catalog, nor empty it.
+				try (ColumnarCertainBookStore other = new ColumnarCertainBookStore(catalogPath)) {
+					fail();
+				} catch (IOException ex) {
+					;
+				}
+
+				book = store.getBooks(Collections.singleton(TEST_ISBN)).get(0);
+				assertEquals(new ImmutableBook(TEST_ISBN, "L\u2019\u00c9tranger", "Albert Camus", 9.5f), book);
+				assertEquals(book, store.getEditorPicks(1).get(0));
+
+				StockBook stockBook = store.getBooksByISBN(Collections.singleton(TEST_ISBN + 1)).get(0);
+				assertEquals("\u96ea\u56fd", stockBook.getTitle());
+				assertEquals("\u5ddd\u7aef\u5eb7\u6210", stockBook.getAuthor());
+				assertTrue(stockBook.getNumCopies() == NUM_COPIES);
+
+				// The book added again is appended again, the view keeps the first record.
+				store.removeBooks(Collections.singleton(TEST_ISBN));
+				store.addBooks(Collections.singleton(new ImmutableStockBook(TEST_ISBN, "The Stranger", "Albert Camus",
+						10, NUM_COPIES, 0, 0, 0, false)));
+				assertEquals("The Stranger", store.getBooks(Collections.singleton(TEST_ISBN)).get(0).getTitle());
+
+				store.removeAllBooks();
+			}
+
+			// The views stay readable once the store is closed.
+			assertEquals("L\u2019\u00c9tranger", book.getTitle());
+
+			BookStoreKryoSerializer serializer = new BookStoreKryoSerializer();
+			Object copy = serializer.deserialize(serializer.serialize(book));
+			assertTrue(copy instanceof ImmutableBook);
+			assertEquals(book, copy);
+		} finally {
+			Files.deleteIfExists(catalogPath);
+		}
+	}
+
+	/**
+	 * Tests that a durable store rebuilds its stock, sale misses and editor
+	 * picks from its log, and cuts off a torn record at the end of the log.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testDurableStoreRecovery() throws Exception {
+		Path logPath = Files.createTempFile("bookstore", ".wal");
+		List<StockBook> booksBeforeRestart;
+
+		try {
+			try (DurableCertainBookStore store = newDurableStore(logPath)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+				for (int i = 0; i < 4; i++) {
+					booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, (float) 10,
+							NUM_COPIES, 0, 0, 0, false));
+				}
+
+				store.addBooks(booksToAdd);
+				store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+				store.updateEditorPicks(Collections.singleton(new BookEditorPick(TEST_ISBN + 1, true)));
+				store.removeBooks(Collections.singleton(TEST_ISBN + 2));
+
+				try {
+					// Fails, but records a sale miss.
+					store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN + 3, NUM_COPIES + 3)));
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				booksBeforeRestart = store.getBooks();
+			}
+
+			// A record torn by a crash in the middle of a flush.
+			Files.write(logPath, new byte[] { 0, 0, 1, 0, 42 }, StandardOpenOption.APPEND);
+
+			try (DurableCertainBookStore store = newDurableStore(logPath)) {
+				assertEquals(describe(booksBeforeRestart), describe(store.getBooks()));
+
+				// The log goes on after the last whole record.
+				store.addCopies(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+			}
+
+			try (DurableCertainBookStore store = newDurableStore(logPath)) {
+				StockBook book = store.getBooksByISBN(Collections.singleton(TEST_ISBN)).get(0);
+				assertTrue(book.getNumCopies() == NUM_COPIES);
+			}
+		} finally {
+			Files.deleteIfExists(logPath);
+		}
+	}
+
+	/**
+	 * Tests that a durable store restarts from its last checkpoint, taken
+	 * while a writer goes on, and the log after it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testDurableStoreCheckpoint() throws Exception {
+		Path logPath = Files.createTempFile("bookstore", ".wal");
+		List<StockBook> booksBeforeRestart;
+
+		try {
+			try (DurableCertainBookStore store = newDurableStore(logPath)) {
+				Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+				for (int i = 0; i < 64; i++) {
+					booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, (float) 10,
+							NUM_COPIES, 0, 0, 0, false));
+				}
+
+				store.addBooks(booksToAdd);
+
+				// Sold out, and a sale miss.
+				store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, NUM_COPIES)));
+
+				try {
+					store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+					fail();
+				} catch (BookStoreException ex) {
+					;
+				}
+
+				store.updateEditorPicks(Collections.singleton(new BookEditorPick(TEST_ISBN + 1, true)));
+
+				Thread writer = new Thread(() -> {
+					for (int i = 0; i < 2000; i++) {
+						int isbn = TEST_ISBN + 2 + i % 32;
+
+						try {
+							store.addCopies(Collections.singleton(new BookCopy(isbn, 1)));
+							store.buyBooks(Collections.singleton(new BookCopy(isbn, 1 + i % 2)));
+						} catch (BookStoreException ex) {
+							// The single-lock store fails a write during the copy of the stock.
+						}
+					}
+				});
+				writer.start();
+
+				while (writer.isAlive()) {
+					store.checkpoint();
+				}
+
+				writer.join();
+				store.removeBooks(Collections.singleton(TEST_ISBN + 63));
+				booksBeforeRestart = store.getBooks();
+			}
+
+			assertTrue(Files.exists(logPath.resolveSibling(logPath.getFileName() + ".snapshot")));
+
+			try (DurableCertainBookStore store = newDurableStore(logPath)) {
+				assertEquals(describe(booksBeforeRestart), describe(store.getBooks()));
+				store.checkpoint();
+			}
+
+			try (DurableCertainBookStore store = newDurableStore(logPath)) {
+				assertEquals(describe(booksBeforeRestart), describe(store.getBooks()));
+			}
+		} finally {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(logPath.getParent(),
+					logPath.getFileName() + "*")) {
+				for (Path file : files) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper method to open a durable store over an empty single-lock store.
+	 *
+	 * @param logPath
+	 *            the path of the log
+	 * @return the durable store
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static DurableCertainBookStore newDurableStore(Path logPath) throws IOException {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		return new DurableCertainBookStore(store, store, logPath, BookStoreConstants.DEFAULT_WAL_BATCH,
+				BookStoreConstants.DEFAULT_WAL_FLUSH_MICROS);
+	}
+
+	/**
+	 * Helper method to describe the stock of the books, in ISBN order.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the description
+	 */
+	private static List<String> describe(List<StockBook> books) {
+		List<String> descriptions = new ArrayList<>();
+
+		for (StockBook book : books) {
+			descriptions.add(book.getISBN() + ": " + book.getNumCopies() + " copies, " + book.getNumSaleMisses()
+					+ " sale misses, editor pick " + book.isEditorPick());
+		}
+
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -485,7 +855,22 @@ public class StockManagerTest {
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
 
-		if (!localTest) {
+		if (partitions > 1) {
+			((PartitionedBookStoreProxy) client).stop();
+			((PartitionedStockManagerProxy) storeManager).stop();
+		} else if (storeManager instanceof DurableCertainBookStore) {
+			try {
+				((DurableCertainBookStore) storeManager).close();
+			} catch (IOException ex) {
+				throw new BookStoreException(ex);
+			}
+		} else if (storeManager instanceof ColumnarCertainBookStore) {
+			try {
+				((ColumnarCertainBookStore) storeManager).close();
+			} catch (IOException ex) {
+				throw new BookStoreException(ex);
+			}
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) client).stop();
 			((StockManagerHTTPProxy) storeManager).stop();
 		}
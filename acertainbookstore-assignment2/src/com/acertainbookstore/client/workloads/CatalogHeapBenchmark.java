@@ -0,0 +1,116 @@
+package com.acertainbookstore.client.workloads;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.ColumnarCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * CatalogHeapBenchmark measures the heap a columnar store takes for a large
+ * catalog with the titles and authors on the heap, and in catalog mode with
+ * them in a memory-mapped file, and how fast each serves the books by ISBN
+ * with their titles read.
+ *
+ * The catalog file is written in the directory given as the first argument,
+ * by default the temporary directory, and the number of books is the second
+ * argument, by default 2,000,000.
+ */
+public class CatalogHeapBenchmark {
+
+    private static final int DEFAULT_NUM_BOOKS = 2_000_000;
+    private static final int BOOKS_PER_ADD = 10_000;
+    private static final int BOOKS_PER_READ = 16;
+    private static final long RUN_MILLIS = 3_000;
+
+    /**
+     * Runs the benchmark and prints the heap used and the books read per
+     * millisecond in both modes.
+     */
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+        int numBooks = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_NUM_BOOKS;
+
+        long baseline = usedHeap();
+        ColumnarCertainBookStore heapStore = new ColumnarCertainBookStore();
+        populate(heapStore, numBooks);
+        System.out.printf("%-8s %6d MB of heap %10.1f books/ms%n", "heap", (usedHeap() - baseline) >> 20,
+                measureReads(heapStore, numBooks));
+        heapStore = null;
+
+        Path catalogPath = Files.createTempFile(directory, "benchmark", ".catalog");
+
+        try {
+            baseline = usedHeap();
+
+            try (ColumnarCertainBookStore catalogStore = new ColumnarCertainBookStore(catalogPath)) {
+                populate(catalogStore, numBooks);
+                System.out.printf("%-8s %6d MB of heap %10.1f books/ms%n", "catalog", (usedHeap() - baseline) >> 20,
+                        measureReads(catalogStore, numBooks));
+            }
+        } finally {
+            Files.deleteIfExists(catalogPath);
+        }
+    }
+
+    private static void populate(ColumnarCertainBookStore store, int numBooks) throws Exception {
+        for (int from = 1; from <= numBooks; from += BOOKS_PER_ADD) {
+            Set<StockBook> books = new HashSet<>();
+
+            for (int isbn = from; isbn < from + BOOKS_PER_ADD && isbn <= numBooks; isbn++) {
+                books.add(new ImmutableStockBook(isbn, "The Collected Works, Volume " + isbn,
+                        "Author Number " + isbn, 10.0f, 100, 0, 0, 0, false));
+            }
+
+            store.addBooks(books);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Reads random books by ISBN, with their titles, for a while and returns
+     * the books read per millisecond.
+     */
+    private static double measureReads(ColumnarCertainBookStore store, int numBooks) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long deadline = System.nanoTime() + RUN_MILLIS * 1_000_000;
+        long reads = 0;
+        long titleChars = 0;
+
+        while (System.nanoTime() < deadline) {
+            Set<Integer> isbns = new HashSet<>();
+
+            while (isbns.size() < BOOKS_PER_READ) {
+                isbns.add(random.nextInt(numBooks) + 1);
+            }
+
+            List<Book> books = store.getBooks(isbns);
+
+            for (Book book : books) {
+                titleChars += book.getTitle().length();
+            }
+            reads += books.size();
+        }
+
+        if (titleChars == 0) {
+            System.out.println("No titles read");
+        }
+        return (double) reads / RUN_MILLIS;
+    }
+}
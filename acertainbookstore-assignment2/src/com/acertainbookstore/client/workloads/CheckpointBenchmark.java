@@ -0,0 +1,166 @@
+package com.acertainbookstore.client.workloads;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * CheckpointBenchmark measures how long a durable store with a large catalog
+ * takes to restart by replaying its whole log, and by loading the snapshot of
+ * a checkpoint, and how much a checkpoint slows down the purchases going on
+ * while it copies the stock.
+ *
+ * The log is written in the directory given as the first argument, by
+ * default the temporary directory, and the number of books is the second
+ * argument, by default 5,000,000, which needs a heap of a few gigabytes.
+ */
+public class CheckpointBenchmark {
+
+    private static final int DEFAULT_NUM_BOOKS = 5_000_000;
+    private static final int BOOKS_PER_ADD = 10_000;
+    private static final int NUM_COPIES = 1_000_000_000;
+    private static final int NUM_BUYERS = 4;
+
+    /**
+     * Runs the benchmark and prints the restart times, the time of a
+     * checkpoint and the purchases per millisecond with and without one.
+     */
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+        int numBooks = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_NUM_BOOKS;
+        Path logPath = Files.createTempFile(directory, "benchmark", ".wal");
+
+        try {
+            try (DurableCertainBookStore store = open(logPath)) {
+                populate(store, numBooks);
+            }
+
+            System.out.printf("%d books, log of %d MB%n", numBooks, size(logPath) >> 20);
+
+            long start = System.nanoTime();
+
+            try (DurableCertainBookStore store = open(logPath)) {
+                System.out.printf("restart from the log      %8d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+                System.out.printf("buys without a checkpoint %8.1f buys/ms%n",
+                        measureThroughput(store, numBooks, null));
+
+                AtomicBoolean checkpointing = new AtomicBoolean(true);
+                long[] checkpointNanos = new long[1];
+                Thread checkpointer = new Thread(() -> {
+                    long checkpointStart = System.nanoTime();
+
+                    try {
+                        store.checkpoint();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+
+                    checkpointNanos[0] = System.nanoTime() - checkpointStart;
+                    checkpointing.set(false);
+                });
+                checkpointer.start();
+
+                double buysPerMillis = measureThroughput(store, numBooks, checkpointing);
+                checkpointer.join();
+                System.out.printf("buys during a checkpoint  %8.1f buys/ms, checkpoint of %d ms%n", buysPerMillis,
+                        checkpointNanos[0] / 1_000_000);
+            }
+
+            System.out.printf("snapshot of %d MB, log of %d MB%n", size(snapshotPath(logPath)) >> 20,
+                    size(logPath) >> 20);
+
+            start = System.nanoTime();
+
+            try (DurableCertainBookStore store = open(logPath)) {
+                System.out.printf("restart from the snapshot %8d ms, %d books%n",
+                        (System.nanoTime() - start) / 1_000_000, store.getBooks().size());
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, logPath.getFileName() + "*")) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static DurableCertainBookStore open(Path logPath) throws Exception {
+        StampedLockConcurrentCertainBookStore store = new StampedLockConcurrentCertainBookStore();
+        return new DurableCertainBookStore(store, store, logPath, BookStoreConstants.DEFAULT_WAL_BATCH,
+                BookStoreConstants.DEFAULT_WAL_FLUSH_MICROS);
+    }
+
+    private static Path snapshotPath(Path logPath) {
+        return logPath.resolveSibling(logPath.getFileName() + ".snapshot");
+    }
+
+    private static long size(Path path) throws Exception {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    private static void populate(DurableCertainBookStore store, int numBooks) throws Exception {
+        for (int from = 1; from <= numBooks; from += BOOKS_PER_ADD) {
+            Set<StockBook> books = new HashSet<>();
+
+            for (int isbn = from; isbn < from + BOOKS_PER_ADD && isbn <= numBooks; isbn++) {
+                books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0,
+                        0, false));
+            }
+
+            store.addBooks(books);
+        }
+    }
+
+    /**
+     * Runs the buyers for a second, or while the checkpoint runs if there is
+     * one, and returns the purchases per millisecond.
+     */
+    private static double measureThroughput(DurableCertainBookStore store, int numBooks,
+            AtomicBoolean checkpointing) throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_BUYERS);
+        List<Future<Long>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + 1_000_000_000L;
+
+        for (int t = 0; t < NUM_BUYERS; t++) {
+            futures.add(exec.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long buys = 0;
+
+                while ((checkpointing != null) ? checkpointing.get() : System.nanoTime() < deadline) {
+                    store.buyBooks(Collections.singleton(new BookCopy(random.nextInt(numBooks) + 1, 1)));
+                    buys++;
+                }
+                return buys;
+            }));
+        }
+
+        long total = 0;
+
+        for (Future<Long> future : futures) {
+            total += future.get();
+        }
+
+        exec.shutdownNow();
+        return total / ((System.nanoTime() - start) / 1_000_000.0);
+    }
+}
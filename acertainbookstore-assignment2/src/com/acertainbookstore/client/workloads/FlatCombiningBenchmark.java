@@ -0,0 +1,124 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.FlatCombiningConcurrentCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * FlatCombiningBenchmark measures the write throughput on a few hot books,
+ * from 1 to 64 threads, for the single-lock store, the store with a blocking
+ * {@link java.util.concurrent.locks.StampedLock} write lock and the
+ * flat-combining store.
+ *
+ * Every writer buys one copy of one of the hot books, and now and then
+ * restocks one. The single-lock store gives up when the lock is taken, so
+ * the calls it rejected are counted apart from the completed ones.
+ */
+public class FlatCombiningBenchmark {
+
+    private static final int NUM_HOT_BOOKS = 4;
+    private static final int NUM_COPIES = 1_000_000_000;
+    private static final int ADD_COPIES_EVERY = 16;
+    private static final int[] NUM_THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+    private static final long WARMUP_MILLIS = 1_000;
+    private static final long RUN_MILLIS = 3_000;
+
+    /**
+     * Runs the benchmark for the three stores and prints the completed and
+     * rejected writes per millisecond for every number of threads.
+     */
+    public static void main(String[] args) throws Exception {
+        run("single", SingleLockConcurrentCertainBookStore::new);
+        run("stamped", StampedLockConcurrentCertainBookStore::new);
+        run("combining", FlatCombiningConcurrentCertainBookStore::new);
+    }
+
+    private static <S extends BookStore & StockManager> void run(String name, Supplier<S> storeFactory)
+            throws Exception {
+        S store = storeFactory.get();
+        populate(store);
+
+        // Let the JIT settle before measuring.
+        measureThroughput(store, NUM_THREADS[NUM_THREADS.length - 1], WARMUP_MILLIS);
+
+        for (int numThreads : NUM_THREADS) {
+            long[] writes = measureThroughput(store, numThreads, RUN_MILLIS);
+            System.out.printf("%-10s %3d threads %10.0f writes/ms %10.0f rejected/ms%n", name, numThreads,
+                    (double) writes[0] / RUN_MILLIS, (double) writes[1] / RUN_MILLIS);
+        }
+    }
+
+    private static void populate(StockManager store) throws Exception {
+        Set<StockBook> books = new HashSet<>();
+
+        for (int isbn = 1; isbn <= NUM_HOT_BOOKS; isbn++) {
+            books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0, 0,
+                    false));
+        }
+
+        store.addBooks(books);
+    }
+
+    /**
+     * Runs the writers for the given time and returns the number of completed
+     * and of rejected writes.
+     */
+    private static <S extends BookStore & StockManager> long[] measureThroughput(S store, int numThreads,
+            long millis) throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long deadline = System.nanoTime() + millis * 1_000_000;
+
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(exec.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long writes = 0;
+                long rejected = 0;
+
+                while (System.nanoTime() < deadline) {
+                    int isbn = random.nextInt(NUM_HOT_BOOKS) + 1;
+
+                    try {
+                        if (++writes % ADD_COPIES_EVERY == 0) {
+                            store.addCopies(Collections.singleton(new BookCopy(isbn, 1)));
+                        } else {
+                            store.buyBooks(Collections.singleton(new BookCopy(isbn, 1)));
+                        }
+                    } catch (BookStoreException ex) {
+                        writes--;
+                        rejected++;
+                    }
+                }
+                return new long[] { writes, rejected };
+            }));
+        }
+
+        long[] total = new long[2];
+
+        for (Future<long[]> future : futures) {
+            long[] writes = future.get();
+            total[0] += writes[0];
+            total[1] += writes[1];
+        }
+
+        exec.shutdownNow();
+        return total;
+    }
+}
@@ -0,0 +1,118 @@
+package com.acertainbookstore.client.workloads;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.utils.ConcurrentIntObjectMap;
+import com.acertainbookstore.utils.IntObjectMap;
+
+/**
+ * IntObjectMapBenchmark compares the boxed {@link HashMap} the stores used as
+ * their catalog index with {@link IntObjectMap} and
+ * {@link ConcurrentIntObjectMap}: the memory used per entry, and the bytes
+ * allocated and the time spent per lookup, for catalogs of 1M and 5M books.
+ *
+ * Run it with a large heap, e.g. -Xmx4g.
+ */
+public class IntObjectMapBenchmark {
+
+    private static final int[] CATALOG_SIZES = { 1_000_000, 5_000_000 };
+    private static final int LOOKUPS = 20_000_000;
+    private static final Object BOOK = new Object();
+
+    /**
+     * Runs the comparison for every catalog size and prints one line per map.
+     */
+    public static void main(String[] args) {
+        System.out.printf("%-10s %-12s %14s %16s %12s%n", "books", "map", "bytes/entry", "bytes/lookup",
+                "ns/lookup");
+
+        for (int numBooks : CATALOG_SIZES) {
+            Map<Integer, Object> hashMap = new HashMap<>();
+            report(numBooks, "HashMap", measureMemory(() -> {
+                for (int isbn = 1; isbn <= numBooks; isbn++) {
+                    hashMap.put(isbn, BOOK);
+                }
+                return hashMap;
+            }), numBooks, hashMap::get);
+            hashMap.clear();
+
+            IntObjectMap<Object> intMap = new IntObjectMap<>();
+            report(numBooks, "IntObject", measureMemory(() -> {
+                for (int isbn = 1; isbn <= numBooks; isbn++) {
+                    intMap.put(isbn, BOOK);
+                }
+                return intMap;
+            }), numBooks, intMap::get);
+            intMap.clear();
+
+            ConcurrentIntObjectMap<Object> concurrentMap = new ConcurrentIntObjectMap<>();
+            report(numBooks, "Concurrent", measureMemory(() -> {
+                for (int isbn = 1; isbn <= numBooks; isbn++) {
+                    concurrentMap.put(isbn, BOOK);
+                }
+                return concurrentMap;
+            }), numBooks, concurrentMap::get);
+            concurrentMap.clear();
+        }
+    }
+
+    private static void report(int numBooks, String map, long bytes, int numKeys, IntFunction<Object> lookup) {
+        // Warm up the lookup path before measuring it.
+        lookups(numKeys, lookup, LOOKUPS / 10);
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        lookups(numKeys, lookup, LOOKUPS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%-10d %-12s %14.1f %16.2f %12.1f%n", numBooks, map, (double) bytes / numBooks,
+                (double) allocated / LOOKUPS, (double) elapsed / LOOKUPS);
+    }
+
+    private static void lookups(int numKeys, IntFunction<Object> lookup, int numLookups) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int found = 0;
+
+        for (int i = 0; i < numLookups; i++) {
+            if (lookup.apply(random.nextInt(numKeys) + 1) != null) {
+                found++;
+            }
+        }
+
+        if (found != numLookups) {
+            throw new IllegalStateException("missing keys");
+        }
+    }
+
+    /**
+     * Returns the heap growth caused by building the structure; the structure is
+     * kept reachable until the measurement is taken.
+     */
+    private static long measureMemory(Supplier<Object> builder) {
+        long before = usedMemory();
+        Object structure = builder.get();
+        long after = usedMemory();
+        // Keep the structure alive until after the measurement.
+        if (structure == null) {
+            throw new IllegalStateException();
+        }
+        return Math.max(0, after - before);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,122 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.StripedReadWriteLock;
+
+/**
+ * LockTableBenchmark compares the memory footprint and the lock/unlock
+ * throughput of one {@link ReentrantReadWriteLock} per ISBN kept in a
+ * {@link ConcurrentHashMap} with the {@link StripedReadWriteLock} table used by
+ * the two-level locking store, for catalogs of 10K to 5M books.
+ *
+ * Run it with a large heap, e.g. -Xmx6g, otherwise the per-ISBN map does not
+ * fit for the biggest catalogs.
+ */
+public class LockTableBenchmark {
+
+    private static final int[] CATALOG_SIZES = { 10_000, 100_000, 1_000_000, 5_000_000 };
+    private static final int NUM_THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 2_000_000;
+
+    /**
+     * Runs the comparison for every catalog size and prints one line per
+     * lock table.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-10s %-8s %14s %16s%n", "books", "table", "memory (KB)", "ops/ms");
+
+        for (int numBooks : CATALOG_SIZES) {
+            try {
+                ConcurrentMap<Integer, ReadWriteLock> lockMap = new ConcurrentHashMap<>();
+                long mapBytes = measureMemory(() -> {
+                    for (int isbn = 1; isbn <= numBooks; isbn++) {
+                        lockMap.put(isbn, new ReentrantReadWriteLock());
+                    }
+                    return lockMap;
+                });
+                double mapThroughput = measureThroughput(numBooks, lockMap::get);
+                report(numBooks, "map", mapBytes, mapThroughput);
+                lockMap.clear();
+            } catch (OutOfMemoryError ex) {
+                System.out.printf("%-10d %-8s %14s %16s%n", numBooks, "map", "out of memory", "-");
+            }
+
+            StripedReadWriteLock[] holder = new StripedReadWriteLock[1];
+            long stripedBytes = measureMemory(() -> holder[0] = new StripedReadWriteLock(
+                    BookStoreConstants.DEFAULT_NUM_LOCK_STRIPES));
+            double stripedThroughput = measureThroughput(numBooks, holder[0]::get);
+            report(numBooks, "striped", stripedBytes, stripedThroughput);
+        }
+    }
+
+    private static void report(int numBooks, String table, long bytes, double throughput) {
+        System.out.printf("%-10d %-8s %14d %16.0f%n", numBooks, table, bytes / 1024, throughput);
+    }
+
+    /**
+     * Returns the heap growth caused by building the structure; the structure is
+     * kept reachable until the measurement is taken.
+     */
+    private static long measureMemory(Supplier<Object> builder) {
+        long before = usedMemory();
+        Object structure = builder.get();
+        long after = usedMemory();
+        // Keep the structure alive until after the measurement.
+        if (structure == null) {
+            throw new IllegalStateException();
+        }
+        return Math.max(0, after - before);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Looks up the lock of a random ISBN, takes and releases its read lock,
+     * from several threads, and returns the operations per millisecond.
+     */
+    private static double measureThroughput(int numBooks, IntFunction<ReadWriteLock> lockLookup)
+            throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < NUM_THREADS; t++) {
+            futures.add(exec.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    Lock lock = lockLookup.apply(random.nextInt(numBooks) + 1).readLock();
+                    lock.lock();
+                    lock.unlock();
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        exec.shutdownNow();
+        return (double) NUM_THREADS * OPERATIONS_PER_THREAD / (elapsedNanos / 1_000_000.0);
+    }
+}
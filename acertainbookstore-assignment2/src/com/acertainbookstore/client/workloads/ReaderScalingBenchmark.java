@@ -0,0 +1,125 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+
+/**
+ * ReaderScalingBenchmark measures how the read-mostly operations scale with
+ * the number of reader threads, from 1 to 64, for the store guarded by a
+ * {@link java.util.concurrent.locks.ReentrantReadWriteLock} and for the store
+ * using {@link java.util.concurrent.locks.StampedLock} optimistic reads.
+ *
+ * Every reader repeatedly looks up a few random books with getBooks and
+ * getBooksByISBN, and now and then asks for the editor picks.
+ */
+public class ReaderScalingBenchmark {
+
+    private static final int NUM_BOOKS = 10_000;
+    private static final int NUM_EDITOR_PICKS = 100;
+    private static final int BOOKS_PER_LOOKUP = 5;
+    private static final int EDITOR_PICKS_EVERY = 20;
+    private static final int[] NUM_THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+    private static final long WARMUP_MILLIS = 1_000;
+    private static final long RUN_MILLIS = 3_000;
+
+    /**
+     * Runs the benchmark for both stores and prints the reads per millisecond
+     * for every number of threads.
+     */
+    public static void main(String[] args) throws Exception {
+        run("rwlock", SingleLockConcurrentCertainBookStore::new);
+        run("stamped", StampedLockConcurrentCertainBookStore::new);
+    }
+
+    private static <S extends BookStore & StockManager> void run(String name, Supplier<S> storeFactory)
+            throws Exception {
+        S store = storeFactory.get();
+        populate(store);
+
+        // Let the JIT settle before measuring.
+        measureThroughput(store, NUM_THREADS[NUM_THREADS.length - 1], WARMUP_MILLIS);
+
+        for (int numThreads : NUM_THREADS) {
+            double throughput = measureThroughput(store, numThreads, RUN_MILLIS);
+            System.out.printf("%-8s %3d threads %14.0f reads/ms%n", name, numThreads, throughput);
+        }
+    }
+
+    private static void populate(StockManager store) throws Exception {
+        Set<StockBook> books = new HashSet<>();
+        Set<BookEditorPick> editorPicks = new HashSet<>();
+
+        for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+            books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10.0f, 10, 0, 0, 0, false));
+
+            if (isbn <= NUM_EDITOR_PICKS) {
+                editorPicks.add(new BookEditorPick(isbn, true));
+            }
+        }
+
+        store.addBooks(books);
+        store.updateEditorPicks(editorPicks);
+    }
+
+    /**
+     * Runs the readers for the given time and returns the reads per
+     * millisecond.
+     */
+    private static <S extends BookStore & StockManager> double measureThroughput(S store, int numThreads,
+            long millis) throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+        List<Future<Long>> futures = new ArrayList<>();
+        long deadline = System.nanoTime() + millis * 1_000_000;
+
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(exec.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Set<Integer> isbns = new HashSet<>();
+                long reads = 0;
+                long lookups = 0;
+
+                while (System.nanoTime() < deadline) {
+                    isbns.clear();
+
+                    while (isbns.size() < BOOKS_PER_LOOKUP) {
+                        isbns.add(random.nextInt(NUM_BOOKS) + 1);
+                    }
+
+                    store.getBooks(isbns);
+                    store.getBooksByISBN(isbns);
+                    reads += 2;
+
+                    if (++lookups % EDITOR_PICKS_EVERY == 0) {
+                        store.getEditorPicks(BOOKS_PER_LOOKUP);
+                        reads++;
+                    }
+                }
+                return reads;
+            }));
+        }
+
+        long totalReads = 0;
+
+        for (Future<Long> future : futures) {
+            totalReads += future.get();
+        }
+
+        exec.shutdownNow();
+        return (double) totalReads / millis;
+    }
+}
@@ -0,0 +1,141 @@
+package com.acertainbookstore.client.workloads;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * SnapshotAllocationBenchmark measures the bytes allocated per book read and
+ * the young collections of a read-heavy workload: readers getting books by
+ * ISBN, stock books by ISBN and editor picks, and a writer buying a copy of a
+ * random book now and then, so that most books read are unchanged since the
+ * last read.
+ *
+ * The allocation is counted per thread with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ */
+public class SnapshotAllocationBenchmark {
+
+    private static final int NUM_BOOKS = 100_000;
+    private static final int NUM_EDITOR_PICKS = 1_000;
+    private static final int NUM_READERS = 4;
+    private static final int BOOKS_PER_READ = 16;
+    private static final long WRITE_INTERVAL_MICROS = 100;
+    private static final long WARMUP_MILLIS = 2_000;
+    private static final long RUN_MILLIS = 5_000;
+
+    /**
+     * Runs the benchmark and prints the books read per millisecond, the bytes
+     * allocated per book read and the young collections per second.
+     */
+    public static void main(String[] args) throws Exception {
+        StampedLockConcurrentCertainBookStore store = new StampedLockConcurrentCertainBookStore();
+        Set<StockBook> books = new HashSet<>();
+        Set<BookEditorPick> editorPicks = new HashSet<>();
+
+        for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+            books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10.0f, 1_000_000_000, 0, 0, 0,
+                    false));
+
+            if (isbn <= NUM_EDITOR_PICKS) {
+                editorPicks.add(new BookEditorPick(isbn, true));
+            }
+        }
+
+        store.addBooks(books);
+        store.updateEditorPicks(editorPicks);
+
+        run(store, WARMUP_MILLIS);
+
+        long collections = youngCollections();
+        long[] result = run(store, RUN_MILLIS);
+        collections = youngCollections() - collections;
+
+        System.out.printf("%10.1f books/ms %8.1f bytes/book %6.1f young GCs/s%n", (double) result[0] / RUN_MILLIS,
+                (double) result[1] / result[0], collections * 1000.0 / RUN_MILLIS);
+    }
+
+    /**
+     * Runs the readers and the writer for the given time and returns the
+     * books read and the bytes the readers allocated.
+     */
+    private static long[] run(StampedLockConcurrentCertainBookStore store, long millis) throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_READERS + 1);
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        List<Future<long[]>> futures = new ArrayList<>();
+
+        exec.submit(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            while (System.nanoTime() < deadline) {
+                store.buyBooks(Collections.singleton(new BookCopy(random.nextInt(NUM_BOOKS) + 1, 1)));
+                Thread.sleep(0, (int) (WRITE_INTERVAL_MICROS * 1_000));
+            }
+            return null;
+        });
+
+        for (int t = 0; t < NUM_READERS; t++) {
+            futures.add(exec.submit(() -> {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+                long threadId = Thread.currentThread().getId();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long booksRead = 0;
+                long allocated = 0;
+
+                while (System.nanoTime() < deadline) {
+                    Set<Integer> isbns = new HashSet<>();
+
+                    while (isbns.size() < BOOKS_PER_READ) {
+                        isbns.add(random.nextInt(NUM_BOOKS) + 1);
+                    }
+
+                    // Only the reads are counted, not building the request.
+                    long before = threads.getThreadAllocatedBytes(threadId);
+                    booksRead += store.getBooks(isbns).size();
+                    booksRead += store.getBooksByISBN(isbns).size();
+                    booksRead += store.getEditorPicks(BOOKS_PER_READ).size();
+                    allocated += threads.getThreadAllocatedBytes(threadId) - before;
+                }
+                return new long[] { booksRead, allocated };
+            }));
+        }
+
+        long[] total = new long[2];
+
+        for (Future<long[]> future : futures) {
+            long[] result = future.get();
+            total[0] += result[0];
+            total[1] += result[1];
+        }
+
+        exec.shutdown();
+        return total;
+    }
+
+    private static long youngCollections() {
+        long collections = 0;
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // G1 counts its young and mixed pauses together, the concurrent cycles apart.
+            if (!collector.getName().contains("Old") && !collector.getName().contains("Concurrent")) {
+                collections += collector.getCollectionCount();
+            }
+        }
+        return collections;
+    }
+}
@@ -0,0 +1,131 @@
+package com.acertainbookstore.client.workloads;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StampedLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+
+/**
+ * WriteAheadLogBenchmark measures the checkout throughput of the durable
+ * store against the in-memory store it wraps, for several commit batch sizes
+ * and flush intervals of the write-ahead log.
+ *
+ * Every thread buys one copy of a random book at a time, so a force() can
+ * carry at most one purchase per thread. A batch size of 1 forces every
+ * purchase to disk on its own; the larger batches let the purchases waiting
+ * for the same flush share one force(). The log is written in the directory
+ * given as the first argument, by default the temporary directory, which
+ * should be on the disk to measure.
+ */
+public class WriteAheadLogBenchmark {
+
+    private static final int NUM_BOOKS = 1024;
+    private static final int NUM_COPIES = 1_000_000_000;
+    private static final int[] NUM_THREADS = { 16, 128 };
+    private static final int[] BATCH_SIZES = { 1, 4, 16, 64, 256 };
+    private static final long[] FLUSH_INTERVALS_MICROS = { 0, 100, 1_000 };
+    private static final long WARMUP_MILLIS = 1_000;
+    private static final long RUN_MILLIS = 3_000;
+
+    /**
+     * Runs the benchmark and prints the purchases per millisecond and the
+     * purchases per force() for every number of threads, batch size and
+     * flush interval.
+     */
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get((args.length > 0) ? args[0] : System.getProperty("java.io.tmpdir"));
+
+        for (int numThreads : NUM_THREADS) {
+            run(directory, numThreads);
+        }
+    }
+
+    private static void run(Path directory, int numThreads) throws Exception {
+        StampedLockConcurrentCertainBookStore memoryStore = new StampedLockConcurrentCertainBookStore();
+        populate(memoryStore);
+        measureThroughput(memoryStore, numThreads, WARMUP_MILLIS);
+        System.out.printf("%3d threads %-8s %25s %10.1f buys/ms%n", numThreads, "memory", "",
+                (double) measureThroughput(memoryStore, numThreads, RUN_MILLIS) / RUN_MILLIS);
+
+        for (long flushIntervalMicros : FLUSH_INTERVALS_MICROS) {
+            for (int batchSize : BATCH_SIZES) {
+                Path logPath = Files.createTempFile(directory, "benchmark", ".wal");
+                StampedLockConcurrentCertainBookStore store = new StampedLockConcurrentCertainBookStore();
+
+                try (DurableCertainBookStore durableStore = new DurableCertainBookStore(store, store, logPath,
+                        batchSize, flushIntervalMicros)) {
+                    populate(durableStore);
+                    measureThroughput(durableStore, numThreads, WARMUP_MILLIS);
+
+                    long flushes = durableStore.getLogFlushes();
+                    long buys = measureThroughput(durableStore, numThreads, RUN_MILLIS);
+                    flushes = durableStore.getLogFlushes() - flushes;
+
+                    System.out.printf("%3d threads %-8s batch %4d interval %5d us %10.1f buys/ms %8.1f buys/force%n",
+                            numThreads, "durable", batchSize, flushIntervalMicros, (double) buys / RUN_MILLIS,
+                            (double) buys / Math.max(flushes, 1));
+                } finally {
+                    Files.deleteIfExists(logPath);
+                }
+            }
+        }
+    }
+
+    private static void populate(StockManager store) throws Exception {
+        Set<StockBook> books = new HashSet<>();
+
+        for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+            books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0, 0,
+                    false));
+        }
+
+        store.addBooks(books);
+    }
+
+    /**
+     * Runs the buyers for the given time and returns the number of purchases.
+     */
+    private static long measureThroughput(BookStore store, int numThreads, long millis) throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+        List<Future<Long>> futures = new ArrayList<>();
+        long deadline = System.nanoTime() + millis * 1_000_000;
+
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(exec.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long buys = 0;
+
+                while (System.nanoTime() < deadline) {
+                    store.buyBooks(Collections.singleton(new BookCopy(random.nextInt(NUM_BOOKS) + 1, 1)));
+                    buys++;
+                }
+                return buys;
+            }));
+        }
+
+        long total = 0;
+
+        for (Future<Long> future : futures) {
+            total += future.get();
+        }
+
+        exec.shutdownNow();
+        return total;
+    }
+}
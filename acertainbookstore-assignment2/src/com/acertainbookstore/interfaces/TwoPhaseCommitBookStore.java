@@ -0,0 +1,63 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TwoPhaseCommitBookStore} declares the methods a bookstore exposes to
+ * take part in a purchase spanning several partitions, which is committed
+ * with a two-phase commit: either every partition buys its copies or none
+ * does.
+ *
+ * A partition prepares by buying the copies as <code>buyBooks</code> would,
+ * sale misses included, but keeps them aside until the purchase is committed
+ * or aborted. Aborting gives them back without touching the sale misses.
+ */
+public interface TwoPhaseCommitBookStore extends BookStore {
+
+	/**
+	 * Prepares the purchase of the copies, keeping them aside.
+	 *
+	 * @param transactionId
+	 *            the id of the purchase, unique to the coordinator
+	 * @param booksToBuy
+	 *            the books to buy from this partition
+	 * @throws BookStoreException
+	 *             if the copies cannot be bought, the partition votes to
+	 *             abort then
+	 */
+	public void prepareBuyBooks(long transactionId, Set<BookCopy> booksToBuy) throws BookStoreException;
+
+	/**
+	 * Commits the prepared purchase.
+	 *
+	 * @param transactionId
+	 *            the id of the purchase
+	 * @throws BookStoreException
+	 *             if the purchase was not prepared
+	 */
+	public void commitBuyBooks(long transactionId) throws BookStoreException;
+
+	/**
+	 * Aborts the prepared purchase and gives the copies back. Aborting a
+	 * purchase that was not prepared does nothing.
+	 *
+	 * @param transactionId
+	 *            the id of the purchase
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void abortBuyBooks(long transactionId) throws BookStoreException;
+
+	/**
+	 * Gets the number of editor picks of this partition, so that the picks of
+	 * all the partitions can be drawn uniformly.
+	 *
+	 * @return the number of editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public int getNumEditorPicks() throws BookStoreException;
+}
@@ -3,8 +3,13 @@ package com.acertainbookstore.server;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -19,10 +24,12 @@ import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitBookStore;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreMutation;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
 import com.esotericsoftware.kryo.io.Input;
@@ -32,6 +39,15 @@ import com.esotericsoftware.kryo.io.Input;
  * which is invoked to handle messages received by the
  * {@link BookStoreHTTPServerUtility}. It decodes the HTTP message and invokes
  * the {@link CertainBookStore} server API.
+ *
+ * Every message is handled in three steps: the request is decoded, the store
+ * is called, and the response is encoded. By default the Jetty thread runs
+ * all of them. With the staged pipeline, the Jetty thread only hands the
+ * request over, and each step runs in its own {@link RequestStage}, with its
+ * own threads and bounded queue. The store calls are queued apart for the
+ * reads, the checkouts and the stock changes, so that slow reads do not hold
+ * up the checkouts, and the threads serializing the responses can be sized
+ * apart from those running the store.
  * 
  * @see AbstractHandler
  * @see BookStoreHTTPServerUtility
@@ -47,6 +63,123 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** The decode stage, null without the staged pipeline. */
+	private RequestStage<StagedRequest> decodeStage = null;
+
+	/** The execute stages by message class, null without the staged pipeline. */
+	private Map<MessageClass, RequestStage<StagedRequest>> executeStages = null;
+
+	/** The encode stage, null without the staged pipeline. */
+	private RequestStage<StagedRequest> encodeStage = null;
+
+	/** The id of the log of the primary that last replicated to this server. */
+	private long replicationLogId = 0;
+
+	/** The sequence number of the last write replicated to this server. */
+	private long lastReplicatedSequence = 0;
+
+	/**
+	 * {@link MessageClass} groups the messages that share an execute stage.
+	 */
+	private enum MessageClass {
+
+		/** The reads. */
+		READ,
+
+		/** The checkouts. */
+		CHECKOUT,
+
+		/** The changes to the stock. */
+		STOCK;
+
+		/**
+		 * Gets the class of the message.
+		 *
+		 * @param messageTag
+		 *            the message tag
+		 * @return the message class
+		 */
+		static MessageClass of(BookStoreMessageTag messageTag) {
+			switch (messageTag) {
+			case BUYBOOKS:
+			case PREPAREBUYBOOKS:
+			case COMMITBUYBOOKS:
+			case ABORTBUYBOOKS:
+				return CHECKOUT;
+
+			case LISTBOOKS:
+			case GETBOOKS:
+			case GETEDITORPICKS:
+			case GETNUMEDITORPICKS:
+			case GETSTOCKBOOKSBYISBN:
+			case GETBOOKSINDEMAND:
+				return READ;
+
+			default:
+				return STOCK;
+			}
+		}
+	}
+
+	/**
+	 * {@link StagedRequest} carries a request through the staged pipeline.
+	 * Each stage hands it to the next through a blocking queue, which makes
+	 * what a stage wrote visible to the next one.
+	 */
+	private static final class StagedRequest {
+
+		/** The message tag. */
+		private final BookStoreMessageTag messageTag;
+
+		/** The asynchronous context of the HTTP request. */
+		private final AsyncContext asyncContext;
+
+		/** The decoded argument, set by the decode stage. */
+		private Object argument;
+
+		/** The response, set by the execute stage. */
+		private BookStoreResponse bookStoreResponse;
+
+		/**
+		 * Instantiates a new {@link StagedRequest}.
+		 *
+		 * @param messageTag
+		 *            the message tag
+		 * @param asyncContext
+		 *            the asynchronous context of the HTTP request
+		 */
+		private StagedRequest(BookStoreMessageTag messageTag, AsyncContext asyncContext) {
+			this.messageTag = messageTag;
+			this.asyncContext = asyncContext;
+		}
+	}
+
+	/**
+	 * {@link PreparedPurchase} is the decoded argument of the prepare buy
+	 * books message.
+	 */
+	private static final class PreparedPurchase {
+
+		/** The id of the purchase, not parsed yet. */
+		private final String transactionIdString;
+
+		/** The copies to buy. */
+		private final Set<BookCopy> bookCopiesToBuy;
+
+		/**
+		 * Instantiates a new {@link PreparedPurchase}.
+		 *
+		 * @param transactionIdString
+		 *            the id of the purchase, not parsed yet
+		 * @param bookCopiesToBuy
+		 *            the copies to buy
+		 */
+		private PreparedPurchase(String transactionIdString, Set<BookCopy> bookCopiesToBuy) {
+			this.transactionIdString = transactionIdString;
+			this.bookCopiesToBuy = bookCopiesToBuy;
+		}
+	}
+
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
 	 *
@@ -65,6 +198,60 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		}
 	}
 
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} handling the
+	 * messages in the staged pipeline.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param decodeThreads
+	 *            the number of threads decoding the requests
+	 * @param executeThreads
+	 *            the number of threads calling the store, for each message
+	 *            class
+	 * @param encodeThreads
+	 *            the number of threads encoding the responses
+	 * @param queueCapacity
+	 *            the capacity of the queue of each stage
+	 */
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager, int decodeThreads,
+			int executeThreads, int encodeThreads, int queueCapacity) {
+		this(bookStore, stockManager);
+
+		decodeStage = new RequestStage<>("decode", decodeThreads, queueCapacity, this::decodeStaged);
+		executeStages = new EnumMap<>(MessageClass.class);
+
+		for (MessageClass messageClass : MessageClass.values()) {
+			executeStages.put(messageClass, new RequestStage<>("execute-" + messageClass.name().toLowerCase(),
+					executeThreads, queueCapacity, this::executeStaged));
+		}
+
+		encodeStage = new RequestStage<>("encode", encodeThreads, queueCapacity, this::encodeStaged);
+	}
+
+	/**
+	 * Gets the metrics of the stages of the pipeline, and starts the next
+	 * period of their peak queue depths.
+	 *
+	 * @return the metrics, one line per stage, or null without the staged
+	 *         pipeline
+	 */
+	public String takePipelineMetrics() {
+		if (decodeStage == null) {
+			return null;
+		}
+
+		StringBuilder metrics = new StringBuilder(decodeStage.takeMetrics());
+
+		for (RequestStage<StagedRequest> executeStage : executeStages.values()) {
+			metrics.append(System.lineSeparator()).append(executeStage.takeMetrics());
+		}
+
+		return metrics.append(System.lineSeparator()).append(encodeStage.takeMetrics()).toString();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -92,73 +279,229 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		// The RequestURI before the switch.
 		if (messageTag == null) {
 			System.err.println("No message tag.");
+		} else if (decodeStage == null) {
+			encode(execute(messageTag, decode(messageTag, request)), response);
 		} else {
-			switch (messageTag) {
-			case REMOVEBOOKS:
-				removeBooks(request, response);
-				break;
+			// The response is sent when the encode stage completes the
+			// context, the stages are bounded so it needs no timeout.
+			AsyncContext asyncContext = request.startAsync();
+			asyncContext.setTimeout(0);
+			StagedRequest stagedRequest = new StagedRequest(messageTag, asyncContext);
+
+			try {
+				decodeStage.submit(stagedRequest);
+			} catch (InterruptedException ex) {
+				fail(stagedRequest, ex);
+			}
+		}
 
-			case REMOVEALLBOOKS:
-				removeAllBooks(response);
-				break;
+		// Mark the request as handled so that the HTTP response can be sent
+		baseRequest.setHandled(true);
+	}
 
-			case ADDBOOKS:
-				addBooks(request, response);
-				break;
+	/**
+	 * Decodes the argument of the message.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param request
+	 *            the request
+	 * @return the argument, or null if the message has none
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object decode(BookStoreMessageTag messageTag, HttpServletRequest request) throws IOException {
+		switch (messageTag) {
+		case REMOVEBOOKS:
+		case ADDBOOKS:
+		case ADDCOPIES:
+		case UPDATEEDITORPICKS:
+		case BUYBOOKS:
+		case GETBOOKS:
+		case GETSTOCKBOOKSBYISBN:
+		case REPLICATE:
+			return serializer.get().deserialize(getSerializedRequestContent(request));
+
+		case GETEDITORPICKS:
+			return URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+
+		case PREPAREBUYBOOKS:
+			return new PreparedPurchase(getTransactionIdString(request),
+					(Set<BookCopy>) serializer.get().deserialize(getSerializedRequestContent(request)));
+
+		case COMMITBUYBOOKS:
+		case ABORTBUYBOOKS:
+			return getTransactionIdString(request);
+
+		default:
+			return null;
+		}
+	}
 
-			case ADDCOPIES:
-				addCopies(request, response);
-				break;
+	/**
+	 * Calls the store for the message.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param argument
+	 *            the decoded argument
+	 * @return the response, or null if the message is not supported
+	 */
+	@SuppressWarnings("unchecked")
+	private BookStoreResponse execute(BookStoreMessageTag messageTag, Object argument) {
+		switch (messageTag) {
+		case REMOVEBOOKS:
+			return removeBooks((Set<Integer>) argument);
 
-			case LISTBOOKS:
-				listBooks(response);
-				break;
+		case REMOVEALLBOOKS:
+			return removeAllBooks();
 
-			case UPDATEEDITORPICKS:
-				updateEditorPicks(request, response);
-				break;
+		case ADDBOOKS:
+			return addBooks((Set<StockBook>) argument);
 
-			case BUYBOOKS:
-				buyBooks(request, response);
-				break;
+		case ADDCOPIES:
+			return addCopies((Set<BookCopy>) argument);
 
-			case GETBOOKS:
-				getBooks(request, response);
-				break;
+		case LISTBOOKS:
+			return listBooks();
 
-			case GETEDITORPICKS:
-				getEditorPicks(request, response);
-				break;
+		case UPDATEEDITORPICKS:
+			return updateEditorPicks((Set<BookEditorPick>) argument);
 
-			case GETSTOCKBOOKSBYISBN:
-				getStockBooksByISBN(request, response);
-				break;
+		case BUYBOOKS:
+			return buyBooks((Set<BookCopy>) argument);
 
-			default:
-				System.err.println("Unsupported message tag.");
-				break;
-			}
-		}
+		case GETBOOKS:
+			return getBooks((Set<Integer>) argument);
 
-		// Mark the request as handled so that the HTTP response can be sent
-		baseRequest.setHandled(true);
+		case GETEDITORPICKS:
+			return getEditorPicks((String) argument);
+
+		case GETSTOCKBOOKSBYISBN:
+			return getStockBooksByISBN((Set<Integer>) argument);
+
+		case GETBOOKSINDEMAND:
+			return getBooksInDemand();
+
+		case PREPAREBUYBOOKS:
+			return prepareBuyBooks((PreparedPurchase) argument);
+
+		case COMMITBUYBOOKS:
+			return commitBuyBooks((String) argument);
+
+		case ABORTBUYBOOKS:
+			return abortBuyBooks((String) argument);
+
+		case GETNUMEDITORPICKS:
+			return getNumEditorPicks();
+
+		case REPLICATE:
+			return replicate((List<BookStoreMutation>) argument);
+
+		default:
+			System.err.println("Unsupported message tag.");
+			return null;
+		}
 	}
 
 	/**
-	 * Gets the stock books by ISBN.
+	 * Encodes the response.
 	 *
-	 * @param request
-	 *            the request
+	 * @param bookStoreResponse
+	 *            the response, null to send nothing
 	 * @param response
-	 *            the response
+	 *            the HTTP response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	@SuppressWarnings("unchecked")
-	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private void encode(BookStoreResponse bookStoreResponse, HttpServletResponse response) throws IOException {
+		if (bookStoreResponse != null) {
+			byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+			response.getOutputStream().write(serializedResponseContent);
+		}
+	}
+
+	/**
+	 * Decodes the staged request and hands it to the execute stage of its
+	 * message class.
+	 *
+	 * @param stagedRequest
+	 *            the staged request
+	 */
+	private void decodeStaged(StagedRequest stagedRequest) {
+		try {
+			HttpServletRequest request = (HttpServletRequest) stagedRequest.asyncContext.getRequest();
+			stagedRequest.argument = decode(stagedRequest.messageTag, request);
+			executeStages.get(MessageClass.of(stagedRequest.messageTag)).submit(stagedRequest);
+		} catch (Exception ex) {
+			fail(stagedRequest, ex);
+		}
+	}
+
+	/**
+	 * Executes the staged request and hands it to the encode stage.
+	 *
+	 * @param stagedRequest
+	 *            the staged request
+	 */
+	private void executeStaged(StagedRequest stagedRequest) {
+		try {
+			stagedRequest.bookStoreResponse = execute(stagedRequest.messageTag, stagedRequest.argument);
+			stagedRequest.argument = null;
+			encodeStage.submit(stagedRequest);
+		} catch (Exception ex) {
+			fail(stagedRequest, ex);
+		}
+	}
+
+	/**
+	 * Encodes the response of the staged request and sends it.
+	 *
+	 * @param stagedRequest
+	 *            the staged request
+	 */
+	private void encodeStaged(StagedRequest stagedRequest) {
+		try {
+			HttpServletResponse response = (HttpServletResponse) stagedRequest.asyncContext.getResponse();
+			encode(stagedRequest.bookStoreResponse, response);
+			stagedRequest.asyncContext.complete();
+		} catch (Exception ex) {
+			fail(stagedRequest, ex);
+		}
+	}
+
+	/**
+	 * Fails the staged request with an internal server error.
+	 *
+	 * @param stagedRequest
+	 *            the staged request
+	 * @param ex
+	 *            the cause
+	 */
+	private void fail(StagedRequest stagedRequest, Exception ex) {
+		if (ex instanceof InterruptedException) {
+			Thread.currentThread().interrupt();
+		}
+
+		System.err.println(stagedRequest.messageTag + ": " + ex);
+		HttpServletResponse response = (HttpServletResponse) stagedRequest.asyncContext.getResponse();
+
+		if (!response.isCommitted()) {
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		stagedRequest.asyncContext.complete();
+	}
+
+	/**
+	 * Gets the stock books by ISBN.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the response
+	 */
+	private BookStoreResponse getStockBooksByISBN(Set<Integer> isbnSet) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -167,22 +510,17 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
 	 * Gets the editor picks.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param numBooksString
+	 *            the number of books
+	 * @return the response
 	 */
-	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+	private BookStoreResponse getEditorPicks(String numBooksString) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -192,25 +530,17 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
 	 * Gets the books.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param isbnSet
+	 *            the ISBNs
+	 * @return the response
 	 */
-	@SuppressWarnings("unchecked")
-	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+	private BookStoreResponse getBooks(Set<Integer> isbnSet) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -219,25 +549,17 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
 	 * Buys books.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @return the response
 	 */
-	@SuppressWarnings("unchecked")
-	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+	private BookStoreResponse buyBooks(Set<BookCopy> bookCopiesToBuy) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -246,26 +568,142 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
-	 * Updates editor picks.
+	 * Prepares the purchase of books spanning several partitions.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param preparedPurchase
+	 *            the purchase
+	 * @return the response
 	 */
-	@SuppressWarnings("unchecked")
-	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private BookStoreResponse prepareBuyBooks(PreparedPurchase preparedPurchase) {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			long transactionId = BookStoreUtility.convertStringToLong(preparedPurchase.transactionIdString);
+			getTwoPhaseCommitBookStore().prepareBuyBooks(transactionId, preparedPurchase.bookCopiesToBuy);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		return bookStoreResponse;
+	}
 
-		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
+	/**
+	 * Commits the prepared purchase.
+	 *
+	 * @param transactionIdString
+	 *            the id of the purchase
+	 * @return the response
+	 */
+	private BookStoreResponse commitBuyBooks(String transactionIdString) {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			long transactionId = BookStoreUtility.convertStringToLong(transactionIdString);
+			getTwoPhaseCommitBookStore().commitBuyBooks(transactionId);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Aborts the prepared purchase.
+	 *
+	 * @param transactionIdString
+	 *            the id of the purchase
+	 * @return the response
+	 */
+	private BookStoreResponse abortBuyBooks(String transactionIdString) {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			long transactionId = BookStoreUtility.convertStringToLong(transactionIdString);
+			getTwoPhaseCommitBookStore().abortBuyBooks(transactionId);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Gets the number of editor picks of the partition.
+	 *
+	 * @return the response, listing the number of editor picks
+	 */
+	private BookStoreResponse getNumEditorPicks() {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(Collections.singletonList(getTwoPhaseCommitBookStore().getNumEditorPicks()));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Applies the writes streamed by the primary, in order, skipping those
+	 * already applied.
+	 *
+	 * @param mutations
+	 *            the writes
+	 * @return the response, listing the sequence number of the last write
+	 *         applied
+	 */
+	private synchronized BookStoreResponse replicate(List<BookStoreMutation> mutations) {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		for (BookStoreMutation mutation : mutations) {
+			long expectedSequence = ((mutation.getLogId() == replicationLogId) ? lastReplicatedSequence : 0) + 1;
+
+			if (mutation.getSequenceNumber() > expectedSequence) {
+				bookStoreResponse.setException(new BookStoreException("The replica is out of sync, expected the write "
+						+ expectedSequence + " but got " + mutation.getSequenceNumber()));
+				break;
+			}
+
+			if (mutation.getSequenceNumber() == expectedSequence) {
+				// The write fails here if it failed on the primary.
+				execute(mutation.getMessageTag(), mutation.getArgument());
+				replicationLogId = mutation.getLogId();
+				lastReplicatedSequence = mutation.getSequenceNumber();
+			}
+		}
+
+		bookStoreResponse.setList(Collections.singletonList(lastReplicatedSequence));
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Gets the book store as a participant of two-phase commits.
+	 *
+	 * @return the book store
+	 * @throws BookStoreException
+	 *             if the book store cannot take part in two-phase commits
+	 */
+	private TwoPhaseCommitBookStore getTwoPhaseCommitBookStore() throws BookStoreException {
+		if (!(bookStore instanceof TwoPhaseCommitBookStore)) {
+			throw new BookStoreException("The book store does not support two-phase commits");
+		}
+
+		return (TwoPhaseCommitBookStore) bookStore;
+	}
+
+	/**
+	 * Updates editor picks.
+	 *
+	 * @param mapEditorPicksValues
+	 *            the editor picks
+	 * @return the response
+	 */
+	private BookStoreResponse updateEditorPicks(Set<BookEditorPick> mapEditorPicksValues) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -274,19 +712,15 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
 	 * Lists the books.
 	 *
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the response
 	 */
-	private void listBooks(HttpServletResponse response) throws IOException {
+	private BookStoreResponse listBooks() {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 		try {
 			bookStoreResponse.setList(stockManager.getBooks());
@@ -294,25 +728,34 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
-	 * Adds the copies.
+	 * Gets the books in demand.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the response
 	 */
-	@SuppressWarnings("unchecked")
-	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
+	private BookStoreResponse getBooksInDemand() {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		try {
+			bookStoreResponse.setList(stockManager.getBooksInDemand());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Adds the copies.
+	 *
+	 * @param listBookCopies
+	 *            the copies to add
+	 * @return the response
+	 */
+	private BookStoreResponse addCopies(Set<BookCopy> listBookCopies) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -321,25 +764,17 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
 	 * Adds the books.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param newBooks
+	 *            the books to add
+	 * @return the response
 	 */
-	@SuppressWarnings("unchecked")
-	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
+	private BookStoreResponse addBooks(Set<StockBook> newBooks) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -348,19 +783,15 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
 	 * Removes all books.
 	 *
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return the response
 	 */
-	private void removeAllBooks(HttpServletResponse response) throws IOException {
+	private BookStoreResponse removeAllBooks() {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -369,25 +800,17 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
 	}
 
 	/**
 	 * Removes the books.
 	 *
-	 * @param request
-	 *            the request
-	 * @param response
-	 *            the response
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param bookSet
+	 *            the ISBNs of the books to remove
+	 * @return the response
 	 */
-	@SuppressWarnings("unchecked")
-	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+	private BookStoreResponse removeBooks(Set<Integer> bookSet) {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -396,8 +819,18 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Gets the transaction id parameter of the request.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the transaction id, not parsed yet
+	 */
+	private String getTransactionIdString(HttpServletRequest request) {
+		return URLDecoder.decode(request.getParameter(BookStoreConstants.TRANSACTION_ID_PARAM), StandardCharsets.UTF_8);
 	}
 
 	/**
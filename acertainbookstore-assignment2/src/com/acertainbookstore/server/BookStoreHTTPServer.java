@@ -1,7 +1,20 @@
 package com.acertainbookstore.server;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.business.DurableCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -22,6 +35,9 @@ public class BookStoreHTTPServer {
 	 *  false - two-level locking */
 	private static final boolean SINGLE_LOCK = true;
 
+	/** The period, in seconds, of the metrics logged by the staged pipeline and the replication. */
+	private static final int METRICS_PERIOD_SECONDS = 10;
+
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
 	 */
@@ -38,17 +54,79 @@ public class BookStoreHTTPServer {
 	public static void main(String[] args) {
 		int listenOnPort = DEFAULT_PORT;
 		
-		BookStoreHTTPMessageHandler handler = null;
+		BookStore bookStore = null;
+		StockManager stockManager = null;
 		
 		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+			/* we pass the store to BookStoreHTTPMessageHandler constructor twice, 
 			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+			bookStore = store;
+			stockManager = store;
 		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+			boolean orderedLocking = Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_ORDERED_LOCKING);
+			TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(
+					BookStoreConstants.DEFAULT_NUM_LOCK_STRIPES, orderedLocking);
+			bookStore = store;
+			stockManager = store;
 		}		
+
+		String walProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_WAL);
+
+		if (walProperty != null) {
+			try {
+				DurableCertainBookStore store = new DurableCertainBookStore(bookStore, stockManager,
+						Paths.get(walProperty),
+						Integer.getInteger(BookStoreConstants.PROPERTY_KEY_WAL_BATCH,
+								BookStoreConstants.DEFAULT_WAL_BATCH),
+						Long.getLong(BookStoreConstants.PROPERTY_KEY_WAL_FLUSH_MICROS,
+								BookStoreConstants.DEFAULT_WAL_FLUSH_MICROS),
+						Long.getLong(BookStoreConstants.PROPERTY_KEY_WAL_CHECKPOINT_SECONDS,
+								BookStoreConstants.DEFAULT_WAL_CHECKPOINT_SECONDS));
+				bookStore = store;
+				stockManager = store;
+			} catch (IOException ex) {
+				ex.printStackTrace();
+				return;
+			}
+		}
+
+		String replicasProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS);
+
+		if (replicasProperty != null || Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_REPLICA)) {
+			List<String> replicaAddresses = (replicasProperty != null) ? Arrays.asList(replicasProperty.split(","))
+					: Collections.emptyList();
+
+			try {
+				ReplicatedBookStore store = new ReplicatedBookStore(bookStore, stockManager, replicaAddresses);
+				bookStore = store;
+				stockManager = store;
+
+				if (!replicaAddresses.isEmpty()) {
+					logMetrics("replication-metrics", store::takeReplicationMetrics);
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+				return;
+			}
+		}
+
+		BookStoreHTTPMessageHandler handler = null;
+
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_STAGED_PIPELINE)) {
+			handler = new BookStoreHTTPMessageHandler(bookStore, stockManager,
+					Integer.getInteger(BookStoreConstants.PROPERTY_KEY_DECODE_THREADS,
+							BookStoreConstants.DEFAULT_DECODE_THREADS),
+					Integer.getInteger(BookStoreConstants.PROPERTY_KEY_EXECUTE_THREADS,
+							BookStoreConstants.DEFAULT_EXECUTE_THREADS),
+					Integer.getInteger(BookStoreConstants.PROPERTY_KEY_ENCODE_THREADS,
+							BookStoreConstants.DEFAULT_ENCODE_THREADS),
+					Integer.getInteger(BookStoreConstants.PROPERTY_KEY_STAGE_QUEUE_CAPACITY,
+							BookStoreConstants.DEFAULT_STAGE_QUEUE_CAPACITY));
+			logMetrics("pipeline-metrics", handler::takePipelineMetrics);
+		} else {
+			handler = new BookStoreHTTPMessageHandler(bookStore, stockManager);
+		}
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
@@ -63,4 +141,24 @@ public class BookStoreHTTPServer {
 		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
 		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
 	}
+
+	/**
+	 * Logs the metrics periodically, to see which stage of the pipeline is
+	 * saturated or how far the replicas are behind.
+	 *
+	 * @param name
+	 *            the name of the thread logging them
+	 * @param metrics
+	 *            the metrics
+	 */
+	private static void logMetrics(String name, Supplier<String> metrics) {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		executor.scheduleAtFixedRate(() -> System.out.println(metrics.get()), METRICS_PERIOD_SECONDS,
+				METRICS_PERIOD_SECONDS, TimeUnit.SECONDS);
+	}
 }
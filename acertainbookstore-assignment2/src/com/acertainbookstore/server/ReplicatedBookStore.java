@@ -0,0 +1,381 @@
+package com.acertainbookstore.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.DurableCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreMutation;
+
+/**
+ * {@link ReplicatedBookStore} wraps the store of a primary server, or of one
+ * of its replicas, for primary-replica replication.
+ *
+ * The primary numbers its writes in the order it commits them, and hands them
+ * to a {@link Replicator} per replica, which streams them to the replica. The
+ * replica applies them in the same order, so it goes through the same states
+ * as the primary, some time later. The purchases that fail are streamed too,
+ * for the sale misses they record.
+ *
+ * The writes take a write lock and the reads a read lock, so that the writes
+ * are committed and numbered in the same order, and do not contend with each
+ * other or with the reads inside the store. A store that gives up a lock under
+ * contention would fail a write on one server and apply it on another.
+ *
+ * Over a {@link DurableCertainBookStore}, a write is logged under the write
+ * lock but waits for the log once the lock is released, so that the writes
+ * share the flushes of the log instead of each waiting for its own in turn.
+ * A write may thus be streamed to the replicas before it is durable on the
+ * primary, but it is only acknowledged once it is.
+ */
+final class ReplicatedBookStore implements BookStore, StockManager {
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The store the writes wait for the log of, or null if it is not durable. */
+	private final DurableCertainBookStore durableStore;
+
+	/** The read lock, taken by the reads. */
+	private final Lock readLock;
+
+	/** The write lock, taken by the writes. */
+	private final Lock writeLock;
+
+	/** The replicators, one per replica, none on a replica. */
+	private final List<Replicator> replicators = new ArrayList<>();
+
+	/** The id of the log, so that the replicas tell a restarted primary. */
+	private final long logId = ThreadLocalRandom.current().nextLong();
+
+	/** The sequence number of the last write. */
+	private volatile long lastSequence = 0;
+
+	/**
+	 * {@link Write} is a write to the store.
+	 */
+	@FunctionalInterface
+	private interface Write {
+
+		/**
+		 * Writes to the store.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link ReplicatedBookStore}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param replicaAddresses
+	 *            the addresses of the replicas of a primary, none for a
+	 *            replica
+	 * @throws Exception
+	 *             if a replicator cannot start
+	 */
+	ReplicatedBookStore(BookStore bookStore, StockManager stockManager, List<String> replicaAddresses)
+			throws Exception {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		durableStore = (stockManager instanceof DurableCertainBookStore) ? (DurableCertainBookStore) stockManager
+				: null;
+
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		readLock = lock.readLock();
+		writeLock = lock.writeLock();
+
+		for (String replicaAddress : replicaAddresses) {
+			replicators.add(new Replicator(replicaAddress));
+		}
+	}
+
+	/**
+	 * Applies the write and streams it to the replicas, if it succeeded, then
+	 * waits until it is durable if the store is.
+	 *
+	 * @param messageTag
+	 *            the message tag of the write
+	 * @param argument
+	 *            the argument of the write, or null if it has none
+	 * @param replicateFailure
+	 *            whether to stream the write to the replicas if it failed
+	 * @param write
+	 *            the write
+	 * @throws BookStoreException
+	 *             the exception of the write
+	 */
+	private void write(BookStoreMessageTag messageTag, Set<?> argument, boolean replicateFailure, Write write)
+			throws BookStoreException {
+		BookStoreException failure = null;
+		long durableSequence = 0;
+
+		writeLock.lock();
+
+		try {
+			try {
+				if (durableStore != null) {
+					durableStore.applyDeferringDurability(write::apply);
+				} else {
+					write.apply();
+				}
+
+				replicate(messageTag, argument);
+			} catch (BookStoreException ex) {
+				if (replicateFailure) {
+					replicate(messageTag, argument);
+				}
+
+				failure = ex;
+			}
+
+			if (durableStore != null) {
+				// The writes are serialized, so none was logged after this one.
+				durableSequence = durableStore.getAppendedSequence();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+
+		if (durableStore != null) {
+			durableStore.awaitDurable(durableSequence);
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Numbers the write and hands it to the replicators, under the write
+	 * lock.
+	 *
+	 * @param messageTag
+	 *            the message tag of the write
+	 * @param argument
+	 *            the argument of the write, or null if it has none
+	 */
+	private void replicate(BookStoreMessageTag messageTag, Set<?> argument) {
+		if (replicators.isEmpty()) {
+			return;
+		}
+
+		// The caller may change its set once the write returns.
+		BookStoreMutation mutation = new BookStoreMutation(logId, lastSequence + 1, System.currentTimeMillis(),
+				messageTag, (argument == null) ? null : new HashSet<>(argument));
+		lastSequence = mutation.getSequenceNumber();
+
+		for (Replicator replicator : replicators) {
+			replicator.append(mutation);
+		}
+	}
+
+	/**
+	 * Describes how far every replica is behind.
+	 *
+	 * @return the metrics, one line per replica
+	 */
+	String takeReplicationMetrics() {
+		long sequence = lastSequence;
+		StringBuilder metrics = new StringBuilder();
+
+		for (Replicator replicator : replicators) {
+			if (metrics.length() > 0) {
+				metrics.append(System.lineSeparator());
+			}
+
+			metrics.append(replicator.getMetrics(sequence));
+		}
+
+		return metrics.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		write(BookStoreMessageTag.ADDBOOKS, bookSet, false, () -> stockManager.addBooks(bookSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		write(BookStoreMessageTag.ADDCOPIES, bookCopiesSet, false, () -> stockManager.addCopies(bookCopiesSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		write(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks, false,
+				() -> stockManager.updateEditorPicks(editorPicks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		write(BookStoreMessageTag.REMOVEALLBOOKS, null, false, stockManager::removeAllBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		write(BookStoreMessageTag.REMOVEBOOKS, isbnSet, false, () -> stockManager.removeBooks(isbnSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		write(BookStoreMessageTag.BUYBOOKS, bookCopiesToBuy, true, () -> bookStore.buyBooks(bookCopiesToBuy));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return stockManager.getBooks();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return stockManager.getBooksByISBN(isbnSet);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return stockManager.getBooksInDemand();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return bookStore.getBooks(isbnSet);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		readLock.lock();
+
+		try {
+			return bookStore.getEditorPicks(numBooks);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		bookStore.rateBooks(bookRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+}
@@ -0,0 +1,157 @@
+package com.acertainbookstore.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreMutation;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link Replicator} streams the writes of the primary to one replica, in
+ * batches of the writes queued since the last one, from its own thread. A
+ * batch the replica did not acknowledge is sent again until it does; the
+ * replica skips the writes it already applied.
+ *
+ * The queue is not bounded: the writes to a replica that is down pile up
+ * until it is back.
+ */
+final class Replicator {
+
+	/** The address of the replica. */
+	private final String replicaAddress;
+
+	/** The queued writes. */
+	private final BlockingQueue<BookStoreMutation> queue = new LinkedBlockingQueue<>();
+
+	/** The client. */
+	private final HttpClient client;
+
+	/** The serializer, used by the thread only. */
+	private final BookStoreSerializer serializer;
+
+	/** The first write of the batch being sent, or null. */
+	private volatile BookStoreMutation inFlight = null;
+
+	/** The sequence number of the last write the replica acknowledged. */
+	private volatile long acknowledgedSequence = 0;
+
+	/**
+	 * Instantiates a new {@link Replicator} and starts its thread.
+	 *
+	 * @param replicaAddress
+	 *            the address of the replica server
+	 * @throws Exception
+	 *             if the client cannot start
+	 */
+	Replicator(String replicaAddress) throws Exception {
+		this.replicaAddress = replicaAddress;
+
+		if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = new BookStoreKryoSerializer();
+		} else {
+			serializer = new BookStoreXStreamSerializer();
+		}
+
+		client = new HttpClient();
+		client.setExecutor(new QueuedThreadPool());
+		client.start();
+
+		Thread thread = new Thread(this::run, "replicator-" + replicaAddress);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues the write.
+	 *
+	 * @param mutation
+	 *            the write
+	 */
+	void append(BookStoreMutation mutation) {
+		queue.add(mutation);
+	}
+
+	/**
+	 * Sends the queued writes. The thread is a daemon and runs as long as the
+	 * server.
+	 */
+	private void run() {
+		String urlString = replicaAddress + "/stock/" + BookStoreMessageTag.REPLICATE;
+		List<BookStoreMutation> batch = new ArrayList<>();
+
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, BookStoreConstants.MAX_REPLICATION_BATCH - 1);
+				inFlight = batch.get(0);
+
+				while (!send(urlString, batch)) {
+					Thread.sleep(BookStoreConstants.REPLICATION_RETRY_MILLIS);
+				}
+
+				acknowledgedSequence = batch.get(batch.size() - 1).getSequenceNumber();
+				inFlight = null;
+				batch.clear();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends the batch to the replica.
+	 *
+	 * @param urlString
+	 *            the URL of the replicate message
+	 * @param batch
+	 *            the batch
+	 * @return true, if the replica acknowledged the batch
+	 */
+	private boolean send(String urlString, List<BookStoreMutation> batch) {
+		try {
+			BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, batch);
+			BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+					serializer);
+			return (Long) bookStoreResponse.getList().get(0) >= batch.get(batch.size() - 1).getSequenceNumber();
+		} catch (BookStoreException | RuntimeException ex) {
+			System.err.println(replicaAddress + ": " + ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Describes how far the replica is behind the primary: the writes it has
+	 * not acknowledged, and how long ago the oldest of them was committed.
+	 *
+	 * @param lastSequence
+	 *            the sequence number of the last write of the primary
+	 * @return the metrics, on one line
+	 */
+	String getMetrics(long lastSequence) {
+		BookStoreMutation oldest = inFlight;
+
+		if (oldest == null) {
+			oldest = queue.peek();
+		}
+
+		long acknowledged = Math.min(acknowledgedSequence, lastSequence);
+		long lagMillis = (oldest == null || lastSequence == acknowledged) ? 0
+				: System.currentTimeMillis() - oldest.getCommitTimeMillis();
+
+		return String.format("%-32s %8d writes behind %8d ms lag %12d acknowledged", replicaAddress,
+				lastSequence - acknowledged, lagMillis, acknowledged);
+	}
+}
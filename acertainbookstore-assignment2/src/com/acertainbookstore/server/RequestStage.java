@@ -0,0 +1,141 @@
+package com.acertainbookstore.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * {@link RequestStage} is one stage of the staged request pipeline of the
+ * {@link BookStoreHTTPMessageHandler}: a bounded ring buffer of requests
+ * served by its own threads. A full buffer blocks whoever feeds the stage, so
+ * a saturated stage pushes back on the stages before it, and in the end on
+ * the Jetty threads, instead of queueing without bound.
+ *
+ * The stage counts the requests it processed and keeps the peak depth of its
+ * queue, to see which stage is saturated.
+ *
+ * @param <T>
+ *            the type of the requests
+ */
+final class RequestStage<T> {
+
+	/** The name. */
+	private final String name;
+
+	/** The queued requests. */
+	private final BlockingQueue<T> queue;
+
+	/** The capacity of the queue. */
+	private final int capacity;
+
+	/** The threads. */
+	private final Thread[] threads;
+
+	/** The processor of the requests. */
+	private final Consumer<T> processor;
+
+	/** The peak depth of the queue since it was last taken. */
+	private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+	/** The number of requests processed. */
+	private final LongAdder processed = new LongAdder();
+
+	/**
+	 * Instantiates a new {@link RequestStage} and starts its threads.
+	 *
+	 * @param name
+	 *            the name
+	 * @param numThreads
+	 *            the number of threads
+	 * @param capacity
+	 *            the capacity of the queue
+	 * @param processor
+	 *            the processor of the requests, which must handle its own
+	 *            failures
+	 */
+	RequestStage(String name, int numThreads, int capacity, Consumer<T> processor) {
+		if (numThreads < 1 || capacity < 1) {
+			throw new IllegalArgumentException(
+					name + ": numThreads = " + numThreads + ", capacity = " + capacity + ", but they must be positive");
+		}
+
+		this.name = name;
+		this.capacity = capacity;
+		this.processor = processor;
+		queue = new ArrayBlockingQueue<>(capacity);
+		threads = new Thread[numThreads];
+
+		for (int i = 0; i < numThreads; i++) {
+			threads[i] = new Thread(this::run, name + "-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * Queues the request, waiting while the queue is full.
+	 *
+	 * @param request
+	 *            the request
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	void submit(T request) throws InterruptedException {
+		queue.put(request);
+
+		int depth = queue.size();
+
+		if (depth > peakQueueDepth.get()) {
+			peakQueueDepth.accumulateAndGet(depth, Math::max);
+		}
+	}
+
+	/**
+	 * Processes the queued requests. The threads are daemons and run as long
+	 * as the server.
+	 */
+	private void run() {
+		try {
+			while (true) {
+				T request = queue.take();
+
+				try {
+					processor.accept(request);
+				} catch (RuntimeException ex) {
+					// Keep the thread serving the other requests.
+					System.err.println(name + ": " + ex);
+				}
+
+				processed.increment();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gets the number of requests processed.
+	 *
+	 * @return the number of requests processed
+	 */
+	long getProcessed() {
+		return processed.sum();
+	}
+
+	/**
+	 * Describes the threads, the queue depth, the peak queue depth since the
+	 * last call and the requests processed, and starts the next period of the
+	 * peak at the current depth.
+	 *
+	 * @return the metrics, on one line
+	 */
+	String takeMetrics() {
+		int depth = queue.size();
+		int peak = Math.max(peakQueueDepth.getAndSet(depth), depth);
+
+		return String.format("%-16s %3d threads %6d/%d queued %6d peak %12d processed", name, threads.length, depth,
+				capacity, peak, getProcessed());
+	}
+}
@@ -19,6 +19,9 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant TRANSACTION_ID_PARAM. */
+	public static final String TRANSACTION_ID_PARAM = "transaction_id";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -54,15 +57,114 @@ public final class BookStoreConstants {
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
+	/** The Constant TRANSACTION. */
+	public static final String TRANSACTION = "The transaction: ";
+
 	/** The Constant PROPERTY_KEY_LOCAL_TEST. */
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 	
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/** The Constant PROPERTY_KEY_LOCK_FREE. */
+	public static final String PROPERTY_KEY_LOCK_FREE = "lockfree";
+
+	/** The Constant PROPERTY_KEY_MULTI_VERSION. */
+	public static final String PROPERTY_KEY_MULTI_VERSION = "multiversion";
+
+	/** The Constant PROPERTY_KEY_STAMPED_LOCK. */
+	public static final String PROPERTY_KEY_STAMPED_LOCK = "stampedlock";
+
+	/** The Constant PROPERTY_KEY_COLUMNAR. */
+	public static final String PROPERTY_KEY_COLUMNAR = "columnar";
+
+	/** The Constant PROPERTY_KEY_CATALOG, the path of the memory-mapped catalog of the columnar store. */
+	public static final String PROPERTY_KEY_CATALOG = "catalog";
+
+	/** The Constant PROPERTY_KEY_FLAT_COMBINING. */
+	public static final String PROPERTY_KEY_FLAT_COMBINING = "flatcombining";
+
+	/** The Constant PROPERTY_KEY_ORDERED_LOCKING. */
+	public static final String PROPERTY_KEY_ORDERED_LOCKING = "orderedlocking";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant DEFAULT_NUM_LOCK_STRIPES used by the two-level locking store. */
+	public static final int DEFAULT_NUM_LOCK_STRIPES = 256;
+
+	/** The Constant PROPERTY_KEY_STAGED_PIPELINE. */
+	public static final String PROPERTY_KEY_STAGED_PIPELINE = "stagedpipeline";
+
+	/** The Constant PROPERTY_KEY_DECODE_THREADS. */
+	public static final String PROPERTY_KEY_DECODE_THREADS = "decodethreads";
+
+	/** The Constant PROPERTY_KEY_EXECUTE_THREADS. */
+	public static final String PROPERTY_KEY_EXECUTE_THREADS = "executethreads";
+
+	/** The Constant PROPERTY_KEY_ENCODE_THREADS. */
+	public static final String PROPERTY_KEY_ENCODE_THREADS = "encodethreads";
+
+	/** The Constant PROPERTY_KEY_STAGE_QUEUE_CAPACITY. */
+	public static final String PROPERTY_KEY_STAGE_QUEUE_CAPACITY = "stagequeuecapacity";
+
+	/** The Constant DEFAULT_DECODE_THREADS of the staged pipeline. */
+	public static final int DEFAULT_DECODE_THREADS = 4;
+
+	/** The Constant DEFAULT_EXECUTE_THREADS of the staged pipeline, for each message class. */
+	public static final int DEFAULT_EXECUTE_THREADS = 4;
+
+	/** The Constant DEFAULT_ENCODE_THREADS of the staged pipeline. */
+	public static final int DEFAULT_ENCODE_THREADS = 4;
+
+	/** The Constant DEFAULT_STAGE_QUEUE_CAPACITY of the staged pipeline. */
+	public static final int DEFAULT_STAGE_QUEUE_CAPACITY = 1024;
+
+	/** The Constant PROPERTY_KEY_PARTITIONS, the number of partitions of the catalog. */
+	public static final String PROPERTY_KEY_PARTITIONS = "partitions";
+
+	/** The Constant ABORT_ATTEMPTS, the times the abort of a purchase is sent to a partition that failed it. */
+	public static final int ABORT_ATTEMPTS = 5;
+
+	/** The Constant ABORT_RETRY_MILLIS, the wait before sending an abort again. */
+	public static final long ABORT_RETRY_MILLIS = 100;
+
+	/** The Constant PROPERTY_KEY_REPLICAS, the comma separated addresses of the replicas of a primary server. */
+	public static final String PROPERTY_KEY_REPLICAS = "replicas";
+
+	/** The Constant PROPERTY_KEY_REPLICA, whether the server is a replica. */
+	public static final String PROPERTY_KEY_REPLICA = "replica";
+
+	/** The Constant MAX_REPLICATION_BATCH, the most writes sent to a replica at once. */
+	public static final int MAX_REPLICATION_BATCH = 256;
+
+	/** The Constant REPLICATION_RETRY_MILLIS, the wait before sending again to a replica that failed. */
+	public static final long REPLICATION_RETRY_MILLIS = 100;
+
+	/** The Constant PROPERTY_KEY_WAL, the path of the write-ahead log of a durable store. */
+	public static final String PROPERTY_KEY_WAL = "wal";
+
+	/** The Constant PROPERTY_KEY_WAL_BATCH, the most writes per flush of the write-ahead log. */
+	public static final String PROPERTY_KEY_WAL_BATCH = "walbatch";
+
+	/** The Constant PROPERTY_KEY_WAL_FLUSH_MICROS, the longest a write waits for others to flush with. */
+	public static final String PROPERTY_KEY_WAL_FLUSH_MICROS = "walflushmicros";
+
+	/** The Constant DEFAULT_WAL_BATCH of the write-ahead log. */
+	public static final int DEFAULT_WAL_BATCH = 256;
+
+	/** The Constant DEFAULT_WAL_FLUSH_MICROS of the write-ahead log, flushing as soon as the flusher is free. */
+	public static final long DEFAULT_WAL_FLUSH_MICROS = 0;
+
+	/** The Constant PROPERTY_KEY_WAL_CHECKPOINT_SECONDS, the time between checkpoints of a durable store. */
+	public static final String PROPERTY_KEY_WAL_CHECKPOINT_SECONDS = "walcheckpointseconds";
+
+	/** The Constant DEFAULT_WAL_CHECKPOINT_SECONDS of a durable store. */
+	public static final long DEFAULT_WAL_CHECKPOINT_SECONDS = 60;
+
+	/** The Constant LOCK_TIMEOUT_SECONDS after which the two-level locking store gives up a lock. */
+	public static final long LOCK_TIMEOUT_SECONDS = 1;
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -4,9 +4,13 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.ImmutableBook;
 import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.MappedBook;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import org.objenesis.strategy.StdInstantiatorStrategy;
@@ -29,6 +33,19 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
 		binaryStream.register(ImmutableStockBook.class);
+
+		// A view of a memory-mapped catalog goes as the book it stands for.
+		binaryStream.addDefaultSerializer(MappedBook.class, new Serializer<Book>() {
+			@Override
+			public void write(Kryo kryo, Output output, Book book) {
+				kryo.writeObject(output, ((MappedBook) book).immutableBook());
+			}
+
+			@Override
+			public Book read(Kryo kryo, Input input, Class<Book> type) {
+				return kryo.readObject(input, ImmutableBook.class);
+			}
+		});
 	}
 
 	/*
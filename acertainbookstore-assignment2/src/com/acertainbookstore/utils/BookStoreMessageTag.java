@@ -34,5 +34,23 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the get books in demand message. */
+	GETBOOKSINDEMAND,
+
+	/** The tag for the prepare buy books message of a two-phase commit. */
+	PREPAREBUYBOOKS,
+
+	/** The tag for the commit buy books message of a two-phase commit. */
+	COMMITBUYBOOKS,
+
+	/** The tag for the abort buy books message of a two-phase commit. */
+	ABORTBUYBOOKS,
+
+	/** The tag for the message counting the editor picks of a partition. */
+	GETNUMEDITORPICKS,
+
+	/** The tag for the message streaming the writes of the primary to a replica. */
+	REPLICATE;
 }
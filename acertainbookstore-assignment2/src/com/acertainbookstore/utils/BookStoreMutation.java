@@ -0,0 +1,94 @@
+package com.acertainbookstore.utils;
+
+import java.util.Set;
+
+/**
+ * {@link BookStoreMutation} is a write committed by the primary bookstore,
+ * streamed to its replicas which apply the writes in the order of their
+ * sequence numbers.
+ */
+public class BookStoreMutation {
+
+	/** The id of the log of the primary, new every time the primary starts. */
+	private long logId;
+
+	/** The sequence number in the log, from 1. */
+	private long sequenceNumber;
+
+	/** The time the primary committed the write, in milliseconds. */
+	private long commitTimeMillis;
+
+	/** The message tag of the write. */
+	private BookStoreMessageTag messageTag;
+
+	/** The argument of the write, or null if it has none. */
+	private Set<?> argument;
+
+	/**
+	 * Instantiates a new {@link BookStoreMutation}.
+	 *
+	 * @param logId
+	 *            the id of the log of the primary
+	 * @param sequenceNumber
+	 *            the sequence number in the log
+	 * @param commitTimeMillis
+	 *            the time the primary committed the write, in milliseconds
+	 * @param messageTag
+	 *            the message tag of the write
+	 * @param argument
+	 *            the argument of the write, or null if it has none
+	 */
+	public BookStoreMutation(long logId, long sequenceNumber, long commitTimeMillis, BookStoreMessageTag messageTag,
+			Set<?> argument) {
+		this.logId = logId;
+		this.sequenceNumber = sequenceNumber;
+		this.commitTimeMillis = commitTimeMillis;
+		this.messageTag = messageTag;
+		this.argument = argument;
+	}
+
+	/**
+	 * Gets the id of the log of the primary.
+	 *
+	 * @return the id of the log
+	 */
+	public long getLogId() {
+		return logId;
+	}
+
+	/**
+	 * Gets the sequence number in the log.
+	 *
+	 * @return the sequence number
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Gets the time the primary committed the write.
+	 *
+	 * @return the commit time, in milliseconds
+	 */
+	public long getCommitTimeMillis() {
+		return commitTimeMillis;
+	}
+
+	/**
+	 * Gets the message tag of the write.
+	 *
+	 * @return the message tag
+	 */
+	public BookStoreMessageTag getMessageTag() {
+		return messageTag;
+	}
+
+	/**
+	 * Gets the argument of the write.
+	 *
+	 * @return the argument, or null if it has none
+	 */
+	public Set<?> getArgument() {
+		return argument;
+	}
+}
@@ -128,6 +128,39 @@ public final class BookStoreUtility {
 		return returnValue;
 	}
 
+	/**
+	 * Converts a string to a long.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the long
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static long convertStringToLong(String str) throws BookStoreException {
+		try {
+			return Long.parseLong(str);
+		} catch (Exception ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
+	/**
+	 * Gets the partition owning the book, when the catalog is hash
+	 * partitioned. The ISBN is mixed first, so that consecutive ISBNs spread
+	 * over the partitions.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numPartitions
+	 *            the number of partitions
+	 * @return the partition, from 0 to <code>numPartitions</code> - 1
+	 */
+	public static int partitionOf(int isbn, int numPartitions) {
+		int hash = isbn * 0x9E3779B9;
+		return Math.floorMod(hash ^ (hash >>> 16), numPartitions);
+	}
+
 	/**
 	 * Convert a request URI to the message tags supported in CertainBookStore.
 	 *
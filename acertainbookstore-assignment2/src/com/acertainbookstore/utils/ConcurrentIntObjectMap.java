@@ -0,0 +1,311 @@
+package com.acertainbookstore.utils;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link ConcurrentIntObjectMap} is the variant of {@link IntObjectMap} that
+ * can be read while it is changed. The writers are serialized by the map, the
+ * readers take no lock and never see a half-written entry.
+ *
+ * A slot goes from empty to holding a key, which never changes afterwards, and
+ * its value is published after the key. Removal leaves a tombstone in the
+ * slot, so probe sequences stay intact for concurrent readers; the tombstones
+ * are dropped when the table is rebuilt, and the rebuilt table is published
+ * with a volatile write.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public final class ConcurrentIntObjectMap<V> {
+
+	/** The default capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The value of a removed entry. */
+	private static final Object TOMBSTONE = new Object();
+
+	/** The table read by the readers. */
+	private volatile Table table;
+
+	/** The number of entries. */
+	private volatile int size = 0;
+
+	/** The number of tombstones in the table, guarded by the map. */
+	private int tombstones = 0;
+
+	/**
+	 * {@link Table} holds the keys and the values of a generation of the map.
+	 */
+	private static final class Table {
+
+		/** The keys. */
+		private final AtomicIntegerArray keys;
+
+		/** The values, null for an empty slot. */
+		private final AtomicReferenceArray<Object> values;
+
+		/** The mask selecting a slot from a hash. */
+		private final int mask;
+
+		private Table(int capacity) {
+			keys = new AtomicIntegerArray(capacity);
+			values = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link ConcurrentIntObjectMap}.
+	 */
+	public ConcurrentIntObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link ConcurrentIntObjectMap} holding
+	 * <code>expectedSize</code> entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public ConcurrentIntObjectMap(int expectedSize) {
+		table = new Table(IntObjectMap.capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the slot holding the key in the table, or -1 if the key is absent.
+	 * The slot may hold a tombstone.
+	 */
+	private static int find(Table table, int key) {
+		int slot = IntObjectMap.slotOf(key, table.mask);
+
+		// The value is read first: once it is set, the key of the slot is set
+		// for good.
+		while (table.values.get(slot) != null) {
+			if (table.keys.get(slot) == key) {
+				return slot;
+			}
+			slot = (slot + 1) & table.mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if the map has no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if the map has an entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is present
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is absent
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Table current = table;
+		int slot = find(current, key);
+
+		if (slot < 0) {
+			return null;
+		}
+
+		Object value = current.values.get(slot);
+		return (value == TOMBSTONE) ? null : (V) value;
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value, or null if the key was absent
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+
+		Table current = table;
+		int slot = find(current, key);
+
+		if (slot >= 0) {
+			// The slot of a removed key is taken back by the same key only.
+			Object previous = current.values.getAndSet(slot, value);
+
+			if (previous != TOMBSTONE) {
+				return (V) previous;
+			}
+			tombstones--;
+			size++;
+			return null;
+		}
+
+		slot = IntObjectMap.slotOf(key, current.mask);
+
+		while (current.values.get(slot) != null) {
+			slot = (slot + 1) & current.mask;
+		}
+
+		current.keys.set(slot, key);
+		current.values.set(slot, value);
+		size++;
+
+		if ((size + tombstones) * 2 > current.values.length()) {
+			rebuild(size * 2 > current.values.length() / 2 ? current.values.length() << 1
+					: current.values.length());
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the entry of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if the key was absent
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V remove(int key) {
+		Table current = table;
+		int slot = find(current, key);
+
+		if (slot < 0 || current.values.get(slot) == TOMBSTONE) {
+			return null;
+		}
+
+		V previous = (V) current.values.getAndSet(slot, TOMBSTONE);
+		tombstones++;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public synchronized void clear() {
+		table = new Table(DEFAULT_CAPACITY);
+		tombstones = 0;
+		size = 0;
+	}
+
+	/**
+	 * Copies the live entries into a new table and publishes it.
+	 */
+	private void rebuild(int capacity) {
+		Table current = table;
+		Table rebuilt = new Table(capacity);
+
+		for (int i = 0; i < current.values.length(); i++) {
+			Object value = current.values.get(i);
+
+			if (value != null && value != TOMBSTONE) {
+				int key = current.keys.get(i);
+				int slot = IntObjectMap.slotOf(key, rebuilt.mask);
+
+				while (rebuilt.values.get(slot) != null) {
+					slot = (slot + 1) & rebuilt.mask;
+				}
+				rebuilt.keys.set(slot, key);
+				rebuilt.values.set(slot, value);
+			}
+		}
+
+		tombstones = 0;
+		table = rebuilt;
+	}
+
+	/**
+	 * Gets a view of the values. An iterator walks the table current when it
+	 * was created and may or may not see the changes made while it runs.
+	 *
+	 * @return the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					private final Table snapshot = table;
+
+					private Object nextValue;
+
+					private int slot = 0;
+
+					{
+						advance();
+					}
+
+					private void advance() {
+						nextValue = null;
+
+						while (nextValue == null && slot < snapshot.values.length()) {
+							Object value = snapshot.values.get(slot++);
+
+							if (value != null && value != TOMBSTONE) {
+								nextValue = value;
+							}
+						}
+					}
+
+					@Override
+					public boolean hasNext() {
+						return nextValue != null;
+					}
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public V next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						V value = (V) nextValue;
+						advance();
+						return value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
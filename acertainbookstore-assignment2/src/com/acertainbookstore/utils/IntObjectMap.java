@@ -0,0 +1,290 @@
+package com.acertainbookstore.utils;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntObjectMap} is a hash map from primitive int keys to objects, used
+ * to index the books by ISBN. It uses open addressing with linear probing over
+ * two parallel arrays, so lookups neither box the key nor follow a pointer to
+ * an entry node, and an entry costs one int and one reference.
+ *
+ * A slot is empty when its value is null, so null values are not allowed.
+ * Removal shifts the following entries of the probe sequence back instead of
+ * leaving tombstones. The map is not thread-safe.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public final class IntObjectMap<V> {
+
+	/** The default capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The keys. */
+	private int[] keys;
+
+	/** The values, null for an empty slot. */
+	private Object[] values;
+
+	/** The number of entries. */
+	private int size = 0;
+
+	/** The mask selecting a slot from a hash. */
+	private int mask;
+
+	/**
+	 * Instantiates a new {@link IntObjectMap}.
+	 */
+	public IntObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link IntObjectMap} holding
+	 * <code>expectedSize</code> entries without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public IntObjectMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the table capacity keeping the load factor at most one half.
+	 */
+	static int capacityFor(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize = " + expectedSize + ", but it must not be negative");
+		}
+
+		int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, DEFAULT_CAPACITY - 1)) << 1;
+
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("expectedSize = " + expectedSize + " is too large");
+		}
+		return capacity;
+	}
+
+	/**
+	 * Gets the home slot of the key. ISBNs are often consecutive, so the key is
+	 * spread before masking.
+	 */
+	static int slotOf(int key, int mask) {
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Gets the slot holding the key, or -1 if the key is absent.
+	 */
+	private int find(int key) {
+		int slot = slotOf(key, mask);
+
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if the map has no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks if the map has an entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is present
+	 */
+	public boolean containsKey(int key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Gets the value of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is absent
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int slot = find(key);
+		return (slot < 0) ? null : (V) values[slot];
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value, or null if the key was absent
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+
+		int slot = slotOf(key, mask);
+
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V previous = (V) values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+
+		if (++size * 2 > values.length) {
+			resize(values.length << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the entry of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if the key was absent
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = find(key);
+
+		if (slot < 0) {
+			return null;
+		}
+
+		V previous = (V) values[slot];
+		size--;
+
+		// Shift back the entries after the hole that could not be stored at
+		// their home slot, so that no probe sequence is broken.
+		int hole = slot;
+		slot = (slot + 1) & mask;
+
+		while (values[slot] != null) {
+			int home = slotOf(keys[slot], mask);
+
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = keys[slot];
+				values[hole] = values[slot];
+				hole = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		values[hole] = null;
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public void clear() {
+		allocate(DEFAULT_CAPACITY);
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slotOf(oldKeys[i], mask);
+
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets a view of the values. The view must not be used while the map is
+	 * changed.
+	 *
+	 * @return the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					private int next = advance(0);
+
+					private int advance(int slot) {
+						while (slot < values.length && values[slot] == null) {
+							slot++;
+						}
+						return slot;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < values.length;
+					}
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public V next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						V value = (V) values[next];
+						next = advance(next + 1);
+						return value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,79 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * {@link SaleMissIndex} keeps the books that had sale misses since they were
+ * last restocked, ordered by ISBN. The stores add a book when they record a
+ * sale miss and take it out when its copies are added, so the books in demand
+ * are listed in O(#in-demand) instead of scanning the catalog.
+ *
+ * The index is thread-safe and reads take no lock: a read sees every change
+ * completed before it started and maybe some of those in progress.
+ *
+ * @param <T>
+ *            the type of the indexed books
+ */
+public final class SaleMissIndex<T> {
+
+	/** The books in demand by ISBN. */
+	private final ConcurrentSkipListMap<Integer, T> books = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Puts the book in or out of the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book
+	 * @param inDemand
+	 *            true, if the book had sale misses
+	 */
+	public void update(int isbn, T book, boolean inDemand) {
+		if (inDemand) {
+			add(isbn, book);
+		} else {
+			remove(isbn);
+		}
+	}
+
+	/**
+	 * Adds the book, or replaces the indexed one with the same ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book
+	 */
+	public void add(int isbn, T book) {
+		books.put(isbn, book);
+	}
+
+	/**
+	 * Removes the book, if it is indexed.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public void remove(int isbn) {
+		books.remove(isbn);
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	public void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Gets the books in demand.
+	 *
+	 * @return the books, by ISBN
+	 */
+	public List<T> books() {
+		return new ArrayList<>(books.values());
+	}
+}
@@ -0,0 +1,304 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link StockSnapshot} reads and writes the snapshot of the stock taken by a
+ * checkpoint, in a compact binary format.
+ *
+ * The snapshot starts with a header: a magic number, the format version, the
+ * sequence number of the last write of the log it holds, the number of books
+ * and the offset of the index. The books follow in chunks, each a run of
+ * records of the ISBN, price, copies, sale misses, ratings, editor pick, and
+ * the UTF-8 title and author prefixed by their lengths. The index at the end
+ * gives the offset, length, number of books and CRC32 of every chunk, so that
+ * the chunks are memory-mapped and decoded in parallel on loading.
+ *
+ * A snapshot is written next to its path and renamed into place once it is
+ * forced to disk, so that a crash leaves either the previous snapshot or the
+ * new one.
+ */
+public final class StockSnapshot {
+
+	/** The magic number of a snapshot, "BKSS". */
+	private static final int MAGIC = 0x424B5353;
+
+	/** The version of the format. */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size of the header: the magic number, version, sequence number,
+	 * number of books and offset of the index.
+	 */
+	private static final int HEADER_BYTES = 2 * Integer.BYTES + 3 * Long.BYTES;
+
+	/** The size of an entry of the index: the offset, length, books and CRC32. */
+	private static final int INDEX_ENTRY_BYTES = Long.BYTES + 3 * Integer.BYTES;
+
+	/** The most books per chunk. */
+	private static final int BOOKS_PER_CHUNK = 1 << 16;
+
+	/**
+	 * Instantiates a new {@link StockSnapshot}, never: it only has static
+	 * methods.
+	 */
+	private StockSnapshot() {
+	}
+
+	/**
+	 * Writes the snapshot of the books, replacing the previous one.
+	 *
+	 * @param path
+	 *            the path of the snapshot
+	 * @param sequence
+	 *            the sequence number of the last write of the log the books
+	 *            hold
+	 * @param books
+	 *            the books
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void write(Path path, long sequence, List<StockBook> books) throws IOException {
+		Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+		int numChunks = (books.size() + BOOKS_PER_CHUNK - 1) / BOOKS_PER_CHUNK;
+		ByteBuffer index = ByteBuffer.allocate(Integer.BYTES + numChunks * INDEX_ENTRY_BYTES);
+		index.putInt(numChunks);
+
+		try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			CRC32 crc = new CRC32();
+			long offset = HEADER_BYTES;
+
+			for (int from = 0; from < books.size(); from += BOOKS_PER_CHUNK) {
+				List<StockBook> chunk = books.subList(from, Math.min(from + BOOKS_PER_CHUNK, books.size()));
+				bytes.reset();
+
+				for (StockBook book : chunk) {
+					encode(book, out);
+				}
+
+				out.flush();
+				byte[] encoded = bytes.toByteArray();
+				crc.reset();
+				crc.update(encoded);
+				writeFully(channel, ByteBuffer.wrap(encoded), offset);
+				index.putLong(offset).putInt(encoded.length).putInt(chunk.size()).putInt((int) crc.getValue());
+				offset += encoded.length;
+			}
+
+			index.flip();
+			writeFully(channel, index, offset);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putLong(sequence).putLong(books.size()).putLong(offset).flip();
+			writeFully(channel, header, 0);
+			channel.force(true);
+		}
+
+		Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+		WriteAheadLog.forceDirectory(path);
+	}
+
+	/**
+	 * Encodes a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void encode(StockBook book, DataOutputStream out) throws IOException {
+		byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+		byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+
+		out.writeInt(book.getISBN());
+		out.writeFloat(book.getPrice());
+		out.writeInt(book.getNumCopies());
+		out.writeLong(book.getNumSaleMisses());
+		out.writeLong(book.getNumTimesRated());
+		out.writeLong(book.getTotalRating());
+		out.writeBoolean(book.isEditorPick());
+		out.writeInt(title.length);
+		out.write(title);
+		out.writeInt(author.length);
+		out.write(author);
+	}
+
+	/**
+	 * Writes the whole buffer at the position of the channel.
+	 *
+	 * @param channel
+	 *            the channel
+	 * @param buffer
+	 *            the buffer
+	 * @param position
+	 *            the position
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Loads the snapshot, if there is one. The chunks are memory-mapped and
+	 * decoded by <code>numThreads</code> threads, and handed to
+	 * <code>loaded</code> in order by the calling thread, at most a few per
+	 * thread ahead of it.
+	 *
+	 * @param path
+	 *            the path of the snapshot
+	 * @param numThreads
+	 *            the number of threads decoding the chunks
+	 * @param loaded
+	 *            takes the books of every chunk
+	 * @return the sequence number of the last write of the log the snapshot
+	 *         holds, or 0 if there is no snapshot
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred, or the snapshot
+	 *             is corrupt.
+	 */
+	public static long read(Path path, int numThreads, Consumer<Set<StockBook>> loaded) throws IOException {
+		if (!Files.exists(path)) {
+			return 0;
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES) {
+				throw new IOException("The snapshot " + path + " is corrupt");
+			}
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("The snapshot " + path + " is corrupt");
+			}
+
+			long sequence = header.getLong();
+			header.getLong(); // The number of books.
+			long indexOffset = header.getLong();
+
+			MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+					channel.size() - indexOffset);
+			int numChunks = index.getInt();
+			ExecutorService exec = Executors.newFixedThreadPool(numThreads, runnable -> {
+				Thread thread = new Thread(runnable, "snapshot-loader");
+				thread.setDaemon(true);
+				return thread;
+			});
+			Deque<Future<Set<StockBook>>> decoding = new ArrayDeque<>();
+
+			try {
+				for (int i = 0; i < numChunks || !decoding.isEmpty();) {
+					if (i < numChunks && decoding.size() < 2 * numThreads) {
+						long offset = index.getLong();
+						int length = index.getInt();
+						int numBooks = index.getInt();
+						int checksum = index.getInt();
+						MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+						decoding.add(exec.submit(() -> decode(path, chunk, numBooks, checksum)));
+						i++;
+					} else {
+						loaded.accept(decoding.poll().get());
+					}
+				}
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof IOException) {
+					throw (IOException) ex.getCause();
+				}
+
+				throw new IOException(ex.getCause());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException(ex);
+			} finally {
+				exec.shutdownNow();
+			}
+
+			return sequence;
+		}
+	}
+
+	/**
+	 * Decodes the books of a chunk.
+	 *
+	 * @param path
+	 *            the path of the snapshot
+	 * @param chunk
+	 *            the chunk
+	 * @param numBooks
+	 *            the number of books in the chunk
+	 * @param checksum
+	 *            the CRC32 of the chunk
+	 * @return the books
+	 * @throws IOException
+	 *             if the chunk is corrupt
+	 */
+	private static Set<StockBook> decode(Path path, ByteBuffer chunk, int numBooks, int checksum)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(chunk.duplicate());
+
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("The snapshot " + path + " is corrupt");
+		}
+
+		Set<StockBook> books = new HashSet<>(2 * numBooks);
+		byte[] text = new byte[256];
+
+		for (int i = 0; i < numBooks; i++) {
+			int isbn = chunk.getInt();
+			float price = chunk.getFloat();
+			int numCopies = chunk.getInt();
+			long numSaleMisses = chunk.getLong();
+			long numTimesRated = chunk.getLong();
+			long totalRating = chunk.getLong();
+			boolean editorPick = chunk.get() != 0;
+
+			int length = chunk.getInt();
+			text = (length > text.length) ? new byte[length] : text;
+			chunk.get(text, 0, length);
+			String title = new String(text, 0, length, StandardCharsets.UTF_8);
+
+			length = chunk.getInt();
+			text = (length > text.length) ? new byte[length] : text;
+			chunk.get(text, 0, length);
+			String author = new String(text, 0, length, StandardCharsets.UTF_8);
+
+			books.add(new ImmutableStockBook(isbn, title, author, price, numCopies, numSaleMisses, numTimesRated,
+					totalRating, editorPick));
+		}
+
+		return books;
+	}
+}
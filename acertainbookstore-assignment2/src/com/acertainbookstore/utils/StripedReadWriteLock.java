@@ -0,0 +1,114 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link StripedReadWriteLock} maps ISBNs onto a fixed, power-of-two sized
+ * table of read-write locks. Every ISBN hashing to the same stripe shares the
+ * same lock, so the memory used by the locks does not grow with the catalog
+ * and finding the lock of a book is an array access.
+ *
+ * The state every thread writes when it takes a lock is not in the
+ * {@link ReentrantReadWriteLock} itself but in its synchronizer, a separate
+ * object its constructor allocates right after it. So that the synchronizers
+ * of neighbouring stripes do not share a cache line, every lock is a
+ * {@link PaddedReadWriteLock}, ending with {@link #PADDING_BYTES} of padding
+ * fields: the padding is part of the lock, so it moves with it, and lies
+ * between the synchronizer of a stripe and that of the stripe before as long
+ * as a synchronizer follows its lock. The allocator places it so, and the
+ * HotSpot collectors usually keep it so, as they copy the objects an object
+ * references right after it. Padding does not change which stripe an ISBN
+ * maps to, only where the locks lie in memory.
+ */
+public final class StripedReadWriteLock {
+
+	/** The bytes of padding at the end of every lock, two cache lines. */
+	static final int PADDING_BYTES = 16 * Long.BYTES;
+
+	/**
+	 * {@link PaddedReadWriteLock} is a {@link ReentrantReadWriteLock} ending
+	 * with {@link #PADDING_BYTES} of fields never used.
+	 */
+	@SuppressWarnings("unused")
+	private static final class PaddedReadWriteLock extends ReentrantReadWriteLock {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/** The padding. */
+		private long p00, p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+	}
+
+	/** The stripes. */
+	private final ReadWriteLock[] stripes;
+
+	/** The mask selecting a stripe from a hash. */
+	private final int mask;
+
+	/**
+	 * Instantiates a new {@link StripedReadWriteLock}.
+	 *
+	 * @param numStripes
+	 *            the minimum number of stripes, rounded up to a power of two
+	 */
+	public StripedReadWriteLock(int numStripes) {
+		if (numStripes < 1) {
+			throw new IllegalArgumentException("numStripes = " + numStripes + ", but it must be positive");
+		}
+
+		int size = Integer.highestOneBit(numStripes);
+		size = (size < numStripes) ? size << 1 : size;
+
+		stripes = new ReadWriteLock[size];
+		mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new PaddedReadWriteLock();
+		}
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the number of stripes
+	 */
+	public int size() {
+		return stripes.length;
+	}
+
+	/**
+	 * Gets the index of the stripe guarding the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	public int stripeOf(int isbn) {
+		// ISBNs are often consecutive, so spread them before masking.
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Gets the lock guarding the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the lock
+	 */
+	public ReadWriteLock get(int isbn) {
+		return stripes[stripeOf(isbn)];
+	}
+
+	/**
+	 * Gets the lock of a stripe.
+	 *
+	 * @param stripe
+	 *            the stripe index
+	 * @return the lock
+	 */
+	public ReadWriteLock getStripe(int stripe) {
+		return stripes[stripe];
+	}
+}
@@ -0,0 +1,568 @@
+package com.acertainbookstore.utils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link WriteAheadLog} is an append-only log of the writes of a bookstore,
+ * forced to disk with group commit.
+ *
+ * The writers append their records and wait until the records are durable. A
+ * flusher thread writes the pending records through a {@link FileChannel} and
+ * forces them to disk, up to <code>maxBatchRecords</code> records per
+ * <code>force()</code>. It flushes as soon as <code>maxBatchRecords</code>
+ * records are pending, or once the oldest pending record has waited
+ * <code>flushIntervalMicros</code>; with no interval it flushes whatever is
+ * pending, and the records appended during a flush go with the next one.
+ *
+ * Every record is framed by its length and CRC32. On opening, the records in
+ * the log are handed back in order, and a torn record at the end, left by a
+ * crash in the middle of a flush, is cut off.
+ *
+ * The log is a chain of segments. The records are appended to the segment at
+ * the path of the log, which {@link #roll()} seals by renaming it after the
+ * sequence number of its last record, e.g. <code>bookstore.wal.1234</code>,
+ * and a new segment takes its place. Once a checkpoint holds the writes of
+ * the sealed segments, {@link #discardThrough(long)} deletes them.
+ */
+public final class WriteAheadLog implements Closeable {
+
+	/** The size of the frame header: the length and CRC32 of the record. */
+	private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+	/** The path of the segment appended to. */
+	private final Path path;
+
+	/** The channel of the segment appended to, used by the flusher only. */
+	private FileChannel channel;
+
+	/** The serializer, used under the lock. */
+	private final BookStoreSerializer serializer = new BookStoreKryoSerializer();
+
+	/** The most records per flush. */
+	private final int maxBatchRecords;
+
+	/** The longest a record waits for other records to flush with. */
+	private final long flushIntervalNanos;
+
+	/** The lock. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signals the flusher that records are pending, or the log closed. */
+	private final Condition recordsPending = lock.newCondition();
+
+	/** Signals the writers that records are durable, or the log failed. */
+	private final Condition recordsDurable = lock.newCondition();
+
+	/** The framed records waiting for a flush. */
+	private final Deque<ByteBuffer> pendingRecords = new ArrayDeque<>();
+
+	/** The time the oldest pending record started waiting, in nanoseconds. */
+	private long oldestPendingNanos;
+
+	/** The sequence number of the last record appended. */
+	private long appendedSequence;
+
+	/** The sequence number of the last record forced to disk. */
+	private long durableSequence;
+
+	/** The number of flushes. */
+	private long flushes = 0;
+
+	/** The exception of the flush that failed, after which nothing is durable. */
+	private IOException failure = null;
+
+	/** Whether the log is closed. */
+	private boolean closed = false;
+
+	/** Whether {@link #roll()} waits for the flusher to seal the segment. */
+	private boolean rollRequested = false;
+
+	/** The sequence number of the last record of the last sealed segment. */
+	private long sealedSequence;
+
+	/** The flusher thread. */
+	private final Thread flusher;
+
+	/**
+	 * Opens the log, creating it if needed, hands its records after
+	 * <code>startSequence</code> back in order and starts the flusher.
+	 *
+	 * @param path
+	 *            the path of the log
+	 * @param startSequence
+	 *            the sequence number of the last write already recovered, by a
+	 *            checkpoint, or 0
+	 * @param maxBatchRecords
+	 *            the most records per flush
+	 * @param flushIntervalMicros
+	 *            the longest a record waits for other records to flush with,
+	 *            0 to flush as soon as the flusher is free
+	 * @param recovered
+	 *            takes the records in the log
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public WriteAheadLog(Path path, long startSequence, int maxBatchRecords, long flushIntervalMicros,
+			Consumer<BookStoreMutation> recovered) throws IOException {
+		if (maxBatchRecords < 1 || flushIntervalMicros < 0) {
+			throw new IllegalArgumentException("maxBatchRecords = " + maxBatchRecords + ", flushIntervalMicros = "
+					+ flushIntervalMicros + ", but they must be positive");
+		}
+
+		this.path = path;
+		this.maxBatchRecords = maxBatchRecords;
+		flushIntervalNanos = TimeUnit.MICROSECONDS.toNanos(flushIntervalMicros);
+		appendedSequence = startSequence;
+
+		for (Path segment : sealedSegments().values()) {
+			try (FileChannel sealed = FileChannel.open(segment, StandardOpenOption.READ)) {
+				recover(sealed, recovered);
+			}
+		}
+
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			long end = recover(channel, recovered);
+			channel.truncate(end);
+			channel.position(end);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+
+		durableSequence = appendedSequence;
+		sealedSequence = startSequence;
+		flusher = new Thread(this::flush, "wal-flusher-" + path.getFileName());
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Finds the sealed segments of the log.
+	 *
+	 * @return the sealed segments by the sequence number of their last record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private TreeMap<Long, Path> sealedSegments() throws IOException {
+		TreeMap<Long, Path> segments = new TreeMap<>();
+		String prefix = path.getFileName() + ".";
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(path.toAbsolutePath().getParent(),
+				prefix + "*")) {
+			for (Path file : files) {
+				try {
+					segments.put(Long.parseLong(file.getFileName().toString().substring(prefix.length())), file);
+				} catch (NumberFormatException ex) {
+					// Not a segment, e.g. the snapshot of a checkpoint.
+				}
+			}
+		}
+
+		return segments;
+	}
+
+	/**
+	 * Reads the records in a segment up to the first torn one, if any, and
+	 * hands back those after the last one recovered.
+	 *
+	 * @param channel
+	 *            the channel of the segment
+	 * @param recovered
+	 *            takes the records
+	 * @return the end of the last whole record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long recover(FileChannel channel, Consumer<BookStoreMutation> recovered) throws IOException {
+		long end = 0;
+		long size = channel.size();
+
+		// Not closed, that would close the channel.
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		CRC32 crc = new CRC32();
+
+		while (end + HEADER_BYTES <= size) {
+			int length;
+			int checksum;
+			byte[] record;
+
+			try {
+				length = in.readInt();
+				checksum = in.readInt();
+
+				if (length <= 0 || end + HEADER_BYTES + length > size) {
+					break;
+				}
+
+				record = new byte[length];
+				in.readFully(record);
+			} catch (EOFException ex) {
+				break;
+			}
+
+			crc.reset();
+			crc.update(record);
+
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			BookStoreMutation mutation = (BookStoreMutation) serializer.deserialize(record);
+
+			if (mutation.getSequenceNumber() > appendedSequence) {
+				recovered.accept(mutation);
+				appendedSequence = mutation.getSequenceNumber();
+			}
+
+			end += HEADER_BYTES + length;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Appends a record of the write. It is durable once
+	 * {@link #awaitDurable(long)} returns.
+	 *
+	 * @param messageTag
+	 *            the message tag of the write
+	 * @param argument
+	 *            the argument of the write, or null if it has none
+	 * @return the sequence number of the record
+	 * @throws BookStoreException
+	 *             if the log is closed or failed
+	 */
+	public long append(BookStoreMessageTag messageTag, Set<?> argument) throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (closed || failure != null) {
+				throw new BookStoreException("The write-ahead log is closed", failure);
+			}
+
+			long sequence = appendedSequence + 1;
+			byte[] record = serializer
+					.serialize(new BookStoreMutation(0, sequence, System.currentTimeMillis(), messageTag, argument));
+			CRC32 crc = new CRC32();
+			crc.update(record);
+
+			ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + record.length);
+			frame.putInt(record.length).putInt((int) crc.getValue()).put(record).flip();
+
+			if (pendingRecords.isEmpty()) {
+				oldestPendingNanos = System.nanoTime();
+				recordsPending.signal();
+			} else if (pendingRecords.size() + 1 == maxBatchRecords) {
+				recordsPending.signal();
+			}
+
+			pendingRecords.add(frame);
+			appendedSequence = sequence;
+			return sequence;
+		} catch (IOException ex) {
+			throw new BookStoreException("Serialization error", ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the record is forced to disk.
+	 *
+	 * @param sequence
+	 *            the sequence number of the record
+	 * @throws BookStoreException
+	 *             if the log failed before the record was forced to disk
+	 */
+	public void awaitDurable(long sequence) throws BookStoreException {
+		lock.lock();
+
+		try {
+			while (durableSequence < sequence && failure == null) {
+				recordsDurable.await();
+			}
+
+			if (durableSequence < sequence) {
+				throw new BookStoreException("The write-ahead log failed", failure);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forces the pending records to disk, batch by batch, and seals the
+	 * segment when asked to, until the log is closed.
+	 */
+	private void flush() {
+		ByteBuffer[] batch = new ByteBuffer[maxBatchRecords];
+
+		while (true) {
+			int batchRecords = 0;
+			long batchSequence;
+			boolean rolling;
+
+			lock.lock();
+
+			try {
+				while (pendingRecords.isEmpty() && !closed && !rollRequested) {
+					recordsPending.awaitUninterruptibly();
+				}
+
+				rolling = rollRequested;
+
+				if (rolling) {
+					// Between flushes, the segment ends with the last durable record.
+					batchSequence = durableSequence;
+				} else if (pendingRecords.isEmpty()) {
+					return;
+				} else {
+					// Wait for more records to share the force() with.
+					long waitNanos = oldestPendingNanos + flushIntervalNanos - System.nanoTime();
+
+					while (pendingRecords.size() < maxBatchRecords && !closed && waitNanos > 0) {
+						try {
+							waitNanos = recordsPending.awaitNanos(waitNanos);
+						} catch (InterruptedException ex) {
+							// Only close() stops the flusher.
+						}
+					}
+
+					while (batchRecords < maxBatchRecords && !pendingRecords.isEmpty()) {
+						batch[batchRecords++] = pendingRecords.poll();
+					}
+
+					batchSequence = appendedSequence - pendingRecords.size();
+					oldestPendingNanos = System.nanoTime();
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			IOException flushFailure = null;
+
+			try {
+				if (rolling) {
+					seal(batchSequence);
+				} else {
+					// The channel writes at its position, at the end of the log.
+					long remaining = 0;
+
+					for (int i = 0; i < batchRecords; i++) {
+						remaining += batch[i].remaining();
+					}
+
+					while (remaining > 0) {
+						remaining -= channel.write(batch, 0, batchRecords);
+					}
+
+					channel.force(false);
+				}
+			} catch (IOException ex) {
+				flushFailure = ex;
+			}
+
+			lock.lock();
+
+			try {
+				if (flushFailure != null) {
+					failure = flushFailure;
+				} else if (rolling) {
+					sealedSequence = batchSequence;
+				} else {
+					durableSequence = batchSequence;
+					flushes++;
+				}
+
+				if (rolling) {
+					rollRequested = false;
+				}
+
+				recordsDurable.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			Arrays.fill(batch, 0, batchRecords, null);
+
+			if (flushFailure != null) {
+				System.err.println("The write-ahead log failed: " + flushFailure);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Renames the segment after its last record and starts a new one at the
+	 * path of the log, unless the segment is empty.
+	 *
+	 * @param lastSequence
+	 *            the sequence number of the last record of the segment
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void seal(long lastSequence) throws IOException {
+		if (channel.size() == 0) {
+			return;
+		}
+
+		channel.close();
+		Files.move(path, path.resolveSibling(path.getFileName() + "." + lastSequence),
+				StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		forceDirectory(path);
+	}
+
+	/**
+	 * Forces the directory of a file to disk, so that the file renamed,
+	 * created or deleted stays so after a crash.
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static void forceDirectory(Path path) throws IOException {
+		try (FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+	}
+
+	/**
+	 * Seals the segment appended to, once its pending records are durable.
+	 * The records appended meanwhile go to the next segment.
+	 *
+	 * @return the sequence number of the last record sealed, every write up
+	 *         to which is durable
+	 * @throws BookStoreException
+	 *             if the log is closed or failed
+	 */
+	public long roll() throws BookStoreException {
+		lock.lock();
+
+		try {
+			if (closed || failure != null) {
+				throw new BookStoreException("The write-ahead log is closed", failure);
+			}
+
+			rollRequested = true;
+			recordsPending.signal();
+
+			while (rollRequested && failure == null) {
+				recordsDurable.awaitUninterruptibly();
+			}
+
+			if (failure != null) {
+				throw new BookStoreException("The write-ahead log failed", failure);
+			}
+
+			return sealedSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes the sealed segments whose records are all up to the sequence
+	 * number, once a checkpoint holds their writes.
+	 *
+	 * @param sequence
+	 *            the sequence number of the last write of the checkpoint
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void discardThrough(long sequence) throws IOException {
+		for (Path segment : sealedSegments().headMap(sequence, true).values()) {
+			Files.delete(segment);
+		}
+
+		forceDirectory(path);
+	}
+
+	/**
+	 * Gets the sequence number of the last record appended.
+	 *
+	 * @return the sequence number
+	 */
+	public long getAppendedSequence() {
+		lock.lock();
+
+		try {
+			return appendedSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of flushes, each forcing a batch of records to disk.
+	 *
+	 * @return the number of flushes
+	 */
+	public long getFlushes() {
+		lock.lock();
+
+		try {
+			return flushes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes the pending records and closes the log.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+
+		try {
+			closed = true;
+			recordsPending.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			flusher.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		channel.close();
+	}
+}
@@ -0,0 +1,13 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link BookField} names the text fields of a book that can be searched.
+ */
+public enum BookField {
+
+	/** The title. */
+	TITLE,
+
+	/** The author. */
+	AUTHOR;
+}
@@ -0,0 +1,245 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link BookQuery} is used to represent a query of the stock, evaluated by
+ * the server so that only the matching books are sent. A query is a
+ * conjunction of the conditions set on it, a limit of the number of books,
+ * and a projection of the fields sent. A new query matches every book, and
+ * the conditions are set with the <code>with</code> methods, which return the
+ * query so that they can be chained:
+ *
+ * <pre>
+ * new BookQuery().withCopiesBetween(0, 5).withEditorPick(true).withLimit(100)
+ * </pre>
+ */
+public final class BookQuery {
+
+	/**
+	 * {@link Projection} selects the fields of the books sent.
+	 */
+	public enum Projection {
+
+		/** All the fields. */
+		ALL,
+
+		/** All the fields but the title and the author, which are empty. */
+		STOCK;
+	}
+
+	/** The least price, inclusive. */
+	private float minPrice = Float.NEGATIVE_INFINITY;
+
+	/** The highest price, inclusive. */
+	private float maxPrice = Float.POSITIVE_INFINITY;
+
+	/** The least number of copies, inclusive. */
+	private int minCopies = 0;
+
+	/** The most number of copies, inclusive. */
+	private int maxCopies = Integer.MAX_VALUE;
+
+	/** The least number of sale misses. */
+	private long minSaleMisses = 0;
+
+	/** The least average rating, which is -1 for a book never rated. */
+	private float minAverageRating = Float.NEGATIVE_INFINITY;
+
+	/** Whether the books must be editor picks or not, or null for either. */
+	private Boolean editorPick = null;
+
+	/** The most number of books. */
+	private int limit = Integer.MAX_VALUE;
+
+	/** The projection. */
+	private Projection projection = Projection.ALL;
+
+	/**
+	 * Restricts the query to the books with a price in a range.
+	 *
+	 * @param minPrice
+	 *            the least price, inclusive
+	 * @param maxPrice
+	 *            the highest price, inclusive
+	 * @return the query
+	 */
+	public BookQuery withPriceBetween(float minPrice, float maxPrice) {
+		this.minPrice = minPrice;
+		this.maxPrice = maxPrice;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to the books with a number of copies in a range.
+	 *
+	 * @param minCopies
+	 *            the least number of copies, inclusive
+	 * @param maxCopies
+	 *            the most number of copies, inclusive
+	 * @return the query
+	 */
+	public BookQuery withCopiesBetween(int minCopies, int maxCopies) {
+		this.minCopies = minCopies;
+		this.maxCopies = maxCopies;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to the books with at least a number of sale misses.
+	 *
+	 * @param minSaleMisses
+	 *            the least number of sale misses
+	 * @return the query
+	 */
+	public BookQuery withSaleMissesAtLeast(long minSaleMisses) {
+		this.minSaleMisses = minSaleMisses;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to the books rated at least a rating on average.
+	 *
+	 * @param minAverageRating
+	 *            the least average rating
+	 * @return the query
+	 */
+	public BookQuery withAverageRatingAtLeast(float minAverageRating) {
+		this.minAverageRating = minAverageRating;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to the editor picks, or to the other books.
+	 *
+	 * @param editorPick
+	 *            whether the books must be editor picks
+	 * @return the query
+	 */
+	public BookQuery withEditorPick(boolean editorPick) {
+		this.editorPick = editorPick;
+		return this;
+	}
+
+	/**
+	 * Limits the number of books returned.
+	 *
+	 * @param limit
+	 *            the most number of books
+	 * @return the query
+	 */
+	public BookQuery withLimit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * Sets the fields of the books returned.
+	 *
+	 * @param projection
+	 *            the projection
+	 * @return the query
+	 */
+	public BookQuery withProjection(Projection projection) {
+		this.projection = projection;
+		return this;
+	}
+
+	/**
+	 * Gets the least price.
+	 *
+	 * @return the least price
+	 */
+	public float getMinPrice() {
+		return minPrice;
+	}
+
+	/**
+	 * Gets the highest price.
+	 *
+	 * @return the highest price
+	 */
+	public float getMaxPrice() {
+		return maxPrice;
+	}
+
+	/**
+	 * Gets the least number of copies.
+	 *
+	 * @return the least number of copies
+	 */
+	public int getMinCopies() {
+		return minCopies;
+	}
+
+	/**
+	 * Gets the most number of copies.
+	 *
+	 * @return the most number of copies
+	 */
+	public int getMaxCopies() {
+		return maxCopies;
+	}
+
+	/**
+	 * Gets the least number of sale misses.
+	 *
+	 * @return the least number of sale misses
+	 */
+	public long getMinSaleMisses() {
+		return minSaleMisses;
+	}
+
+	/**
+	 * Gets whether the books must be editor picks or not.
+	 *
+	 * @return the editor pick status, or null for either
+	 */
+	public Boolean getEditorPick() {
+		return editorPick;
+	}
+
+	/**
+	 * Gets the most number of books.
+	 *
+	 * @return the limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Gets the projection.
+	 *
+	 * @return the projection
+	 */
+	public Projection getProjection() {
+		return projection;
+	}
+
+	/**
+	 * Checks whether a book meets all the conditions of the query.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book matches
+	 */
+	public boolean matches(StockBook book) {
+		float price = book.getPrice();
+		int numCopies = book.getNumCopies();
+
+		return price >= minPrice && price <= maxPrice && numCopies >= minCopies && numCopies <= maxCopies
+				&& book.getNumSaleMisses() >= minSaleMisses && book.getAverageRating() >= minAverageRating
+				&& (editorPick == null || editorPick == book.isEditorPick());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Price = [" + minPrice + ", " + maxPrice + "], Copies = [" + minCopies + ", " + maxCopies
+				+ "], Sale misses >= " + minSaleMisses + ", Average rating >= " + minAverageRating
+				+ ", Editor pick = " + editorPick + ", Limit = " + limit + ", Projection = " + projection;
+	}
+}
@@ -11,7 +11,7 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * @see StockBook
  * @see ImmutableBook
  */
-public class BookStoreBook extends ImmutableBook {
+public class BookStoreBook extends ImmutableBook implements StockBook {
 
 	/** The number of copies. */
 	private int numCopies;
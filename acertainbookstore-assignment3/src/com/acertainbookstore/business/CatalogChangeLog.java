@@ -0,0 +1,110 @@
+package com.acertainbookstore.business;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * {@link CatalogChangeLog} keeps the ISBNs of the last books changed in the
+ * catalog, in a ring of a fixed capacity, so that a client which saw the
+ * catalog at some version is sent only the books changed since.
+ *
+ * Every change of a book increments the version of the catalog by one and
+ * takes the slot of that version in the ring, overwriting the change made
+ * <code>capacity</code> versions before. The changes since a version are only
+ * known while the version is not older than {@link #getOldestVersion()}. The
+ * log is not thread-safe, the callers serialize the changes and the reads.
+ */
+final class CatalogChangeLog {
+
+	/** The ISBN changed at every version, at the index of the version modulo the capacity. */
+	private final int[] isbns;
+
+	/** The current version, the number of changes made. */
+	private long version = 0;
+
+	/** The oldest version the changes since which are in the log. */
+	private long oldestVersion = 0;
+
+	/**
+	 * Instantiates a new {@link CatalogChangeLog}.
+	 *
+	 * @param capacity
+	 *            the number of changes kept
+	 */
+	CatalogChangeLog(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity = " + capacity + ", but it must be positive");
+		}
+
+		isbns = new int[capacity];
+	}
+
+	/**
+	 * Records a change of a book, its addition, update or removal.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void changed(int isbn) {
+		version++;
+		isbns[(int) (version % isbns.length)] = isbn;
+
+		// The change made capacity versions ago was overwritten.
+		oldestVersion = Math.max(oldestVersion, version - isbns.length);
+	}
+
+	/**
+	 * Records the removal of all the books, after which the changes before
+	 * are not known any more.
+	 */
+	void cleared() {
+		version++;
+		oldestVersion = version;
+	}
+
+	/**
+	 * Gets the current version.
+	 *
+	 * @return the version
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the oldest version the changes since which are known.
+	 *
+	 * @return the oldest version
+	 */
+	long getOldestVersion() {
+		return oldestVersion;
+	}
+
+	/**
+	 * Checks if the changes since a version are known.
+	 *
+	 * @param sinceVersion
+	 *            the version
+	 * @return true if they are
+	 */
+	boolean isKnown(long sinceVersion) {
+		return sinceVersion >= oldestVersion && sinceVersion <= version;
+	}
+
+	/**
+	 * Gets the ISBNs of the books changed since a version, each once, in the
+	 * order of their first change.
+	 *
+	 * @param sinceVersion
+	 *            the version, for which {@link #isKnown(long)} holds
+	 * @return the ISBNs
+	 */
+	Set<Integer> changedSince(long sinceVersion) {
+		Set<Integer> changed = new LinkedHashSet<>();
+
+		for (long v = sinceVersion + 1; v <= version; v++) {
+			changed.add(isbns[(int) (v % isbns.length)]);
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,83 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * {@link CatalogChanges} is used to represent the changes of the catalog since
+ * a version a client has seen: the books added or changed, the ISBNs of the
+ * books removed, and the version the client has seen once it applies them.
+ *
+ * When the server no longer knows the changes since the version of the
+ * client, the changes are a snapshot: the books are the whole catalog, which
+ * replaces the one of the client, and no ISBN is removed.
+ */
+public final class CatalogChanges {
+
+	/** The version of the catalog with the changes. */
+	private final long version;
+
+	/** Whether the changes are a snapshot of the whole catalog. */
+	private final boolean snapshot;
+
+	/** The books added or changed. */
+	private final List<StockBook> books;
+
+	/** The ISBNs of the books removed. */
+	private final List<Integer> removedISBNs;
+
+	/**
+	 * Instantiates a new {@link CatalogChanges}.
+	 *
+	 * @param version
+	 *            the version of the catalog with the changes
+	 * @param snapshot
+	 *            whether the changes are a snapshot of the whole catalog
+	 * @param books
+	 *            the books added or changed
+	 * @param removedISBNs
+	 *            the ISBNs of the books removed
+	 */
+	public CatalogChanges(long version, boolean snapshot, List<StockBook> books, List<Integer> removedISBNs) {
+		this.version = version;
+		this.snapshot = snapshot;
+		this.books = books;
+		this.removedISBNs = removedISBNs;
+	}
+
+	/**
+	 * Gets the version of the catalog with the changes, to pass to the next
+	 * call.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Checks whether the changes are a snapshot of the whole catalog.
+	 *
+	 * @return true, if the books replace the catalog of the client
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Gets the books added or changed.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Gets the ISBNs of the books removed.
+	 *
+	 * @return the ISBNs
+	 */
+	public List<Integer> getRemovedISBNs() {
+		return removedISBNs;
+	}
+}
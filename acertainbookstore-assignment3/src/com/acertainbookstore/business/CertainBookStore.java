@@ -3,20 +3,25 @@ package com.acertainbookstore.business;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.EditorPickIndex;
+import com.acertainbookstore.utils.IntObjectMap;
+import com.acertainbookstore.utils.SaleMissIndex;
 
 /**
  * {@link CertainBookStore} implements the {@link BookStore} and
@@ -28,15 +33,55 @@ import com.acertainbookstore.utils.BookStoreUtility;
 public class CertainBookStore implements BookStore, StockManager {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntObjectMap<BookStoreBook> bookMap = null;
+
+	/** The books in the order of their ISBNs, for reading the catalog a page at a time. */
+	private final NavigableMap<Integer, BookStoreBook> isbnIndex = new TreeMap<>();
+
+	/** The editor picks, for drawing random picks without scanning the books. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>();
+
+	/** The snapshots of the books in demand, read without holding the store monitor. */
+	private final SaleMissIndex<StockBook> saleMissIndex = new SaleMissIndex<>();
+
+	/** The books by number of copies, for finding the ones to restock without sorting the catalog. */
+	private final LeastCopiesIndex leastCopiesIndex = new LeastCopiesIndex();
+
+	/** The books by price, for finding the books in a range of prices without scanning the catalog. */
+	private final PriceIndex priceIndex = new PriceIndex();
+
+	/** The books by title, for searching the titles by prefix. */
+	private final PrefixIndex titleIndex = new PrefixIndex();
+
+	/** The books by author, for searching the authors by prefix. */
+	private final PrefixIndex authorIndex = new PrefixIndex();
+
+	/** The words of the titles and the authors, for searching the books by keywords. */
+	private final KeywordIndex keywordIndex = new KeywordIndex();
+
+	/** The last books changed, for sending the clients only the changes of the catalog. */
+	private final CatalogChangeLog changeLog;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public CertainBookStore() {
+		this(BookStoreConstants.DEFAULT_CHANGE_LOG_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} keeping a number of changes
+	 * of the catalog.
+	 *
+	 * @param changeLogCapacity
+	 *            the number of changes of books kept for
+	 *            {@link #getBooksChangedSince(long)}
+	 */
+	public CertainBookStore(int changeLogCapacity) {
 
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntObjectMap<>();
+		changeLog = new CatalogChangeLog(changeLogCapacity);
 	}
 	private synchronized void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
@@ -94,6 +139,22 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
 	}
+
+	/**
+	 * Puts the current state of the book in the sale miss index, or takes it
+	 * out if it has no sale misses. Called every time a book changes.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private synchronized void updateSaleMissIndex(BookStoreBook book) {
+		if (book.hadSaleMiss()) {
+			saleMissIndex.add(book.getISBN(), book.immutableStockBook());
+		} else {
+			saleMissIndex.remove(book.getISBN());
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -112,7 +173,17 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(isbn, bookStoreBook);
+			isbnIndex.put(isbn, bookStoreBook);
+			priceIndex.add(isbn, bookStoreBook.getPrice());
+			titleIndex.add(bookStoreBook.getTitle(), isbn);
+			authorIndex.add(bookStoreBook.getAuthor(), isbn);
+			keywordIndex.add(isbn, bookStoreBook.getTitle(), bookStoreBook.getAuthor());
+			editorPickIndex.update(isbn, bookStoreBook, bookStoreBook.isEditorPick());
+			updateSaleMissIndex(bookStoreBook);
+			leastCopiesIndex.update(isbn, bookStoreBook.getNumCopies());
+			changeLog.changed(isbn);
 		}
 	}
 
@@ -142,6 +213,9 @@ public class CertainBookStore implements BookStore, StockManager {
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
 			book.addCopies(numCopies);
+			updateSaleMissIndex(book);
+			leastCopiesIndex.update(isbn, book.getNumCopies());
+			changeLog.changed(isbn);
 		}
 	}
 
@@ -158,6 +232,77 @@ public class CertainBookStore implements BookStore, StockManager {
 				.collect(Collectors.toList());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	public synchronized List<StockBook> getBooks(int cursor, int pageSize) throws BookStoreException {
+		if (cursor < 0) {
+			throw new BookStoreException("cursor = " + cursor + ", but it must not be negative");
+		}
+
+		if (pageSize <= 0) {
+			throw new BookStoreException("pageSize = " + pageSize + ", but it must be positive");
+		}
+
+		// The page starts right after the cursor in the index, so only the
+		// books of the page are read.
+		List<StockBook> page = new ArrayList<>(Math.min(pageSize, isbnIndex.size()));
+
+		for (BookStoreBook book : isbnIndex.tailMap(cursor, false).values()) {
+			if (page.size() == pageSize) {
+				break;
+			}
+
+			page.add(book.immutableStockBook());
+		}
+		return page;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksInPriceRange(float,
+	 * float)
+	 */
+	public synchronized List<StockBook> getBooksInPriceRange(float minPrice, float maxPrice)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice) || minPrice > maxPrice) {
+			throw new BookStoreException("[" + minPrice + ", " + maxPrice + "] is not a range of prices");
+		}
+
+		// Only the books in the range are read from the index.
+		List<StockBook> result = new ArrayList<>();
+
+		for (int isbn : priceIndex.between(minPrice, maxPrice)) {
+			result.add(bookMap.get(isbn).immutableStockBook());
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksInIsbnRange(int,
+	 * int)
+	 */
+	public synchronized List<StockBook> getBooksInIsbnRange(int minISBN, int maxISBN) throws BookStoreException {
+		if (minISBN > maxISBN) {
+			throw new BookStoreException("[" + minISBN + ", " + maxISBN + "] is not a range of ISBNs");
+		}
+
+		// Only the books in the range are read from the index.
+		List<StockBook> result = new ArrayList<>();
+
+		for (BookStoreBook book : isbnIndex.subMap(minISBN, true, maxISBN, true).values()) {
+			result.add(book.immutableStockBook());
+		}
+		return result;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -179,7 +324,11 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+			editorPickIndex.update(book.getISBN(), book, editorPickArg.isEditorPick());
+			updateSaleMissIndex(book);
+			changeLog.changed(book.getISBN());
 		}
 	}
 
@@ -220,6 +369,8 @@ public class CertainBookStore implements BookStore, StockManager {
 			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
 				book = bookMap.get(saleMissEntry.getKey());
 				book.addSaleMiss(saleMissEntry.getValue());
+				updateSaleMissIndex(book);
+				changeLog.changed(book.getISBN());
 			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
@@ -228,6 +379,9 @@ public class CertainBookStore implements BookStore, StockManager {
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
 			book = bookMap.get(bookCopyToBuy.getISBN());
 			book.buyCopies(bookCopyToBuy.getNumCopies());
+			updateSaleMissIndex(book);
+			leastCopiesIndex.update(book.getISBN(), book.getNumCopies());
+			changeLog.changed(book.getISBN());
 		}
 	}
 
@@ -284,37 +438,65 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		// Query for all books with the Editor Pick boolean set.
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-				.map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
+		// Draw the picks from the editor pick index instead of scanning the books.
+		return editorPickIndex.sample(numBooks).stream()
+				.map(book -> book.immutableBook())
 				.collect(Collectors.toList());
+	}
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchByPrefix(com.
+	 * acertainbookstore.business.BookField, java.lang.String, int)
+	 */
+	public synchronized List<Book> searchByPrefix(BookField field, String prefix, int limit)
+			throws BookStoreException {
+		if (field == null || prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-		if (rangePicks <= numBooks) {
+		if (limit < 0) {
+			throw new BookStoreException("limit = " + limit + ", but it must not be negative");
+		}
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
+		// The index is sorted by the field, so only the books with the
+		// prefix are read.
+		int[] isbns = ((field == BookField.TITLE) ? titleIndex : authorIndex).search(prefix, limit);
+		List<Book> result = new ArrayList<>(isbns.length);
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+		for (int isbn : isbns) {
+			result.add(bookMap.get(isbn).immutableBook());
+		}
+		return result;
+	}
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchByKeywords(java.lang.
+	 * String, int)
+	 */
+	public synchronized List<Book> searchByKeywords(String keywords, int limit) throws BookStoreException {
+		if (keywords == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream()
-				.map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
+		if (limit < 0) {
+			throw new BookStoreException("limit = " + limit + ", but it must not be negative");
+		}
+
+		// The lists of the words are intersected on their own, so only the
+		// books returned are read.
+		int[] isbns = keywordIndex.search(keywords, limit);
+		List<Book> result = new ArrayList<>(isbns.length);
+
+		for (int isbn : isbns) {
+			result.add(bookMap.get(isbn).immutableBook());
+		}
+		return result;
 	}
 
 	/*
@@ -333,8 +515,131 @@ public class CertainBookStore implements BookStore, StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
-	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		// The index only holds the books with sale misses, so the catalog is
+		// not scanned, and the store monitor is not taken.
+		return saleMissIndex.books();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksWithLeastCopies(int)
+	 */
+	public synchronized List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The index is kept ordered by number of copies, so only the first
+		// books are read.
+		int[] isbns = leastCopiesIndex.least(numBooks);
+		List<StockBook> result = new ArrayList<>(isbns.length);
+
+		for (int isbn : isbns) {
+			result.add(bookMap.get(isbn).immutableStockBook());
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	public synchronized List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (query.getLimit() < 0) {
+			throw new BookStoreException("limit = " + query.getLimit() + ", but it must not be negative");
+		}
+
+		Stream<BookStoreBook> candidates;
+
+		// The books are read from the index of the first condition that has
+		// one, so that the books not matching it are not read, and checked
+		// against all the conditions. Without an index the catalog is scanned,
+		// in parallel if it is large.
+		if (Boolean.TRUE.equals(query.getEditorPick())) {
+			candidates = editorPickIndex.books().stream();
+		} else if (query.getMaxCopies() < Integer.MAX_VALUE) {
+			candidates = StreamSupport
+					.stream(leastCopiesIndex.between(query.getMinCopies(), query.getMaxCopies()).spliterator(), false)
+					.map(bookMap::get);
+		} else if (query.getMinPrice() > Float.NEGATIVE_INFINITY || query.getMaxPrice() < Float.POSITIVE_INFINITY) {
+			candidates = StreamSupport
+					.stream(priceIndex.between(query.getMinPrice(), query.getMaxPrice()).spliterator(), false)
+					.map(bookMap::get);
+		} else if (query.getMinSaleMisses() > 0) {
+			candidates = saleMissIndex.books().stream().map(book -> bookMap.get(book.getISBN()));
+		} else if (bookMap.size() >= BookStoreConstants.PARALLEL_QUERY_THRESHOLD) {
+			candidates = bookMap.values().parallelStream().unordered();
+		} else {
+			candidates = bookMap.values().stream();
+		}
+
+		return candidates.filter(query::matches)
+				.limit(query.getLimit())
+				.map(book -> project(book, query.getProjection()))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Copies the fields of a book selected by a projection.
+	 *
+	 * @param book
+	 *            the book
+	 * @param projection
+	 *            the projection
+	 * @return the copy
+	 */
+	private static StockBook project(BookStoreBook book, BookQuery.Projection projection) {
+		switch (projection) {
+		case STOCK:
+			return new ImmutableStockBook(book.getISBN(), "", "", book.getPrice(), book.getNumCopies(),
+					book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick());
+
+		default:
+			return book.immutableStockBook();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksChangedSince(long)
+	 */
+	public synchronized CatalogChanges getBooksChangedSince(long version) throws BookStoreException {
+		if (version < 0) {
+			throw new BookStoreException("version = " + version + ", but it must not be negative");
+		}
+
+		if (!changeLog.isKnown(version)) {
+			// The client is too far behind, or saw another store, so it is
+			// sent the whole catalog.
+			return new CatalogChanges(changeLog.getVersion(), true, getBooks(), new ArrayList<>());
+		}
+
+		List<StockBook> books = new ArrayList<>();
+		List<Integer> removedISBNs = new ArrayList<>();
+
+		// A book changed several times is sent once, as it is now.
+		for (int isbn : changeLog.changedSince(version)) {
+			BookStoreBook book = bookMap.get(isbn);
+
+			if (book != null) {
+				books.add(book.immutableStockBook());
+			} else {
+				removedISBNs.add(isbn);
+			}
+		}
+		return new CatalogChanges(changeLog.getVersion(), false, books, removedISBNs);
 	}
 
 	/*
@@ -354,6 +659,15 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		isbnIndex.clear();
+		priceIndex.clear();
+		titleIndex.clear();
+		authorIndex.clear();
+		keywordIndex.clear();
+		editorPickIndex.clear();
+		saleMissIndex.clear();
+		leastCopiesIndex.clear();
+		changeLog.cleared();
 	}
 
 	/*
@@ -378,7 +692,16 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			BookStoreBook book = bookMap.remove(isbn);
+			isbnIndex.remove(isbn);
+			priceIndex.remove(isbn, book.getPrice());
+			titleIndex.remove(book.getTitle(), isbn);
+			authorIndex.remove(book.getAuthor(), isbn);
+			keywordIndex.remove(isbn);
+			editorPickIndex.remove(isbn);
+			saleMissIndex.remove(isbn);
+			leastCopiesIndex.remove(isbn);
+			changeLog.changed(isbn);
 		}
 	}
 }
@@ -0,0 +1,445 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.IntIntMap;
+
+/**
+ * {@link KeywordIndex} is an inverted index of the words of the titles and
+ * the authors of the books, so that the books holding all the words of a
+ * query are found by reading the lists of books of these words only.
+ *
+ * A book is given an id when it is added, in increasing order, and the words
+ * of its title and its author are listed in the dictionary of terms, each one
+ * with the sorted ids of its books. A list is kept as the differences between
+ * consecutive ids, in variable-length bytes, so most of the ids take one or
+ * two bytes, and new ids are only appended. Every {@link #SKIP_INTERVAL} ids,
+ * the list keeps the id and its offset, so that a query gallops over these to
+ * skip the ids which cannot match instead of decoding them.
+ *
+ * A removed book keeps its id in the lists until more than half of the ids
+ * are removed, when the lists are compacted and the ids renumbered. The index
+ * is not thread-safe, the callers serialize the changes and the reads.
+ *
+ * @see BookStoreUtility#normalizeText(String)
+ */
+final class KeywordIndex {
+
+	/** The number of ids between two skips of a list. */
+	static final int SKIP_INTERVAL = 64;
+
+	/** The least number of removed ids compacted. */
+	private static final int MIN_COMPACTED_IDS = 1024;
+
+	/** The id of no book, after the last id of a list. */
+	private static final int NO_ID = Integer.MAX_VALUE;
+
+	/**
+	 * {@link PostingList} is the compressed, sorted list of the ids of the
+	 * books holding a term.
+	 */
+	private static final class PostingList {
+
+		/** The ids, as variable-length differences. */
+		private byte[] bytes = new byte[4];
+
+		/** The number of bytes used. */
+		private int length = 0;
+
+		/** The number of ids. */
+		private int size = 0;
+
+		/** The last id. */
+		private int lastId = -1;
+
+		/** The first id of every run of {@link #SKIP_INTERVAL} ids. */
+		private int[] skipIds = new int[1];
+
+		/** The offset of the id after the first one of every run. */
+		private int[] skipOffsets = new int[1];
+
+		/**
+		 * Appends an id, greater than the last one.
+		 */
+		private void add(int id) {
+			if (length + 5 > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+			}
+
+			// The first id of a run is read from its skip, so its difference
+			// is only written to keep the list readable from the start.
+			length = writeVarInt(bytes, length, id - lastId);
+
+			if (size % SKIP_INTERVAL == 0) {
+				int skip = size / SKIP_INTERVAL;
+
+				if (skip == skipIds.length) {
+					skipIds = Arrays.copyOf(skipIds, skip * 2);
+					skipOffsets = Arrays.copyOf(skipOffsets, skip * 2);
+				}
+				skipIds[skip] = id;
+				skipOffsets[skip] = length;
+			}
+			lastId = id;
+			size++;
+		}
+
+		/**
+		 * Trims the arrays to the ids kept.
+		 */
+		private void trim() {
+			int skips = (size + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+			bytes = Arrays.copyOf(bytes, length);
+			skipIds = Arrays.copyOf(skipIds, skips);
+			skipOffsets = Arrays.copyOf(skipOffsets, skips);
+		}
+	}
+
+	/**
+	 * {@link Cursor} reads the ids of a {@link PostingList} in order.
+	 */
+	private static final class Cursor {
+
+		/** The list read. */
+		private final PostingList list;
+
+		/** The offset of the next id. */
+		private int offset = 0;
+
+		/** The position of the current id. */
+		private int position = -1;
+
+		/** The current id, or {@link KeywordIndex#NO_ID} after the last one. */
+		private int id = -1;
+
+		private Cursor(PostingList list) {
+			this.list = list;
+		}
+
+		/**
+		 * Moves to the next id.
+		 *
+		 * @return the id
+		 */
+		private int next() {
+			if (++position >= list.size) {
+				return id = NO_ID;
+			}
+
+			int delta = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = list.bytes[offset++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			return id += delta;
+		}
+
+		/**
+		 * Moves to the first id not less than a target, galloping over the
+		 * skips to the run holding it.
+		 *
+		 * @param target
+		 *            the target
+		 * @return the id
+		 */
+		private int advance(int target) {
+			if (id >= target) {
+				return id;
+			}
+
+			int skip = Math.max(position, 0) / SKIP_INTERVAL;
+			int skips = (list.size + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+
+			if (skip + 1 < skips && list.skipIds[skip + 1] <= target) {
+				// Doubles the step until a run starts after the target, then
+				// finds the last run starting at or before it.
+				int low = skip + 1;
+				int step = 1;
+
+				while (low + step < skips && list.skipIds[low + step] <= target) {
+					low += step;
+					step <<= 1;
+				}
+
+				int high = Math.min(low + step, skips) - 1;
+
+				while (low < high) {
+					int middle = (low + high + 1) >>> 1;
+
+					if (list.skipIds[middle] <= target) {
+						low = middle;
+					} else {
+						high = middle - 1;
+					}
+				}
+
+				position = low * SKIP_INTERVAL;
+				offset = list.skipOffsets[low];
+				id = list.skipIds[low];
+
+				if (id >= target) {
+					return id;
+				}
+			}
+
+			while (next() < target) {
+				// Reads the run up to the target.
+			}
+			return id;
+		}
+	}
+
+	/** The dictionary of terms, with the ids of their books. */
+	private final Map<String, PostingList> terms = new HashMap<>();
+
+	/** The ISBN of every id, or 0 for a removed book. */
+	private int[] isbns = new int[16];
+
+	/** The id of every indexed ISBN. */
+	private final IntIntMap ids = new IntIntMap();
+
+	/** The next id. */
+	private int nextId = 0;
+
+	/** The number of removed ids still in the lists. */
+	private int removedIds = 0;
+
+	/**
+	 * Writes an int in variable-length bytes, seven bits at a time, the last
+	 * byte with its high bit clear.
+	 */
+	private static int writeVarInt(byte[] bytes, int offset, int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * Splits a text into its distinct terms, the runs of letters and digits
+	 * of its normalized text.
+	 *
+	 * @param text
+	 *            the text
+	 * @param terms
+	 *            the set the terms are added to
+	 * @return the set
+	 */
+	static Set<String> tokenize(String text, Set<String> terms) {
+		String normalized = BookStoreUtility.normalizeText(text);
+		int start = -1;
+
+		for (int i = 0; i <= normalized.length(); i++) {
+			boolean inTerm = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+
+			if (inTerm && start < 0) {
+				start = i;
+			} else if (!inTerm && start >= 0) {
+				terms.add(normalized.substring(start, i));
+				start = -1;
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 */
+	void add(int isbn, String title, String author) {
+		if (ids.containsKey(isbn)) {
+			remove(isbn);
+		}
+
+		int id = nextId++;
+
+		if (id == isbns.length) {
+			isbns = Arrays.copyOf(isbns, id * 2);
+		}
+		isbns[id] = isbn;
+		ids.put(isbn, id);
+
+		for (String term : tokenize(author, tokenize(title, new LinkedHashSet<>()))) {
+			terms.computeIfAbsent(term, t -> new PostingList()).add(id);
+		}
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		int id = ids.remove(isbn);
+
+		if (id == IntIntMap.NO_VALUE) {
+			return;
+		}
+
+		isbns[id] = 0;
+		removedIds++;
+
+		if (removedIds >= MIN_COMPACTED_IDS && removedIds > nextId / 2) {
+			compact();
+		}
+	}
+
+	/**
+	 * Takes all the books out of the index.
+	 */
+	void clear() {
+		terms.clear();
+		isbns = new int[16];
+		ids.clear();
+		nextId = 0;
+		removedIds = 0;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Gets the number of bytes of the lists of ids and their skips.
+	 *
+	 * @return the number of bytes
+	 */
+	long postingBytes() {
+		long bytes = 0;
+
+		for (PostingList list : terms.values()) {
+			bytes += list.bytes.length + 4L * (list.skipIds.length + list.skipOffsets.length);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Renumbers the books left, in the same order, and rewrites the lists
+	 * without the removed ones.
+	 */
+	private void compact() {
+		int[] newIds = new int[nextId];
+		int[] newISBNs = new int[Math.max(16, nextId - removedIds)];
+		int size = 0;
+
+		for (int id = 0; id < nextId; id++) {
+			if (isbns[id] != 0) {
+				newIds[id] = size;
+				newISBNs[size] = isbns[id];
+				ids.put(isbns[id], size);
+				size++;
+			}
+		}
+
+		for (Iterator<PostingList> iterator = terms.values().iterator(); iterator.hasNext();) {
+			PostingList list = iterator.next();
+			PostingList compacted = new PostingList();
+			Cursor cursor = new Cursor(list);
+
+			for (int id = cursor.next(); id != NO_ID; id = cursor.next()) {
+				if (isbns[id] != 0) {
+					compacted.add(newIds[id]);
+				}
+			}
+
+			if (compacted.size == 0) {
+				iterator.remove();
+			} else {
+				compacted.trim();
+				list.bytes = compacted.bytes;
+				list.length = compacted.length;
+				list.size = compacted.size;
+				list.lastId = compacted.lastId;
+				list.skipIds = compacted.skipIds;
+				list.skipOffsets = compacted.skipOffsets;
+			}
+		}
+
+		isbns = newISBNs;
+		nextId = size;
+		removedIds = 0;
+	}
+
+	/**
+	 * Gets the ISBNs of the books whose title or author holds all the terms
+	 * of a query, in the order they were added.
+	 *
+	 * The lists of the terms are intersected from the shortest one: every id
+	 * of it is looked for in the others, which skip to it, and an id beyond
+	 * it in one of them is looked for next.
+	 *
+	 * @param query
+	 *            the query
+	 * @param limit
+	 *            the most number of books
+	 * @return the ISBNs
+	 */
+	int[] search(String query, int limit) {
+		Set<String> queryTerms = tokenize(query, new LinkedHashSet<>());
+		int[] result = new int[Math.min(limit, ids.size())];
+		int found = 0;
+
+		if (queryTerms.isEmpty() || result.length == 0) {
+			return new int[0];
+		}
+
+		Cursor[] cursors = new Cursor[queryTerms.size()];
+		int i = 0;
+
+		for (String term : queryTerms) {
+			PostingList list = terms.get(term);
+
+			if (list == null) {
+				return new int[0];
+			}
+			cursors[i++] = new Cursor(list);
+		}
+		Arrays.sort(cursors, Comparator.comparingInt(cursor -> cursor.list.size));
+
+		int candidate = cursors[0].next();
+
+		while (candidate != NO_ID && found < result.length) {
+			int next = candidate;
+
+			for (i = 1; i < cursors.length && next == candidate; i++) {
+				next = cursors[i].advance(candidate);
+			}
+
+			if (next == candidate) {
+				if (isbns[candidate] != 0) {
+					result[found++] = isbns[candidate];
+				}
+				candidate = cursors[0].next();
+			} else {
+				candidate = cursors[0].advance(next);
+			}
+		}
+		return Arrays.copyOf(result, found);
+	}
+}
@@ -0,0 +1,128 @@
+package com.acertainbookstore.business;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.acertainbookstore.utils.IntIntMap;
+
+/**
+ * {@link LeastCopiesIndex} keeps the books ordered by number of copies, fewest
+ * first, with ties broken by ISBN. It is updated every time the copies of a
+ * book change, so the <code>k</code> books with the least copies are found in
+ * O(log N + k) without sorting the catalog.
+ *
+ * A book is kept as one <code>long</code>, its number of copies in the high
+ * half and its ISBN in the low half, so the natural order of the keys is the
+ * order of the index. The index is not thread-safe, the callers serialize the
+ * changes and the reads.
+ */
+final class LeastCopiesIndex {
+
+	/** The books, in order. */
+	private final TreeSet<Long> keys = new TreeSet<>();
+
+	/** The number of copies of every indexed book, as it is in {@link #keys}. */
+	private final IntIntMap numCopiesMap = new IntIntMap();
+
+	private static long key(int isbn, int numCopies) {
+		return ((long) numCopies << Integer.SIZE) | (isbn & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Puts the book at the place of its current number of copies.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	void update(int isbn, int numCopies) {
+		int previous = numCopiesMap.put(isbn, numCopies);
+
+		if (previous == numCopies) {
+			return;
+		}
+
+		if (previous != IntIntMap.NO_VALUE) {
+			keys.remove(key(isbn, previous));
+		}
+		keys.add(key(isbn, numCopies));
+	}
+
+	/**
+	 * Takes the book out of the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		int previous = numCopiesMap.remove(isbn);
+
+		if (previous != IntIntMap.NO_VALUE) {
+			keys.remove(key(isbn, previous));
+		}
+	}
+
+	/**
+	 * Takes all the books out of the index.
+	 */
+	void clear() {
+		keys.clear();
+		numCopiesMap.clear();
+	}
+
+	/**
+	 * Gets the ISBNs of the books with the least copies.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return at most <code>numBooks</code> ISBNs, fewest copies first
+	 */
+	int[] least(int numBooks) {
+		int[] isbns = new int[Math.min(numBooks, keys.size())];
+		Iterator<Long> iterator = keys.iterator();
+
+		for (int i = 0; i < isbns.length; i++) {
+			isbns[i] = (int) (long) iterator.next();
+		}
+		return isbns;
+	}
+
+	/**
+	 * Gets the ISBNs of the books with a number of copies in a range, in the
+	 * order of the index. Only the keys in the range are read.
+	 *
+	 * @param minCopies
+	 *            the least number of copies, inclusive
+	 * @param maxCopies
+	 *            the most number of copies, inclusive
+	 * @return the ISBNs, fewest copies first
+	 */
+	Iterable<Integer> between(int minCopies, int maxCopies) {
+		if (minCopies > maxCopies) {
+			return Collections.emptyList();
+		}
+
+		// The keys of a number of copies all lie between the key with the
+		// ISBN 0 and the one with the ISBN -1, whose low half is all ones.
+		SortedSet<Long> range = keys.subSet(key(0, minCopies), true, key(-1, maxCopies), true);
+		return () -> {
+			Iterator<Long> iterator = range.iterator();
+
+			return new Iterator<Integer>() {
+
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Integer next() {
+					return (int) (long) iterator.next();
+				}
+			};
+		};
+	}
+}
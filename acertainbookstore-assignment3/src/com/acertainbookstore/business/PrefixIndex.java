@@ -0,0 +1,233 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link PrefixIndex} keeps the books sorted by a normalized text, their title
+ * or their author, so that the books whose text starts with a prefix are found
+ * in O(log N + k) without scanning the catalog.
+ *
+ * The entries, a normalized text and an ISBN, are kept in order in a list of
+ * sorted blocks of at most {@link #BLOCK_SIZE} entries. An entry costs one
+ * reference and one int in its block, besides its text, and is added or
+ * removed by shifting the entries of one block only. A full block is split in
+ * two, and an empty one is dropped. The index is not thread-safe, the callers
+ * serialize the changes and the reads.
+ *
+ * @see BookStoreUtility#normalizeText(String)
+ */
+final class PrefixIndex {
+
+	/** The most entries in a block. */
+	static final int BLOCK_SIZE = 128;
+
+	/**
+	 * {@link Block} is a sorted run of entries.
+	 */
+	private static final class Block {
+
+		/** The normalized texts. */
+		private final String[] texts = new String[BLOCK_SIZE];
+
+		/** The ISBNs, in the order of the texts. */
+		private final int[] isbns = new int[BLOCK_SIZE];
+
+		/** The number of entries. */
+		private int size = 0;
+	}
+
+	/** The blocks, in order, every one not empty. */
+	private final List<Block> blocks = new ArrayList<>();
+
+	/** The number of entries. */
+	private int size = 0;
+
+	/**
+	 * Compares two entries, by text then by ISBN.
+	 */
+	private static int compare(String text, int isbn, String otherText, int otherISBN) {
+		int comparison = text.compareTo(otherText);
+		return (comparison != 0) ? comparison : Integer.compare(isbn, otherISBN);
+	}
+
+	/**
+	 * Finds the block where an entry belongs: the last one whose first entry
+	 * is not after it, or the first one.
+	 */
+	private int findBlock(String text, int isbn) {
+		int low = 1;
+		int high = blocks.size() - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			Block block = blocks.get(middle);
+
+			if (compare(block.texts[0], block.isbns[0], text, isbn) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * Finds the position of an entry in a block, or where it would be
+	 * inserted, as -(position + 1), if it is not there.
+	 */
+	private static int findInBlock(Block block, String text, int isbn) {
+		int low = 0;
+		int high = block.size - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(block.texts[middle], block.isbns[middle], text, isbn);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param text
+	 *            the text of the book
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void add(String text, int isbn) {
+		String normalized = BookStoreUtility.normalizeText(text);
+
+		if (blocks.isEmpty()) {
+			blocks.add(new Block());
+		}
+
+		int blockIndex = findBlock(normalized, isbn);
+		Block block = blocks.get(blockIndex);
+		int position = findInBlock(block, normalized, isbn);
+
+		if (position >= 0) {
+			return;
+		}
+
+		position = -(position + 1);
+		System.arraycopy(block.texts, position, block.texts, position + 1, block.size - position);
+		System.arraycopy(block.isbns, position, block.isbns, position + 1, block.size - position);
+		block.texts[position] = normalized;
+		block.isbns[position] = isbn;
+		block.size++;
+		size++;
+
+		if (block.size == BLOCK_SIZE) {
+			// Moves the upper half to a new block after it.
+			Block upper = new Block();
+			int half = BLOCK_SIZE / 2;
+			System.arraycopy(block.texts, half, upper.texts, 0, BLOCK_SIZE - half);
+			System.arraycopy(block.isbns, half, upper.isbns, 0, BLOCK_SIZE - half);
+			Arrays.fill(block.texts, half, BLOCK_SIZE, null);
+			upper.size = BLOCK_SIZE - half;
+			block.size = half;
+			blocks.add(blockIndex + 1, upper);
+		}
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param text
+	 *            the text of the book, as it was added
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(String text, int isbn) {
+		if (blocks.isEmpty()) {
+			return;
+		}
+
+		String normalized = BookStoreUtility.normalizeText(text);
+		int blockIndex = findBlock(normalized, isbn);
+		Block block = blocks.get(blockIndex);
+		int position = findInBlock(block, normalized, isbn);
+
+		if (position < 0) {
+			return;
+		}
+
+		System.arraycopy(block.texts, position + 1, block.texts, position, block.size - position - 1);
+		System.arraycopy(block.isbns, position + 1, block.isbns, position, block.size - position - 1);
+		block.size--;
+		block.texts[block.size] = null;
+		size--;
+
+		if (block.size == 0) {
+			blocks.remove(blockIndex);
+		}
+	}
+
+	/**
+	 * Takes all the books out of the index.
+	 */
+	void clear() {
+		blocks.clear();
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the ISBNs of the books whose normalized text starts with a
+	 * normalized prefix, in the order of their texts.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @param limit
+	 *            the most number of books
+	 * @return the ISBNs
+	 */
+	int[] search(String prefix, int limit) {
+		String normalized = BookStoreUtility.normalizeText(prefix);
+		int[] isbns = new int[Math.min(limit, size)];
+		int found = 0;
+
+		if (blocks.isEmpty()) {
+			return isbns;
+		}
+
+		// The ISBNs are positive, so the first entry with the prefix is not
+		// before the one of the prefix with the ISBN 0.
+		int blockIndex = findBlock(normalized, 0);
+		int position = findInBlock(blocks.get(blockIndex), normalized, 0);
+		position = (position >= 0) ? position : -(position + 1);
+
+		for (; blockIndex < blocks.size() && found < isbns.length; blockIndex++, position = 0) {
+			Block block = blocks.get(blockIndex);
+
+			for (; position < block.size && found < isbns.length; position++) {
+				if (!block.texts[position].startsWith(normalized)) {
+					return Arrays.copyOf(isbns, found);
+				}
+
+				isbns[found++] = block.isbns[position];
+			}
+		}
+		return Arrays.copyOf(isbns, found);
+	}
+}
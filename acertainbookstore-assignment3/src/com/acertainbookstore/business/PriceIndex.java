@@ -0,0 +1,96 @@
+package com.acertainbookstore.business;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * {@link PriceIndex} keeps the books ordered by price, cheapest first, with
+ * ties broken by ISBN, so that the books in a range of prices are found in
+ * O(log N + k) without scanning the catalog. The price of a book does not
+ * change, so the index is only updated when books are added or removed.
+ *
+ * A book is kept as one <code>long</code>, the bits of its price in the high
+ * half and its ISBN in the low half. The prices are not negative, and the
+ * bits of the floats which are not negative are in the order of the floats,
+ * so the natural order of the keys is the order of the index. The index is
+ * not thread-safe, the callers serialize the changes and the reads.
+ */
+final class PriceIndex {
+
+	/** The books, in order. */
+	private final TreeSet<Long> keys = new TreeSet<>();
+
+	private static long key(int isbn, float price) {
+		// Adding zero turns a price of -0 into 0, whose bits are in order.
+		return ((long) Float.floatToIntBits(price + 0.0f) << Integer.SIZE) | (isbn & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param price
+	 *            the price
+	 */
+	void add(int isbn, float price) {
+		keys.add(key(isbn, price));
+	}
+
+	/**
+	 * Takes the book out of the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param price
+	 *            the price
+	 */
+	void remove(int isbn, float price) {
+		keys.remove(key(isbn, price));
+	}
+
+	/**
+	 * Takes all the books out of the index.
+	 */
+	void clear() {
+		keys.clear();
+	}
+
+	/**
+	 * Gets the ISBNs of the books with a price in a range, in the order of the
+	 * index. Only the keys in the range are read.
+	 *
+	 * @param minPrice
+	 *            the least price, inclusive
+	 * @param maxPrice
+	 *            the highest price, inclusive
+	 * @return the ISBNs, cheapest first
+	 */
+	Iterable<Integer> between(float minPrice, float maxPrice) {
+		if (!(minPrice <= maxPrice) || maxPrice < 0) {
+			return Collections.emptyList();
+		}
+
+		// The keys of a price all lie between the key with the ISBN 0 and the
+		// one with the ISBN -1, whose low half is all ones.
+		SortedSet<Long> range = keys.subSet(key(0, Math.max(minPrice, 0)), true, key(-1, maxPrice), true);
+		return () -> {
+			Iterator<Long> iterator = range.iterator();
+
+			return new Iterator<Integer>() {
+
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Integer next() {
+					return (int) (long) iterator.next();
+				}
+			};
+		};
+	}
+}
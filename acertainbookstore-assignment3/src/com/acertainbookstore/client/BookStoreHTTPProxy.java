@@ -10,6 +10,7 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookField;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
@@ -116,6 +117,51 @@ public class BookStoreHTTPProxy implements BookStore {
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchByPrefix(com.
+	 * acertainbookstore.business.BookField, java.lang.String, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Book> searchByPrefix(BookField field, String prefix, int limit) throws BookStoreException {
+		if (field == null || prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.SEARCHBYPREFIX + "?"
+				+ BookStoreConstants.BOOK_FIELD_PARAM + "=" + field + "&"
+				+ BookStoreConstants.BOOK_PREFIX_PARAM + "=" + URLEncoder.encode(prefix, StandardCharsets.UTF_8) + "&"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + limit;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchByKeywords(java.lang.
+	 * String, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Book> searchByKeywords(String keywords, int limit) throws BookStoreException {
+		if (keywords == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.SEARCHBYKEYWORDS + "?"
+				+ BookStoreConstants.BOOK_KEYWORDS_PARAM + "=" + URLEncoder.encode(keywords, StandardCharsets.UTF_8)
+				+ "&" + BookStoreConstants.BOOK_NUM_PARAM + "=" + limit;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -0,0 +1,129 @@
+package com.acertainbookstore.client;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link StockBookIterator} iterates over the books streamed by the server, as
+ * returned by {@link StockManagerHTTPProxy#streamBooks()}. The stream is a
+ * sequence of pages, every one its length and its serialized list of books,
+ * ended by a length of zero. A page is read only when the books of the page
+ * before are consumed, so that only one page is in memory at a time.
+ *
+ * The stream is closed once it is read to the end, or when the iterator is
+ * closed. A failure to read it is thrown as an {@link UncheckedIOException}.
+ */
+public final class StockBookIterator implements Iterator<StockBook>, Closeable {
+
+	/** The stream of the pages. */
+	private final DataInputStream in;
+
+	/** The serializer of the pages. */
+	private final BookStoreSerializer serializer;
+
+	/** The books of the current page not consumed yet. */
+	private Iterator<StockBook> page = Collections.emptyIterator();
+
+	/** Whether the last page was read. */
+	private boolean ended = false;
+
+	/**
+	 * Instantiates a new {@link StockBookIterator}.
+	 *
+	 * @param in
+	 *            the stream of the pages
+	 * @param serializer
+	 *            the serializer of the pages
+	 */
+	StockBookIterator(InputStream in, BookStoreSerializer serializer) {
+		this.in = new DataInputStream(in);
+		this.serializer = serializer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		while (!page.hasNext() && !ended) {
+			readPage();
+		}
+
+		return page.hasNext();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public StockBook next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		return page.next();
+	}
+
+	/**
+	 * Reads the next page, or the end of the stream.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readPage() {
+		try {
+			int length = in.readInt();
+
+			if (length == 0) {
+				ended = true;
+				in.close();
+				return;
+			}
+
+			byte[] serializedPage = new byte[length];
+			in.readFully(serializedPage);
+			page = ((List<StockBook>) serializer.deserialize(serializedPage)).iterator();
+		} catch (EOFException ex) {
+			ended = true;
+			closeQuietly();
+			throw new UncheckedIOException("The stream of books ended before its last page", ex);
+		} catch (IOException ex) {
+			ended = true;
+			closeQuietly();
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			in.close();
+		} catch (IOException ex) {
+			// The stream already failed.
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		ended = true;
+		page = Collections.emptyIterator();
+		in.close();
+	}
+}
@@ -1,5 +1,7 @@
 package com.acertainbookstore.client;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
@@ -8,6 +10,8 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
@@ -128,6 +132,82 @@ public class StockManagerHTTPProxy implements StockManager {
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooks(int cursor, int pageSize) throws BookStoreException {
+		String urlEncodedCursor = URLEncoder.encode(Integer.toString(cursor), StandardCharsets.UTF_8);
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(pageSize), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKSPAGE + "?"
+				+ BookStoreConstants.BOOK_CURSOR_PARAM + "=" + urlEncodedCursor + "&"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksInPriceRange(float,
+	 * float)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooksInPriceRange(float minPrice, float maxPrice) throws BookStoreException {
+		String urlEncodedMinPrice = URLEncoder.encode(Float.toString(minPrice), StandardCharsets.UTF_8);
+		String urlEncodedMaxPrice = URLEncoder.encode(Float.toString(maxPrice), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINPRICERANGE + "?"
+				+ BookStoreConstants.BOOK_MIN_PARAM + "=" + urlEncodedMinPrice + "&"
+				+ BookStoreConstants.BOOK_MAX_PARAM + "=" + urlEncodedMaxPrice;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksInIsbnRange(int,
+	 * int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooksInIsbnRange(int minISBN, int maxISBN) throws BookStoreException {
+		String urlEncodedMinISBN = URLEncoder.encode(Integer.toString(minISBN), StandardCharsets.UTF_8);
+		String urlEncodedMaxISBN = URLEncoder.encode(Integer.toString(maxISBN), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINISBNRANGE + "?"
+				+ BookStoreConstants.BOOK_MIN_PARAM + "=" + urlEncodedMinISBN + "&"
+				+ BookStoreConstants.BOOK_MAX_PARAM + "=" + urlEncodedMaxISBN;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Streams all the books in the bookstore, in the order of their ISBNs.
+	 * The server sends them a page at a time, and the iterator reads a page
+	 * only when the books before are consumed, so that neither end holds the
+	 * whole catalog. Every page is consistent, but the books may change
+	 * between the pages.
+	 *
+	 * @return the iterator over the books, to be closed if it is not read to
+	 *         the end
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public StockBookIterator streamBooks() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.STREAMBOOKS;
+		return new StockBookIterator(BookStoreUtility.performStreamingHttpExchange(client, urlString),
+				serializer.get());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -147,8 +227,46 @@ public class StockManagerHTTPProxy implements StockManager {
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSINDEMAND;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksWithLeastCopies(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException {
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSWITHLEASTCOPIES + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksChangedSince(long)
+	 */
+	public CatalogChanges getBooksChangedSince(long version) throws BookStoreException {
+		String urlEncodedVersion = URLEncoder.encode(Long.toString(version), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSCHANGEDSINCE + "?"
+				+ BookStoreConstants.BOOK_VERSION_PARAM + "=" + urlEncodedVersion;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (CatalogChanges) bookStoreResponse.getList().get(0);
 	}
 
 	/*
@@ -194,6 +312,22 @@ public class StockManagerHTTPProxy implements StockManager {
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.QUERYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, query);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
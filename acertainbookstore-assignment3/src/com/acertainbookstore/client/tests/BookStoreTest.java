@@ -14,6 +14,7 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookField;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -349,6 +350,95 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that searchByPrefix finds the books whose title or author starts
+	 * with a prefix, without case, accents or repeated spaces, in order.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchByPrefix() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and the Goblet of Fire", "J. K. Rowling",
+				(float) 20, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "Germinal", "\u00C9mile Zola", (float) 15, NUM_COPIES, 0, 0,
+				0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "C++ Primer", "Stanley Lippman", (float) 40,
+				NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<Book> books = client.searchByPrefix(BookField.TITLE, "harry  POTTER", 10);
+		assertEquals(2, books.size());
+		assertTrue(books.get(0).getISBN() == TEST_ISBN);
+		assertTrue(books.get(1).getISBN() == TEST_ISBN + 1);
+
+		assertEquals(1, client.searchByPrefix(BookField.TITLE, "Harry", 1).size());
+		assertTrue(client.searchByPrefix(BookField.TITLE, "Potter", 10).isEmpty());
+		assertTrue(client.searchByPrefix(BookField.AUTHOR, "emile z", 10).get(0).getISBN() == TEST_ISBN + 2);
+		assertTrue(client.searchByPrefix(BookField.TITLE, "c++", 10).get(0).getISBN() == TEST_ISBN + 3);
+		assertEquals(4, client.searchByPrefix(BookField.AUTHOR, "", 10).size());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnsToRemove);
+
+		books = client.searchByPrefix(BookField.TITLE, "harry", 10);
+		assertEquals(1, books.size());
+		assertTrue(books.get(0).getISBN() == TEST_ISBN);
+
+		try {
+			client.searchByPrefix(BookField.TITLE, "harry", -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that searching by keywords returns the books whose title or author
+	 * holds all the words, without case or accents, and not the removed ones.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchByKeywords() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and the Goblet of Fire", "J. K. Rowling",
+				(float) 20, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "Germinal", "\u00C9mile Zola", (float) 15, NUM_COPIES, 0, 0,
+				0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "The Fire Next Time", "James Baldwin", (float) 12,
+				NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		assertEquals(2, client.searchByKeywords("harry POTTER", 10).size());
+		assertEquals(1, client.searchByKeywords("harry", 1).size());
+		assertTrue(client.searchByKeywords("potter fire", 10).get(0).getISBN() == TEST_ISBN + 1);
+		assertTrue(client.searchByKeywords("rowling goblet", 10).get(0).getISBN() == TEST_ISBN + 1);
+		assertTrue(client.searchByKeywords("zola emile", 10).get(0).getISBN() == TEST_ISBN + 2);
+		assertEquals(2, client.searchByKeywords("fire", 10).size());
+		assertTrue(client.searchByKeywords("potter baldwin", 10).isEmpty());
+		assertTrue(client.searchByKeywords("unknown", 10).isEmpty());
+		assertTrue(client.searchByKeywords(" ", 10).isEmpty());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnsToRemove);
+
+		List<Book> books = client.searchByKeywords("fire", 10);
+		assertEquals(1, books.size());
+		assertTrue(books.get(0).getISBN() == TEST_ISBN + 3);
+
+		try {
+			client.searchByKeywords("harry", -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -3,6 +3,7 @@ package com.acertainbookstore.client.tests;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -16,10 +17,13 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockBookIterator;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
@@ -475,6 +479,465 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that getBooksInDemand lists the books with sale misses until they
+	 * are restocked.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemand() throws BookStoreException {
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+
+		// Buying two copies more than there are is a miss of two copies.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 2));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInDemand = storeManager.getBooksInDemand();
+		assertEquals(1, booksInDemand.size());
+		assertTrue(booksInDemand.get(0).getISBN() == TEST_ISBN);
+		assertEquals(2, booksInDemand.get(0).getNumSaleMisses());
+
+		// Restocking clears the sale misses.
+		Set<BookCopy> booksToAdd = new HashSet<BookCopy>();
+		booksToAdd.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(booksToAdd);
+
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+	}
+
+	/**
+	 * Tests that getBooksWithLeastCopies returns the books with the fewest
+	 * copies first and follows purchases and restocks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksWithLeastCopies() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES + 1, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES + 2, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> leastCopies = storeManager.getBooksWithLeastCopies(2);
+		assertEquals(2, leastCopies.size());
+		assertTrue(leastCopies.get(0).getISBN() == TEST_ISBN);
+		assertTrue(leastCopies.get(1).getISBN() == TEST_ISBN + 1);
+
+		// Buying three copies of the last book moves it to the front.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 2, 3));
+		client.buyBooks(booksToBuy);
+
+		leastCopies = storeManager.getBooksWithLeastCopies(1);
+		assertEquals(1, leastCopies.size());
+		assertTrue(leastCopies.get(0).getISBN() == TEST_ISBN + 2);
+		assertEquals(NUM_COPIES - 1, leastCopies.get(0).getNumCopies());
+
+		// Restocking it moves it back to the end.
+		Set<BookCopy> booksToRestock = new HashSet<BookCopy>();
+		booksToRestock.add(new BookCopy(TEST_ISBN + 2, 10));
+		storeManager.addCopies(booksToRestock);
+
+		leastCopies = storeManager.getBooksWithLeastCopies(10);
+		assertEquals(3, leastCopies.size());
+		assertTrue(leastCopies.get(2).getISBN() == TEST_ISBN + 2);
+	}
+
+	/**
+	 * Tests that getBooksChangedSince returns only the books changed and
+	 * removed since a version, and the whole catalog when the changes are not
+	 * known.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksChangedSince() throws BookStoreException {
+		CatalogChanges changes = storeManager.getBooksChangedSince(0);
+		assertEquals(1, changes.getBooks().size());
+		assertTrue(changes.getBooks().get(0).equals(getDefaultBook()));
+		assertTrue(changes.getRemovedISBNs().isEmpty());
+
+		long version = changes.getVersion();
+		changes = storeManager.getBooksChangedSince(version);
+		assertFalse(changes.isSnapshot());
+		assertEquals(version, changes.getVersion());
+		assertTrue(changes.getBooks().isEmpty());
+		assertTrue(changes.getRemovedISBNs().isEmpty());
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		client.buyBooks(booksToBuy);
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(isbnsToRemove);
+
+		// The book added then removed is only sent as removed.
+		changes = storeManager.getBooksChangedSince(version);
+		assertFalse(changes.isSnapshot());
+		assertTrue(changes.getVersion() > version);
+		assertEquals(2, changes.getBooks().size());
+
+		for (StockBook book : changes.getBooks()) {
+			if (book.getISBN() == TEST_ISBN) {
+				assertEquals(NUM_COPIES - 1, book.getNumCopies());
+			} else {
+				assertTrue(book.getISBN() == TEST_ISBN + 1);
+			}
+		}
+
+		assertEquals(1, changes.getRemovedISBNs().size());
+		assertTrue(changes.getRemovedISBNs().get(0) == TEST_ISBN + 2);
+
+		// A version the store never had gets the whole catalog.
+		changes = storeManager.getBooksChangedSince(changes.getVersion() + 1000);
+		assertTrue(changes.isSnapshot());
+		assertEquals(2, changes.getBooks().size());
+
+		try {
+			storeManager.getBooksChangedSince(-1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that getBooksChangedSince falls back to the whole catalog once the
+	 * changes since the version of the client are overwritten in the change
+	 * log.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksChangedSinceTooFarBehind() throws BookStoreException {
+		CertainBookStore store = new CertainBookStore(2);
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(getDefaultBook());
+		store.addBooks(booksToAdd);
+		long version = store.getBooksChangedSince(0).getVersion();
+
+		Set<BookCopy> booksToRestock = new HashSet<BookCopy>();
+		booksToRestock.add(new BookCopy(TEST_ISBN, 1));
+		store.addCopies(booksToRestock);
+		store.addCopies(booksToRestock);
+		assertFalse(store.getBooksChangedSince(version).isSnapshot());
+
+		store.addCopies(booksToRestock);
+		CatalogChanges changes = store.getBooksChangedSince(version);
+		assertTrue(changes.isSnapshot());
+		assertEquals(1, changes.getBooks().size());
+		assertEquals(NUM_COPIES + 3, changes.getBooks().get(0).getNumCopies());
+
+		// Removing all the books forgets the changes before.
+		store.removeAllBooks();
+		changes = store.getBooksChangedSince(changes.getVersion());
+		assertTrue(changes.isSnapshot());
+		assertTrue(changes.getBooks().isEmpty());
+	}
+
+	/**
+	 * Tests that queryBooks returns the books meeting all the conditions of a
+	 * query, whichever index the server reads them from.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testQueryBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, 1, 0, 2, 10, true));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 50, 2, 0, 1, 3, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Introduction to Algorithms", "Thomas Cormen",
+				(float) 80, 20, 0, 0, 0, true));
+		storeManager.addBooks(booksToAdd);
+
+		// A sale miss on the default book.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(4, storeManager.queryBooks(new BookQuery()).size());
+		assertEquals(isbnSet(TEST_ISBN + 1, TEST_ISBN + 3),
+				isbnsOf(storeManager.queryBooks(new BookQuery().withEditorPick(true))));
+		assertEquals(isbnSet(TEST_ISBN, TEST_ISBN + 2),
+				isbnsOf(storeManager.queryBooks(new BookQuery().withEditorPick(false))));
+		assertEquals(isbnSet(TEST_ISBN + 1, TEST_ISBN + 2),
+				isbnsOf(storeManager.queryBooks(new BookQuery().withCopiesBetween(0, 2))));
+		assertEquals(isbnSet(TEST_ISBN + 1),
+				isbnsOf(storeManager.queryBooks(new BookQuery().withCopiesBetween(0, 2).withEditorPick(true))));
+		assertEquals(isbnSet(TEST_ISBN),
+				isbnsOf(storeManager.queryBooks(new BookQuery().withSaleMissesAtLeast(1))));
+		assertEquals(isbnSet(TEST_ISBN + 2, TEST_ISBN + 3),
+				isbnsOf(storeManager.queryBooks(new BookQuery().withPriceBetween(50, 100))));
+		assertEquals(isbnSet(TEST_ISBN + 1),
+				isbnsOf(storeManager.queryBooks(new BookQuery().withAverageRatingAtLeast(4))));
+		assertTrue(storeManager.queryBooks(new BookQuery().withPriceBetween(1000, 2000)).isEmpty());
+		assertEquals(2, storeManager.queryBooks(new BookQuery().withLimit(2)).size());
+
+		List<StockBook> books = storeManager
+				.queryBooks(new BookQuery().withCopiesBetween(20, 20).withProjection(BookQuery.Projection.STOCK));
+		assertEquals(1, books.size());
+		assertTrue(books.get(0).getISBN() == TEST_ISBN + 3);
+		assertEquals("", books.get(0).getTitle());
+		assertEquals(20, books.get(0).getNumCopies());
+		assertTrue(books.get(0).isEditorPick());
+
+		try {
+			storeManager.queryBooks(new BookQuery().withLimit(-1));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a query scanning a catalog large enough to be scanned in
+	 * parallel finds all the matching books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testQueryBooksParallelScan() throws BookStoreException {
+		CertainBookStore store = new CertainBookStore();
+		int numBooks = BookStoreConstants.PARALLEL_QUERY_THRESHOLD * 2;
+		int numMatching = 0;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= numBooks; i++) {
+			booksToAdd.add(new ImmutableStockBook(i, "Harry Potter and Vivek", "JUnit Rowling", (float) (i % 100),
+					NUM_COPIES, 0, 0, 0, false));
+
+			if (i % 100 >= 10 && i % 100 <= 19) {
+				numMatching++;
+			}
+		}
+
+		store.addBooks(booksToAdd);
+
+		List<StockBook> books = store.queryBooks(new BookQuery().withPriceBetween(10, 19));
+		assertEquals(numMatching, books.size());
+
+		for (StockBook book : books) {
+			assertTrue(book.getPrice() >= 10 && book.getPrice() <= 19);
+		}
+
+		assertEquals(100, store.queryBooks(new BookQuery().withPriceBetween(10, 19).withLimit(100)).size());
+	}
+
+	private static Set<Integer> isbnSet(Integer... isbns) {
+		return new HashSet<Integer>(Arrays.asList(isbns));
+	}
+
+	private static Set<Integer> isbnsOf(List<StockBook> books) {
+		Set<Integer> isbns = new HashSet<Integer>();
+
+		for (StockBook book : books) {
+			isbns.add(book.getISBN());
+		}
+		return isbns;
+	}
+
+	/**
+	 * Tests that getBooks with a cursor reads the catalog a page at a time, in
+	 * the order of the ISBNs.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksPaged() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 4; i > 0; i--) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Harry Potter and Vivek", "JUnit Rowling",
+					(float) 100, NUM_COPIES, 0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		List<Integer> pageSizes = new ArrayList<Integer>();
+		List<Integer> isbns = new ArrayList<Integer>();
+		int cursor = 0;
+		List<StockBook> page;
+
+		do {
+			page = storeManager.getBooks(cursor, 2);
+			pageSizes.add(page.size());
+
+			for (StockBook book : page) {
+				isbns.add(book.getISBN());
+				cursor = book.getISBN();
+			}
+		} while (page.size() == 2);
+
+		assertEquals(Arrays.asList(2, 2, 1), pageSizes);
+		assertEquals(Arrays.asList(TEST_ISBN, TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3, TEST_ISBN + 4), isbns);
+
+		try {
+			storeManager.getBooks(0, 0);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			storeManager.getBooks(-1, 2);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that getBooksInPriceRange returns the books in the range only,
+	 * cheapest first, and not the removed ones.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInPriceRange() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language",
+				"Dennis Ritchie and Brian Kerninghan", (float) 15, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Free Software, Free Society", "Richard Stallman",
+				(float) 0, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> books = storeManager.getBooksInPriceRange(10, 20);
+		assertEquals(2, books.size());
+		assertTrue(books.get(0).getISBN() == TEST_ISBN);
+		assertTrue(books.get(1).getISBN() == TEST_ISBN + 2);
+
+		assertEquals(1, storeManager.getBooksInPriceRange(300, 300).size());
+		assertTrue(storeManager.getBooksInPriceRange(-100, 0).get(0).getISBN() == TEST_ISBN + 3);
+		assertTrue(storeManager.getBooksInPriceRange(20.5f, 299.5f).isEmpty());
+		assertEquals(4, storeManager.getBooksInPriceRange(0, Float.POSITIVE_INFINITY).size());
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(isbnsToRemove);
+
+		books = storeManager.getBooksInPriceRange(10, 20);
+		assertEquals(1, books.size());
+		assertTrue(books.get(0).getISBN() == TEST_ISBN);
+
+		try {
+			storeManager.getBooksInPriceRange(20, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that getBooksInIsbnRange returns the books in the range only, in
+	 * the order of their ISBNs.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInIsbnRange() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 4; i > 0; i--) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Harry Potter and Vivek", "JUnit Rowling",
+					(float) 100, NUM_COPIES, 0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		List<Integer> isbns = new ArrayList<Integer>();
+
+		for (StockBook book : storeManager.getBooksInIsbnRange(TEST_ISBN + 1, TEST_ISBN + 3)) {
+			isbns.add(book.getISBN());
+		}
+
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3), isbns);
+		assertEquals(5, storeManager.getBooksInIsbnRange(0, Integer.MAX_VALUE).size());
+		assertTrue(storeManager.getBooksInIsbnRange(TEST_ISBN + 5, TEST_ISBN + 10).isEmpty());
+
+		try {
+			storeManager.getBooksInIsbnRange(TEST_ISBN + 3, TEST_ISBN + 1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that the proxy streams the whole catalog over several pages, and
+	 * that a stream can be closed before its end.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStreamBooks() throws Exception {
+		if (localTest) {
+			// The stream is only served over HTTP.
+			return;
+		}
+
+		int numBooks = BookStoreConstants.STREAM_PAGE_SIZE * 2 + 1;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i < numBooks; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Harry Potter and Vivek", "JUnit Rowling",
+					(float) 100, NUM_COPIES, 0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+		int expectedISBN = TEST_ISBN;
+
+		try (StockBookIterator books = ((StockManagerHTTPProxy) storeManager).streamBooks()) {
+			while (books.hasNext()) {
+				assertTrue(books.next().getISBN() == expectedISBN);
+				expectedISBN++;
+			}
+		}
+
+		assertEquals(TEST_ISBN + numBooks, expectedISBN);
+
+		try (StockBookIterator books = ((StockManagerHTTPProxy) storeManager).streamBooks()) {
+			assertTrue(books.next().getISBN() == TEST_ISBN);
+		}
+	}
+
 	/**
 	 * Tear down after class.
 	 *
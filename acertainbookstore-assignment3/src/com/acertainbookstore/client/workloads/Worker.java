@@ -9,6 +9,7 @@ import java.util.stream.Collectors;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
@@ -25,6 +26,10 @@ public class Worker implements Callable<WorkerRunResult> {
     private int numSuccessfulFrequentBookStoreInteraction = 0;
     private int numTotalFrequentBookStoreInteraction = 0;
 
+    // The ISBNs in the catalog, as of the catalog version, synced with the changes since.
+    private final Set<Integer> catalogISBNs = new HashSet<>();
+    private long catalogVersion = 0;
+
     public Worker(WorkloadConfiguration config) {
         configuration = config;
     }
@@ -106,14 +111,30 @@ public class Worker implements Callable<WorkerRunResult> {
     private void runRareStockManagerInteraction() throws BookStoreException {
         StockManager stockManager = configuration.getStockManager();
         BookSetGenerator bookSetGenerator = configuration.getBookSetGenerator();
-        List<StockBook> stockBookList = stockManager.getBooks();
+        syncCatalog(stockManager);
         List<StockBook> generateBookList = new ArrayList<>(bookSetGenerator.nextSetOfStockBooks(configuration.getNumBooksToAdd()));
-        final List<Integer> isbnList = stockBookList.stream().map(Book::getISBN).collect(Collectors.toList());
-        final Set<StockBook> booksNotFound = generateBookList.stream().filter(book -> !isbnList.contains(book)).collect(Collectors.toSet());
+        final Set<StockBook> booksNotFound = generateBookList.stream().filter(book -> !catalogISBNs.contains(book.getISBN())).collect(Collectors.toSet());
         stockManager.addBooks(booksNotFound);
 
     }
 
+    /**
+     * Brings the ISBNs of the catalog up to date with the books changed since
+     * the last sync, instead of transferring the whole catalog every time
+     *
+     * @throws BookStoreException
+     */
+    private void syncCatalog(StockManager stockManager) throws BookStoreException {
+        CatalogChanges changes = stockManager.getBooksChangedSince(catalogVersion);
+
+        if (changes.isSnapshot()) {
+            catalogISBNs.clear();
+        }
+        changes.getBooks().forEach(book -> catalogISBNs.add(book.getISBN()));
+        catalogISBNs.removeAll(changes.getRemovedISBNs());
+        catalogVersion = changes.getVersion();
+    }
+
     /**
      * Runs the stock replenishment interaction
      *
@@ -122,9 +143,9 @@ public class Worker implements Callable<WorkerRunResult> {
     private void runFrequentStockManagerInteraction() throws BookStoreException {
         StockManager stockManager = configuration.getStockManager();
         final Set<BookCopy> bookCopies = new HashSet<>();
-        stockManager.getBooks().stream()
-				.sorted(Comparator.comparing(StockBook::getNumCopies).reversed())
-				.limit(configuration.getNumBooksWithLeastCopies())
+        // The server keeps the books ordered by number of copies, so only the
+        // books to restock are transferred.
+        stockManager.getBooksWithLeastCopies(configuration.getNumBooksWithLeastCopies())
 				.forEach(stockBook -> bookCopies.add(new BookCopy(stockBook.getISBN(), configuration.getNumAddCopies())));
         stockManager.addCopies(bookCopies);
     }
@@ -5,6 +5,7 @@ import java.util.Set;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookField;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -67,4 +68,36 @@ public interface BookStore {
 	 *             the book store exception
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException;
+
+	/**
+	 * Gets the books whose title or author starts with a prefix, in the order
+	 * of that field. The field and the prefix are compared without case,
+	 * accents or repeated spaces.
+	 *
+	 * @param field
+	 *            the field searched
+	 * @param prefix
+	 *            the prefix
+	 * @param limit
+	 *            the most number of books
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> searchByPrefix(BookField field, String prefix, int limit) throws BookStoreException;
+
+	/**
+	 * Gets the books whose title or author holds all the words of a query, in
+	 * the order they were added. The words are compared without case or
+	 * accents, and a query without words matches no book.
+	 *
+	 * @param keywords
+	 *            the query
+	 * @param limit
+	 *            the most number of books
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> searchByKeywords(String keywords, int limit) throws BookStoreException;
 }
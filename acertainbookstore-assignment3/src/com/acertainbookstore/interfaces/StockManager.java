@@ -5,6 +5,8 @@ import java.util.Set;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -39,6 +41,50 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooks() throws BookStoreException;
 
+	/**
+	 * Gets a page of the books in the bookstore, in the order of their ISBNs.
+	 * The first page is read with the cursor 0 and every next one with the
+	 * ISBN of the last book of the page before, until a page has less than
+	 * pageSize books. Every page is consistent, but the books may change
+	 * between the pages.
+	 *
+	 * @param cursor
+	 *            the ISBN after which the page starts
+	 * @param pageSize
+	 *            the maximum number of books in the page
+	 * @return the books in the page
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooks(int cursor, int pageSize) throws BookStoreException;
+
+	/**
+	 * Gets the books with a price in a range, cheapest first, with the books
+	 * of the same price in the order of their ISBNs.
+	 *
+	 * @param minPrice
+	 *            the least price, inclusive
+	 * @param maxPrice
+	 *            the highest price, inclusive
+	 * @return the books in the range
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooksInPriceRange(float minPrice, float maxPrice) throws BookStoreException;
+
+	/**
+	 * Gets the books with an ISBN in a range, in the order of their ISBNs.
+	 *
+	 * @param minISBN
+	 *            the least ISBN, inclusive
+	 * @param maxISBN
+	 *            the highest ISBN, inclusive
+	 * @return the books in the range
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooksInIsbnRange(int minISBN, int maxISBN) throws BookStoreException;
+
 	/**
 	 * Gets the books matching the set of ISBNs given, is different to getBooks
 	 * in the BookStore interface because of the return type of the books.
@@ -51,6 +97,19 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException;
 
+	/**
+	 * Gets the books matching a query, evaluated by the server, in no
+	 * particular order.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the books matching the query, at most its limit, with the
+	 *         fields of its projection
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException;
+
 	/**
 	 * Gets the list of books which has sale miss.
 	 *
@@ -60,6 +119,31 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksInDemand() throws BookStoreException;
 
+	/**
+	 * Gets the books with the least copies in stock, fewest first.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books with the least copies
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooksWithLeastCopies(int numBooks) throws BookStoreException;
+
+	/**
+	 * Gets the books added, changed or removed since a version of the catalog
+	 * the client has seen, with the new version. The first call passes 0.
+	 * When the changes are no longer known, the whole catalog is returned as
+	 * a snapshot.
+	 *
+	 * @param version
+	 *            the version the client has seen
+	 * @return the changes
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public CatalogChanges getBooksChangedSince(long version) throws BookStoreException;
+
 	/**
 	 * Updates the books by mark/unmark them as editor pick.
 	 *
@@ -1,8 +1,11 @@
 package com.acertainbookstore.server;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import javax.servlet.ServletException;
@@ -14,6 +17,8 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookField;
+import com.acertainbookstore.business.BookQuery;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
@@ -110,6 +115,34 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				listBooks(response);
 				break;
 
+			case LISTBOOKSPAGE:
+				listBooksPage(request, response);
+				break;
+
+			case GETBOOKSINPRICERANGE:
+				getBooksInPriceRange(request, response);
+				break;
+
+			case GETBOOKSINISBNRANGE:
+				getBooksInIsbnRange(request, response);
+				break;
+
+			case STREAMBOOKS:
+				streamBooks(response);
+				break;
+
+			case QUERYBOOKS:
+				queryBooks(request, response);
+				break;
+
+			case SEARCHBYPREFIX:
+				searchByPrefix(request, response);
+				break;
+
+			case SEARCHBYKEYWORDS:
+				searchByKeywords(request, response);
+				break;
+
 			case UPDATEEDITORPICKS:
 				updateEditorPicks(request, response);
 				break;
@@ -130,6 +163,18 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				getStockBooksByISBN(request, response);
 				break;
 
+			case GETBOOKSINDEMAND:
+				getBooksInDemand(response);
+				break;
+
+			case GETBOOKSWITHLEASTCOPIES:
+				getBooksWithLeastCopies(request, response);
+				break;
+
+			case GETBOOKSCHANGEDSINCE:
+				getBooksChangedSince(request, response);
+				break;
+
 			default:
 				System.err.println("Unsupported message tag.");
 				break;
@@ -167,6 +212,139 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Searches the books by prefix.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void searchByPrefix(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		// The parameters are decoded once by the request, since a prefix may
+		// hold a '%' or a '+'.
+		String fieldString = request.getParameter(BookStoreConstants.BOOK_FIELD_PARAM);
+		String prefix = request.getParameter(BookStoreConstants.BOOK_PREFIX_PARAM);
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			BookField field = BookStoreUtility.convertStringToBookField(fieldString);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(myBookStore.searchByPrefix(field, prefix, numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Searches the books by keywords.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void searchByKeywords(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String keywords = request.getParameter(BookStoreConstants.BOOK_KEYWORDS_PARAM);
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(myBookStore.searchByKeywords(keywords, numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books matching a query.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void queryBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookQuery query = (BookQuery) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.queryBooks(query));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books with the least copies.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksWithLeastCopies(HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(myBookStore.getBooksWithLeastCopies(numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books changed since a version of the catalog.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksChangedSince(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String versionString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_VERSION_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			long version = BookStoreUtility.convertStringToLong(versionString);
+			bookStoreResponse.setList(Collections.singletonList(myBookStore.getBooksChangedSince(version)));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Gets the editor picks.
 	 *
@@ -290,6 +468,147 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Lists a page of the books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void listBooksPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String cursorString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_CURSOR_PARAM), StandardCharsets.UTF_8);
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int cursor = BookStoreUtility.convertStringToInt(cursorString);
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			bookStoreResponse.setList(myBookStore.getBooks(cursor, numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books in a range of prices.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInPriceRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String minString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_MIN_PARAM), StandardCharsets.UTF_8);
+		String maxString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_MAX_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			// An unreadable price is NaN, which the store rejects.
+			float minPrice = BookStoreUtility.convertStringToFloat(minString, Float.NaN);
+			float maxPrice = BookStoreUtility.convertStringToFloat(maxString, Float.NaN);
+			bookStoreResponse.setList(myBookStore.getBooksInPriceRange(minPrice, maxPrice));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Gets the books in a range of ISBNs.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInIsbnRange(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String minString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_MIN_PARAM), StandardCharsets.UTF_8);
+		String maxString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_MAX_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int minISBN = BookStoreUtility.convertStringToInt(minString);
+			int maxISBN = BookStoreUtility.convertStringToInt(maxString);
+			bookStoreResponse.setList(myBookStore.getBooksInIsbnRange(minISBN, maxISBN));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Streams all the books, a page at a time, so that neither end holds the
+	 * whole catalog. Every page is written as its length and the serialized
+	 * list of its books, and flushed in a chunk of the response. A length of
+	 * zero ends the stream.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void streamBooks(HttpServletResponse response) throws IOException {
+		DataOutputStream out = new DataOutputStream(response.getOutputStream());
+		int cursor = 0;
+		List<StockBook> page;
+
+		do {
+			try {
+				page = myBookStore.getBooks(cursor, BookStoreConstants.STREAM_PAGE_SIZE);
+			} catch (BookStoreException ex) {
+				// The response is already under way, so it is aborted, and
+				// the client sees the stream end without its last page.
+				throw new IOException(ex);
+			}
+
+			if (!page.isEmpty()) {
+				byte[] serializedPage = serializer.get().serialize(page);
+				out.writeInt(serializedPage.length);
+				out.write(serializedPage);
+				out.flush();
+				cursor = page.get(page.size() - 1).getISBN();
+			}
+		} while (page.size() == BookStoreConstants.STREAM_PAGE_SIZE);
+
+		out.writeInt(0);
+		out.flush();
+	}
+
+	/**
+	 * Gets the books in demand.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInDemand(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(myBookStore.getBooksInDemand());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
 	/**
 	 * Adds the copies.
 	 *
@@ -19,6 +19,36 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant BOOK_FIELD_PARAM. */
+	public static final String BOOK_FIELD_PARAM = "field";
+
+	/** The Constant BOOK_PREFIX_PARAM. */
+	public static final String BOOK_PREFIX_PARAM = "prefix";
+
+	/** The Constant BOOK_KEYWORDS_PARAM. */
+	public static final String BOOK_KEYWORDS_PARAM = "keywords";
+
+	/** The Constant BOOK_MIN_PARAM. */
+	public static final String BOOK_MIN_PARAM = "min";
+
+	/** The Constant BOOK_MAX_PARAM. */
+	public static final String BOOK_MAX_PARAM = "max";
+
+	/** The Constant BOOK_CURSOR_PARAM. */
+	public static final String BOOK_CURSOR_PARAM = "cursor";
+
+	/** The number of books in a page of the stream of the catalog. */
+	public static final int STREAM_PAGE_SIZE = 1000;
+
+	/** The number of books from which a query scanning the catalog runs in parallel. */
+	public static final int PARALLEL_QUERY_THRESHOLD = 1 << 15;
+
+	/** The Constant BOOK_VERSION_PARAM. */
+	public static final String BOOK_VERSION_PARAM = "version";
+
+	/** The number of changes of books kept for the clients syncing their catalog. */
+	public static final int DEFAULT_CHANGE_LOG_CAPACITY = 1 << 16;
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -48,6 +78,9 @@ public final class BookStoreConstants {
 	/** The Constant NUM_COPIES. */
 	public static final String NUM_COPIES = "The Number of copies: ";
 
+	/** The Constant FIELD. */
+	public static final String FIELD = "The field: ";
+
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
@@ -34,5 +34,35 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the get books in demand message. */
+	GETBOOKSINDEMAND,
+
+	/** The tag for the get books with least copies message. */
+	GETBOOKSWITHLEASTCOPIES,
+
+	/** The tag for the get books changed since message. */
+	GETBOOKSCHANGEDSINCE,
+
+	/** The tag for the list books page message. */
+	LISTBOOKSPAGE,
+
+	/** The tag for the stream books message. */
+	STREAMBOOKS,
+
+	/** The tag for the query books message. */
+	QUERYBOOKS,
+
+	/** The tag for the search by prefix message. */
+	SEARCHBYPREFIX,
+
+	/** The tag for the search by keywords message. */
+	SEARCHBYKEYWORDS,
+
+	/** The tag for the get books in price range message. */
+	GETBOOKSINPRICERANGE,
+
+	/** The tag for the get books in ISBN range message. */
+	GETBOOKSINISBNRANGE;
 }
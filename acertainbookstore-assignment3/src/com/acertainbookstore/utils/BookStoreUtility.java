@@ -1,16 +1,23 @@
 package com.acertainbookstore.utils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.text.Normalizer;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
 
+import com.acertainbookstore.business.BookField;
 import com.acertainbookstore.client.BookStoreClientConstants;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.thoughtworks.xstream.XStream;
@@ -83,6 +90,41 @@ public final class BookStoreUtility {
 		return str == null || str.isEmpty();
 	}
 
+	/**
+	 * Normalizes a text for searching: decomposed, without accents, in lower
+	 * case, with every run of white space made one space, and trimmed, so
+	 * that "&Eacute;mile  Zola" and "emile zola" are the same.
+	 *
+	 * @param text
+	 *            the text
+	 * @return the normalized text
+	 */
+	public static String normalizeText(String text) {
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+		StringBuilder normalized = new StringBuilder(decomposed.length());
+		boolean space = false;
+
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+
+			if (Character.getType(c) == Character.NON_SPACING_MARK) {
+				continue;
+			}
+
+			if (Character.isWhitespace(c)) {
+				space = normalized.length() > 0;
+				continue;
+			}
+
+			if (space) {
+				normalized.append(' ');
+				space = false;
+			}
+			normalized.append(Character.toLowerCase(c));
+		}
+		return normalized.toString();
+	}
+
 	/**
 	 * Converts a string to a float if possible else it returns the signal value
 	 * for failure passed as parameter.
@@ -128,6 +170,44 @@ public final class BookStoreUtility {
 		return returnValue;
 	}
 
+	/**
+	 * Converts a string to a long if possible.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the long
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static long convertStringToLong(String str) throws BookStoreException {
+		long returnValue = 0;
+
+		try {
+			returnValue = Long.parseLong(str);
+		} catch (Exception ex) {
+			throw new BookStoreException(ex);
+		}
+
+		return returnValue;
+	}
+
+	/**
+	 * Converts a string to a book field if possible.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the book field
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static BookField convertStringToBookField(String str) throws BookStoreException {
+		try {
+			return BookField.valueOf(str);
+		} catch (IllegalArgumentException | NullPointerException ex) {
+			throw new BookStoreException(BookStoreConstants.FIELD + str + BookStoreConstants.INVALID, ex);
+		}
+	}
+
 	/**
 	 * Convert a request URI to the message tags supported in CertainBookStore.
 	 *
@@ -213,4 +293,42 @@ public final class BookStoreUtility {
 
 		return bookStoreResponse;
 	}
+
+	/**
+	 * Perform HTTP GET exchange, returning the content of the response as a
+	 * stream as soon as the headers are received, so that the content is read
+	 * as it arrives rather than held in memory.
+	 *
+	 * @param client
+	 *            the client
+	 * @param urlString
+	 *            the URL string
+	 * @return the stream of the content, to be closed by the caller
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static InputStream performStreamingHttpExchange(HttpClient client, String urlString)
+			throws BookStoreException {
+		InputStreamResponseListener listener = new InputStreamResponseListener();
+		client.newRequest(urlString).method(HttpMethod.GET).send(listener);
+
+		Response response;
+
+		try {
+			response = listener.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		if (response.getStatus() != HttpStatus.OK_200) {
+			response.abort(new IOException("HTTP status " + response.getStatus()));
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION);
+		}
+
+		return listener.getInputStream();
+	}
 }
@@ -1,5 +1,7 @@
 package com.acertainbookstore.utils;
 
+import java.nio.charset.StandardCharsets;
+
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
@@ -25,7 +27,7 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	@Override
 	public byte[] serialize(Object object) {
 		String xml = xmlStream.toXML(object);
-		return xml.getBytes();
+		return xml.getBytes(StandardCharsets.UTF_8);
 	}
 
 	/*
@@ -36,7 +38,7 @@ public final class BookStoreXStreamSerializer implements BookStoreSerializer {
 	 */
 	@Override
 	public Object deserialize(byte[] bytes) {
-		String xml = new String(bytes);
+		String xml = new String(bytes, StandardCharsets.UTF_8);
 		return xmlStream.fromXML(xml);
 	}
 }